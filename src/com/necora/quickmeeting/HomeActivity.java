@@ -17,28 +17,30 @@
 
 package com.necora.quickmeeting;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.Color;
-import android.graphics.Typeface;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.text.TextUtils.TruncateAt;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.ContextMenu;
-import android.view.Display;
-import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -46,52 +48,90 @@ import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.ContextMenu.ContextMenuInfo;
-import android.view.View.OnClickListener;
-import android.view.ViewGroup.LayoutParams;
-import android.widget.FrameLayout;
-import android.widget.LinearLayout;
-import android.widget.TableLayout;
-import android.widget.TableRow;
-import android.widget.TextView;
 import android.widget.Toast;
 
+import com.necora.quickmeeting.objects.BusyEvent;
 import com.necora.quickmeeting.objects.CalendarResource;
 import com.necora.quickmeeting.objects.Event;
+import com.necora.quickmeeting.service.AdaptivePollPolicy;
+import com.necora.quickmeeting.service.EventFetchResult;
+import com.necora.quickmeeting.service.PollScheduler;
 import com.necora.quickmeeting.service.ResourceManager;
 import com.necora.quickmeeting.service.UserManager;
 import com.necora.quickmeeting.service.exception.ResourceNotAvaiableException;
-import com.necora.quickmeeting.util.Observable;
-import com.necora.quickmeeting.util.Observer;
+import com.necora.quickmeeting.service.exception.SyncFailedException;
+import com.necora.quickmeeting.util.TaskExecutor;
 
-public class HomeActivity extends Activity implements Observer {
+public class HomeActivity extends Activity implements RoomGridView.OnGridTapListener {
+	
+	/**
+	 * Booking or deletion made from this device, drawn over fetched events 
+	 * from the tap until a fetch of its room includes it
+	 */
+	private static class LocalChange {
+		//Room id of the event
+		String mRoom;
+		//Event drawn for a booking, or shown event hidden by a deletion
+		Event mEvent;
+		//True for a deletion
+		boolean mDeletion;
+		//True once google accepted the change
+		boolean mConfirmed;
+		//Time (ms) google accepted the change
+		long mConfirmTime;
+		//Written by the worker before it posts the change: true if google accepted it
+		boolean mAccepted;
+		//Written by the worker: time (ms) google accepted the change
+		long mAcceptTime;
+		//Written by the worker: event created by google
+		Event mCreated;
+	}
+	
+	/**
+	 * Event fetched for a tapped busy interval
+	 */
+	private static class EventDetails {
+		//Room id of the busy interval
+		String mRoom;
+		//Tapped busy interval
+		BusyEvent mBusyEvent;
+		//Fetched event, or the busy interval if it could not be fetched
+		Event mEvent;
+	}
 	
 	private ResourceManager mResourceManager;
 	UserManager mUserManager;
 	
 	private ProgressDialog mProgress;
 	String mToastErrorMessage;
-	private List<String> mCalendarNames;
+	//Rooms and their events are keyed by resource id, unique among accounts
+	private Map<String, String> mCalendarLabels;
 	Map<String,CalendarResource>  mCalendarMap;
-	Map<String, List<? extends Event>> mEventMap;
-	private SimpleDateFormat mFormatter;
-	private TableLayout mTableLayout;
-	private FrameLayout mFrameLayout;
-	private LinearLayout mHeaderLayout;
+	//Fetched events by room id. Only replaced by workers
+	volatile Map<String, List<? extends Event>> mEventMap;
+	private RoomGridView mRoomGrid;
 	private int mNumberOfRows;
-	private int mCalendarColumnWidth;
-	private int mCalendarRowHeight;
-	private int mFirstColumnWidth;
-	private int mEventTextSize;
 	private Calendar mCalendarBegin;
 	private Calendar mCalendarEnd;
-	private CellTextView mSelectedCell;
-	private ArrayList<TextView> mAllEvents;
-	private boolean mPoll;
-	private boolean mRefresh;
+	//Room and row of the tapped cell
+	private String mSelectedCalendar;
+	private int mSelectedPosition;
+	private PollScheduler mPollScheduler;
+	private AdaptivePollPolicy mPollPolicy;
+	//Grid shows free/busy intervals, details are fetched on tap
+	private boolean mFreeBusyMode;
+	//Grid shows rooms of every account, not only the active one
+	private boolean mSyncAllAccounts;
+	//Bookings and deletions made from this device, in order. Only used in UI thread
+	private final List<LocalChange> mLocalChanges = new ArrayList<LocalChange>();
+	//Time (ms) each room was last fetched from, by room id. Set after mEventMap is replaced
+	private final Map<String, Long> mFetchTimes = new ConcurrentHashMap<String, Long>();
 	
 	private final int HOURS_IN_CALENDAR     = 5;
 	private final int MIN_EVENT_TIME        = 15;
-	private final int MINUTES_BETWEEN_POLLS = 2;
+	//Rooms are polled between these intervals, depending on their activity
+	private final int MINUTES_BETWEEN_POLLS     = 2;
+	private final int MAX_MINUTES_BETWEEN_POLLS = 30;
 	
 	//Maximum number of columns per screen
 	private final int MAX_NUM_OF_COLUMNS_PER_SCREEN = 4;
@@ -101,6 +141,13 @@ public class HomeActivity extends Activity implements Observer {
 	private final int THREE_MIN_EVENTS_SELECTIONS = 3;
 	private final int FOUR_MIN_EVENTS_SELECTIONS  = 4;
 	
+	private final String PREF_FREE_BUSY_MODE = "freeBusyMode";
+	private final String PREF_SYNC_ALL_ACCOUNTS = "syncAllAccounts";
+	private final String PREF_OFFICE_HOURS_BEGIN = "officeHoursBegin";
+	private final String PREF_OFFICE_HOURS_END   = "officeHoursEnd";
+	private final String DEFAULT_OFFICE_HOURS_BEGIN = "8";
+	private final String DEFAULT_OFFICE_HOURS_END   = "20";
+	
 	private final String TAG = "**** HomeActivity";
 	
     /** Called when the activity is first created. */
@@ -117,24 +164,21 @@ public class HomeActivity extends Activity implements Observer {
         
         setContentView(R.layout.main);
         
-        mHeaderLayout        = (LinearLayout)findViewById(R.id.ll_calendar_names);
-        mFrameLayout         = (FrameLayout)findViewById(R.id.frameLayout);
-        mTableLayout         = (TableLayout)findViewById(R.id.mainTableLayout);
+        mRoomGrid = (RoomGridView)findViewById(R.id.roomGrid);
+        mRoomGrid.setMaxColumnsPerScreen(MAX_NUM_OF_COLUMNS_PER_SCREEN);
+        mRoomGrid.setUserEventMarker(getString(R.string.createdByQuickMeeting));
+        mRoomGrid.setOnGridTapListener(this);
         
         mProgress 	       = new ProgressDialog(this);
-        mFormatter         = new SimpleDateFormat("HH:mm");
-        mAllEvents         = new ArrayList<TextView>();
         mEventMap          = new HashMap<String, List<? extends Event>>();
         mToastErrorMessage = getString(R.string.download_data_error);
         
         mProgress.setMessage(getString(R.string.download_data));
         
-        mFirstColumnWidth    = getResources().getDimensionPixelSize(R.dimen.first_column_width);
-        mCalendarRowHeight   = getResources().getDimensionPixelSize(R.dimen.calendar_row_height);
-        mEventTextSize       = getResources().getDimensionPixelSize(R.dimen.event_font_size);
-        
         mUserManager     = UserManager.getInstance(this); 
         mResourceManager = ResourceManager.getInstance(this);
+        mPollScheduler   = new PollScheduler(mPollTask, MINUTES_BETWEEN_POLLS*60*1000);
+        mPollPolicy      = new AdaptivePollPolicy(MINUTES_BETWEEN_POLLS*60*1000, MAX_MINUTES_BETWEEN_POLLS*60*1000);
         
         //Display display = ((WindowManager) getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
         //int screen_width_pixels = display.getHeight();
@@ -150,22 +194,22 @@ public class HomeActivity extends Activity implements Observer {
     	//Verify if there is at least one account
     	forceToCreateAnAccount();
     	
-    	mRefresh = true;
+    	SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+    	mFreeBusyMode = preferences.getBoolean(PREF_FREE_BUSY_MODE, false);
+    	mSyncAllAccounts = preferences.getBoolean(PREF_SYNC_ALL_ACCOUNTS, false);
+    	mPollPolicy.setOfficeHours(
+    			Integer.parseInt(preferences.getString(PREF_OFFICE_HOURS_BEGIN, DEFAULT_OFFICE_HOURS_BEGIN)),
+    			Integer.parseInt(preferences.getString(PREF_OFFICE_HOURS_END, DEFAULT_OFFICE_HOURS_END)));
         try {
         	//clear screen
-        	removeAllEvents();
-        	mTableLayout.removeAllViews();
-        	mHeaderLayout.removeAllViews();
+        	mRoomGrid.setEvents(new HashMap<String, List<? extends Event>>(), Collections.<Event>emptySet());
         	
-        	List<CalendarResource> calendars = mResourceManager.getActiveResources();
-        	mCalendarNames = new ArrayList<String>();
-        	mCalendarMap = new HashMap<String, CalendarResource>();
-        	for( CalendarResource calendar:  calendars) {
-        		mCalendarMap.put(calendar.getTitle(), calendar);
-        		mCalendarNames.add(calendar.getTitle());
-        	}
-            refreshEvents();
-            startPolling();
+        	loadColumns();
+            mPollScheduler.start();
+            refreshEventsFromStore();
+            if( mSyncAllAccounts ) {
+            	syncAllAccounts();
+            }
         } catch (Exception e) {
 			// TODO: handle exception
             e.printStackTrace();
@@ -173,10 +217,89 @@ public class HomeActivity extends Activity implements Observer {
 		}
     }
     
+    /**
+     * Show a column for each room. Rooms of different accounts may have the 
+     * same name, so the account is added to the label of those
+     * @throws ResourceNotAvaiableException rooms cannot be loaded
+     */
+    private void loadColumns() throws ResourceNotAvaiableException {
+    	List<CalendarResource> calendars = getShownResources();
+    	Set<String> titles = new HashSet<String>();
+    	Set<String> repeatedTitles = new HashSet<String>();
+    	for( CalendarResource calendar:  calendars) {
+    		if( !titles.add(calendar.getTitle()) ) {
+    			repeatedTitles.add(calendar.getTitle());
+    		}
+    	}
+    	List<String> calendarIds = new ArrayList<String>();
+    	List<String> labels = new ArrayList<String>();
+    	Map<String, String> calendarLabels = new HashMap<String, String>();
+    	Map<String, CalendarResource> calendarMap = new HashMap<String, CalendarResource>();
+    	for( CalendarResource calendar:  calendars) {
+    		String label = calendar.getTitle();
+    		String account = mResourceManager.getResourceAccount(calendar.getId());
+    		if( repeatedTitles.contains(label) && account != null ) {
+    			label = getString(R.string.roomOfAccount, label, account);
+    		}
+    		calendarMap.put(calendar.getId(), calendar);
+    		calendarLabels.put(calendar.getId(), label);
+    		calendarIds.add(calendar.getId());
+    		labels.add(label);
+    	}
+    	mCalendarLabels = calendarLabels;
+    	mCalendarMap = calendarMap;
+    	mRoomGrid.setColumns(calendarIds, labels);
+    	mPollPolicy.retain(calendars);
+    }
+    
+    /**
+     * Rooms shown in the grid: active rooms of every account, or of the active one
+     * @return shown rooms
+     * @throws ResourceNotAvaiableException rooms cannot be loaded
+     */
+    private List<CalendarResource> getShownResources() throws ResourceNotAvaiableException {
+    	if( mSyncAllAccounts ) {
+    		return mResourceManager.getAllActiveResources();
+    	}
+    	return mResourceManager.getActiveResources();
+    }
+    
+    /**
+     * Refresh tokens and rooms of every account in background, then show the 
+     * rooms. Accounts which fail are reported, the others are shown anyway
+     */
+    private void syncAllAccounts() {
+    	TaskExecutor.getInstance().submit(new Runnable() {
+    		@Override
+    		public void run() {
+    			Map<String, SyncFailedException> failures = mResourceManager.syncAllAccounts();
+    			mAccountSyncHandler.sendMessage(mAccountSyncHandler.obtainMessage(0, failures));
+    		}
+    	}, TaskExecutor.PRIORITY_REFRESH, this, "syncAllAccounts");
+    }
+    
+    private Handler mAccountSyncHandler = new Handler() {
+    	@Override
+    	public void handleMessage(Message msg) {
+    		@SuppressWarnings("unchecked")
+    		Map<String, SyncFailedException> failures = (Map<String, SyncFailedException>) msg.obj;
+    		for( String email : failures.keySet() ) {
+    			Toast.makeText(HomeActivity.this, getString(R.string.accountSyncError, email), Toast.LENGTH_SHORT).show();
+    		}
+    		try {
+    			loadColumns();
+    			mPollScheduler.requestPoll();
+    		} catch (ResourceNotAvaiableException e) {
+    			e.printStackTrace();
+    			Log.d(TAG, e.getMessage());
+    		}
+    	}
+    };
+    
     private void forceToCreateAnAccount() {
         List<CalendarResource> resourceList = null;
         try {
-            resourceList = mResourceManager.getActiveResources();
+            resourceList = getShownResources();
         } catch (ResourceNotAvaiableException e) {
             e.printStackTrace();
             Log.d(TAG, e.getMessage());
@@ -202,7 +325,16 @@ public class HomeActivity extends Activity implements Observer {
     @Override
     protected void onPause() {
     	super.onPause();
-    	mRefresh = false;
+    	mPollScheduler.stop();
+    	TaskExecutor.getInstance().cancelAll(this);
+    	mProgress.dismiss();
+    }
+    
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	mPollScheduler.stop();
+    	TaskExecutor.getInstance().cancelAll(this);
     }
 	
 	@Override
@@ -230,207 +362,130 @@ public class HomeActivity extends Activity implements Observer {
         }
     }
     
-    private void drawBackground(){
-    	setColumnWidth();
-        drawFirstRow();
-        drawBackgroundCells();
+    private void drawEvents() {
+    	mRoomGrid.setWindow(mCalendarBegin, mNumberOfRows, MIN_EVENT_TIME);
+    	Set<Event> pendingEvents = new HashSet<Event>();
+    	mRoomGrid.setEvents(applyLocalChanges(pendingEvents), pendingEvents);
     }
     
-    private void setColumnWidth() {
-    	Display display = getWindowManager().getDefaultDisplay(); 
-    	int width = display.getWidth() - mFirstColumnWidth;
-    	int numberOfCalendars = mCalendarNames.size();
-    	if( numberOfCalendars <= 1 ) {
-    		mCalendarColumnWidth = width/2;
+    /**
+     * Draw bookings and deletions made from this device over fetched events. 
+     * Confirmed ones are dropped once a fetch of their room started after google 
+     * accepted them, or once their room is not shown anymore
+     * @param pendingEvents filled with bookings not confirmed yet
+     * @return events to draw by room id
+     */
+    private Map<String, List<? extends Event>> applyLocalChanges(Set<Event> pendingEvents) {
+    	for(Iterator<LocalChange> it = mLocalChanges.iterator(); it.hasNext(); ) {
+    		LocalChange change = it.next();
+    		Long fetchTime = mFetchTimes.get(change.mRoom);
+    		if( change.mConfirmed && ((fetchTime != null && fetchTime > change.mConfirmTime) 
+    				|| !mCalendarMap.containsKey(change.mRoom)) ) {
+    			it.remove();
+    		}
     	}
-    	else if( numberOfCalendars <= MAX_NUM_OF_COLUMNS_PER_SCREEN ) {
-    		mCalendarColumnWidth = width/numberOfCalendars;
+    	//Read after fetch times, which are set after events are replaced
+    	Map<String, List<? extends Event>> eventMap = mEventMap;
+    	if( mLocalChanges.isEmpty() ) {
+    		return eventMap;
     	}
-    	else {
-    		mCalendarColumnWidth = width/MAX_NUM_OF_COLUMNS_PER_SCREEN;
+    	Map<String, List<? extends Event>> result = new HashMap<String, List<? extends Event>>(eventMap);
+    	Map<String, List<Event>> changedRooms = new HashMap<String, List<Event>>();
+    	for(LocalChange change : mLocalChanges) {
+    		List<Event> events = changedRooms.get(change.mRoom);
+    		if( events == null ) {
+    			events = new ArrayList<Event>();
+    			if( eventMap.get(change.mRoom) != null ) {
+    				events.addAll(eventMap.get(change.mRoom));
+    			}
+    			changedRooms.put(change.mRoom, events);
+    			result.put(change.mRoom, events);
+    		}
+    		if( change.mDeletion ) {
+    			for(Iterator<Event> it = events.iterator(); it.hasNext(); ) {
+    				if( isSameEvent(it.next(), change.mEvent) ) {
+    					it.remove();
+    				}
+    			}
+    		}
+    		else if( !change.mConfirmed ) {
+    			events.add(change.mEvent);
+    			pendingEvents.add(change.mEvent);
+    		}
+    		else if( !containsEvent(events, change.mEvent) ) {
+    			//A fetch which started before the booking may already have it
+    			events.add(change.mEvent);
+    		}
     	}
+    	return result;
     }
     
-    private void drawFirstRow() {
-    	
-    	//Adding time column
-        TextView tv = new TextView(this);
-        tv.setWidth(mFirstColumnWidth);
-        tv.setLayoutParams(new LayoutParams(
-                			   LayoutParams.WRAP_CONTENT,
-                               LayoutParams.WRAP_CONTENT));
-        
-        mHeaderLayout.addView(tv,new LinearLayout.LayoutParams(
-                LayoutParams.WRAP_CONTENT,
-                LayoutParams.WRAP_CONTENT));
-    	
-    	//Adding calendar columns
-        int scaledFontSize = getResources().getDimensionPixelSize(R.dimen.calendar_name_font_size);
-    	for(String cal: mCalendarNames) {
-            TextView calendar = new TextView(this);
-            calendar.setText(cal);
-            calendar.setTextColor(Color.BLACK);
-            calendar.setTypeface(null,Typeface.BOLD);
-            calendar.setTextSize(scaledFontSize);
-            calendar.setWidth(mCalendarColumnWidth);
-            calendar.setGravity(Gravity.CENTER_HORIZONTAL);
-            calendar.setPadding(0, 10, 0, 10);
-            calendar.setMaxLines(1);
-            calendar.setEllipsize(TruncateAt.END);
-            calendar.setLayoutParams(new LayoutParams(
-            						LayoutParams.WRAP_CONTENT,
-                                    LayoutParams.WRAP_CONTENT));
-            
-            mHeaderLayout.addView(calendar,new LinearLayout.LayoutParams(
-                    LayoutParams.WRAP_CONTENT,
-                    LayoutParams.WRAP_CONTENT));
+    /**
+     * @param events events of a room
+     * @param event event
+     * @return true if an event of the list is the given one
+     */
+    private boolean containsEvent(List<? extends Event> events, Event event) {
+    	for(Event other : events) {
+    		if( isSameEvent(other, event) ) {
+    			return true;
+    		}
     	}
+    	return false;
     }
     
-    private void drawBackgroundCells() {
-    	
-        int scaledFontSize = getResources().getDimensionPixelSize(R.dimen.time_font_size);
-        
-        Calendar tmp = (Calendar) mCalendarBegin.clone();
-        
-        
-        for(int i = 0; i<mNumberOfRows; i++) {
-        	
-        	//Adding time cell
-        	TableRow tr = new TableRow(this);
-            tr.setLayoutParams(new LayoutParams(
-                           LayoutParams.FILL_PARENT,
-                           LayoutParams.WRAP_CONTENT));
-             
-             TextView tv = new TextView(this);
-             tv.setTextSize(scaledFontSize);
-             tv.setGravity(Gravity.TOP);
-             if( tmp.get(Calendar.MINUTE)%(2*MIN_EVENT_TIME) == 0 ) {
-            	 tv.setText(mFormatter.format(tmp.getTime()));
-            	 tv.setBackgroundResource(R.drawable.cell_background_dark_top);
-             }
-             else {
-            	 tv.setText("");
-            	 tv.setBackgroundResource(R.drawable.cell_background);
-             }
-             tv.setPadding(10, 0, 10, 10);
-             
-             tr.addView(tv);
-             
-             //Adding calendars cells
-             for(int j=0; j<mCalendarNames.size(); j++) {                 
-                 final CellTextView cell = new CellTextView(this);
-                 cell.setCalendarId(mCalendarNames.get(j));
-                 cell.setPosition(i);
-                 cell.setTextSize(scaledFontSize);
-                 cell.setWidth(mCalendarColumnWidth);
-                 if( tmp.get(Calendar.MINUTE)%(2*MIN_EVENT_TIME) == 0 ) {
-                	 cell.setBackgroundResource(R.drawable.cell_background_dark_top);
-                 }
-                 else {
-                	 cell.setBackgroundResource(R.drawable.cell_background);
-                 }
-                 cell.setPadding(10, 0, 10, 10);
-                 
-                 tr.addView(cell);
-                 
-                 cell.setOnClickListener(new OnClickListener() {
-                     @Override
-                     public void onClick(View v) {
-                    	 mSelectedCell = cell;
-                    	 showReservationDialog();
-                     }
-                 });
-             }
-             
-             mTableLayout.addView(tr,new TableLayout.LayoutParams(
-	                 LayoutParams.FILL_PARENT,
-	                 LayoutParams.WRAP_CONTENT));
-             
-             tmp.add(Calendar.MINUTE, MIN_EVENT_TIME);
-        }
-    }
-    
-    private void drawEvents() {
-    	//clear screen
-    	mTableLayout.removeAllViews();
-    	mHeaderLayout.removeAllViews();
-    	removeAllEvents();
-    	
-    	//Redraw background
-    	drawBackground();
-    	
-    	//Draw new events
-    	for(String calendarName: mEventMap.keySet()) {
-    		List<? extends Event> eventList = mEventMap.get(calendarName);
-    		for( Event event: eventList ) {
-		    	addEvent(calendarName, event);
-    		}
+    /**
+     * @param event event of a room
+     * @param other event of the same room
+     * @return true if both have the same id, or the same dates if any of them has no id (busy intervals)
+     */
+    private boolean isSameEvent(Event event, Event other) {
+    	if( event.getId() != null && other.getId() != null ) {
+    		return event.getId().equals(other.getId());
     	}
+    	return event.getBegin().getTimeInMillis() == other.getBegin().getTimeInMillis()
+    			&& event.getEnd().getTimeInMillis() == other.getEnd().getTimeInMillis();
     }
     
-    private void addEvent(String calendarName, Event event) {
-		Calendar eventBegin = event.getBegin();
-		Calendar eventEnd = event.getEnd();
-
-		if( !(eventEnd.before(mCalendarBegin) || eventBegin.after(mCalendarEnd)) ) {
-    		int startCellPos = convertCalendarToCellPosition(eventBegin, true);
-    		int endCellPos = convertCalendarToCellPosition(eventEnd, false)+1;
-    		int height = endCellPos-startCellPos;
-    		
-    		//get column position
-    		int calendarPos = mCalendarNames.indexOf(calendarName);
-    		
-    		boolean isCreatedByQuickMeeting = event.getDetails().equals(getString(R.string.createdByQuickMeeting));
-
-	    	String title = event.getTitle();
-			if( title == null || title.length() == 0) title = getString(R.string.reserved);
-			String text = title + "\n" 
-					+ mFormatter.format(eventBegin.getTime()) + " - " 
-					+ mFormatter.format(eventEnd.getTime());
-			
-	        EventTextView eventTextView = new EventTextView(this, event, isCreatedByQuickMeeting);
-			eventTextView.setWidth(mCalendarColumnWidth);
-			eventTextView.setHeight(height*mCalendarRowHeight);
-			eventTextView.setTextSize(mEventTextSize);
-			eventTextView.setText(text);
-			eventTextView.setObserver(this);
-			FrameLayout.LayoutParams fl = new FrameLayout.LayoutParams(
-			        LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT,
-			        (Gravity.LEFT | Gravity.TOP));
-			int column = mFirstColumnWidth + calendarPos*mCalendarColumnWidth;
-			fl.setMargins(column, startCellPos*mCalendarRowHeight, 0, 0);
-			mFrameLayout.addView(eventTextView,fl);
-			
-			mAllEvents.add(eventTextView);
-		}
+    private boolean isCreatedByQuickMeeting(Event event) {
+    	return getString(R.string.createdByQuickMeeting).equals(event.getDetails());
     }
     
     /**
-     * Remove event from UI and remote calendar
-     * @param event UI component for event
+     * Remove event from UI at once, and from remote calendar in background. 
+     * Event is shown again if google refuses the deletion
+     * @param room room id
+     * @param event event to delete
+     * @param shownEvent event drawn in the grid: the event itself, or its busy interval
      */
-    private void removeEvent(Event event) {
-        //mAllEvents.remove(event);
+    private void removeEvent(String room, final Event event, Event shownEvent) {
+    	Log.d(TAG, "Deleting " + event.getId());
     	
-    	Log.d(TAG, event.getId());
+    	final CalendarResource calendar = mCalendarMap.get(room);
+    	final LocalChange change = new LocalChange();
+    	change.mRoom = room;
+    	change.mEvent = shownEvent;
+    	change.mDeletion = true;
+    	mLocalChanges.add(change);
+    	drawEvents();
     	
-    	try {
-            mResourceManager.deleteEvent(event);
-            refreshEvents();
-        } catch (ResourceNotAvaiableException e) {
-        	Toast.makeText(HomeActivity.this, getString(R.string.deletionError), Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
-        }
-        
-    	//mFrameLayout.removeView(event);
-    }
-    
-    private void removeAllEvents() {
-    	for(TextView event: mAllEvents) {
-    		mFrameLayout.removeView(event);
-    	}
-    	mAllEvents.clear();
+    	TaskExecutor.getInstance().submit(new Runnable() {
+    		@Override
+    		public void run() {
+				try {
+					if( calendar != null ) {
+						mResourceManager.deleteEvent(calendar.getId(), event);
+						change.mAcceptTime = System.currentTimeMillis();
+						change.mAccepted = true;
+						mPollPolicy.onLocalBooking(calendar.getId(), change.mAcceptTime);
+					}
+				} catch (Exception e) {
+					Log.d(TAG, "Cannot delete event: " + e);
+				} finally {
+					mLocalChangeHandler.sendMessage(mLocalChangeHandler.obtainMessage(0, change));
+				}
+    		}
+    	}, TaskExecutor.PRIORITY_INTERACTIVE, null, null);
     }
     
 	public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
@@ -464,10 +519,9 @@ public class HomeActivity extends Activity implements Observer {
 		}
 
 		//Obtain calendar data
-        String calendarId = mSelectedCell.getCalendarId();
-        CalendarResource calendarResource = mCalendarMap.get(calendarId);
+        CalendarResource calendarResource = mCalendarMap.get(mSelectedCalendar);
         
-        int startCellPos = mSelectedCell.getPosition();
+        int startCellPos = mSelectedPosition;
         
         Log.d(TAG, "Calendar resource: "+ calendarResource.getId());
         
@@ -481,7 +535,7 @@ public class HomeActivity extends Activity implements Observer {
         eventToCreate.setEnd(eventEnd);
         eventToCreate.setDetails(getString(R.string.createdByQuickMeeting));
         
-        createEvent(calendarResource.getId(), eventToCreate);
+        createEvent(mSelectedCalendar, eventToCreate);
 		return true;
 	}
 
@@ -498,8 +552,10 @@ public class HomeActivity extends Activity implements Observer {
         return eventBegin;
     }
     
-    synchronized private void loadData() throws ResourceNotAvaiableException {
-    	
+    /**
+     * Set grid window, from current time
+     */
+    private void updateCalendarWindow() {
         Calendar now = Calendar.getInstance();
         int minutes = now.get(Calendar.MINUTE);
         int calendarMinutes = 0;
@@ -507,45 +563,210 @@ public class HomeActivity extends Activity implements Observer {
         	calendarMinutes += MIN_EVENT_TIME;
         }
         now.set(Calendar.MINUTE, calendarMinutes);
+        //Same window between polls gives same feed urls, so feeds can be revalidated
+        now.set(Calendar.SECOND, 0);
+        now.set(Calendar.MILLISECOND, 0);
         mCalendarBegin = (Calendar)now.clone();
         
         now.add(Calendar.MINUTE, (mNumberOfRows-1)*MIN_EVENT_TIME);
     	
     	mCalendarEnd = (Calendar)now.clone();
+    }
+    
+    /**
+     * Load last known events from database
+     * @return true if there was any stored event
+     */
+    synchronized private boolean loadStoredData() {
+    	updateCalendarWindow();
     	
-    	mEventMap.clear();
+    	EventFetchResult result = 
+    				mResourceManager.getStoredEvents(mCalendarMap.values(), mCalendarBegin, mCalendarEnd);
     	
+    	Map<String, List<? extends Event>> eventMap = new HashMap<String, List<? extends Event>>();
     	for(String key : mCalendarMap.keySet()) {
-    		CalendarResource calendar = mCalendarMap.get(key);
-			List<? extends Event> events = 
-						mResourceManager.getEvents(calendar.getId(), mCalendarBegin, mCalendarEnd);
-			Log.d(TAG, "=> Event list size: " + events.size());
-			mEventMap.put(key, events);
+			List<? extends Event> events = result.getEvents(mCalendarMap.get(key).getId());
+			if( events != null ) {
+				eventMap.put(key, events);
+			}
     	}
+    	mEventMap = eventMap;
+    	return !eventMap.isEmpty();
     }
     
-    private void startPolling() {
+    /**
+     * Fetch events of rooms. Rooms which are not due only fetch the part of the
+     * window exposed since their last fetch
+     * @param all true to fetch every room, false to fetch only rooms due by poll policy
+     * @throws ResourceNotAvaiableException some rooms could not be fetched
+     */
+    synchronized private void loadData(boolean all) throws ResourceNotAvaiableException {
     	
-    	if( !mPoll ) {
-        	mPoll = true;
-	    	new Thread() {
-	    		@Override
-	    		public void run() {
-	    			while(true) {
-	    				try {
-	    					sleep(MINUTES_BETWEEN_POLLS*60*1000);
-	    					if(mRefresh) {
-	    						loadData();
-	    						mPollHandler.sendMessage(mPollHandler.obtainMessage(0));
-	    					}
-	    				} catch (Exception e) {
-							e.printStackTrace();
-						}
-	    			}
-	    		}
-	    	}.start();
+    	updateCalendarWindow();
+    	
+    	long now = System.currentTimeMillis();
+    	Collection<CalendarResource> resources = mCalendarMap.values();
+    	//Rooms to shift, by end of their last fetched window
+    	Map<Long, List<CalendarResource>> shifted = new HashMap<Long, List<CalendarResource>>();
+    	if( !all ) {
+    		resources = mPollPolicy.getDueResources(resources, mCalendarBegin, now);
+    		Set<String> dueIds = new HashSet<String>();
+    		for(CalendarResource calendar : resources) {
+    			dueIds.add(calendar.getId());
+    		}
+    		for(CalendarResource calendar : mCalendarMap.values()) {
+    			long windowEnd = mPollPolicy.getWindowEnd(calendar.getId());
+    			if( !dueIds.contains(calendar.getId()) && windowEnd < mCalendarEnd.getTimeInMillis() ) {
+    				List<CalendarResource> group = shifted.get(windowEnd);
+    				if( group == null ) {
+    					group = new ArrayList<CalendarResource>();
+    					shifted.put(windowEnd, group);
+    				}
+    				group.add(calendar);
+    			}
+    		}
+    	}
+    	
+    	EventFetchResult result = fetchEvents(resources, mCalendarBegin, mCalendarEnd);
+    	int failures = 0;
+    	Map<String, List<? extends Event>> fetched = new HashMap<String, List<? extends Event>>();
+    	for(CalendarResource calendar : resources) {
+    		List<? extends Event> events = result.getEvents(calendar.getId());
+    		if( events != null ) {
+    			mPollPolicy.onPolled(calendar.getId(), events, mCalendarBegin, mCalendarEnd, now);
+    			fetched.put(calendar.getId(), events);
+    		}
+    		else {
+    			mPollPolicy.onFailed(calendar.getId(), now);
+    			failures++;
+    		}
+    	}
+    	
+    	int shiftedRooms = 0;
+    	for(Map.Entry<Long, List<CalendarResource>> entry : shifted.entrySet()) {
+    		Calendar sliceBegin = Calendar.getInstance();
+    		sliceBegin.setTimeInMillis(entry.getKey());
+    		EventFetchResult slice = fetchEvents(entry.getValue(), sliceBegin, mCalendarEnd);
+    		for(CalendarResource calendar : entry.getValue()) {
+    			List<? extends Event> sliceEvents = slice.getEvents(calendar.getId());
+    			if( sliceEvents == null ) {
+    				//Retried on next poll, last known events are kept meanwhile
+    				failures++;
+    				continue;
+    			}
+    			List<? extends Event> events = shiftEvents(mEventMap.get(calendar.getId()), sliceEvents, entry.getKey());
+    			mPollPolicy.onShifted(calendar.getId(), events, mCalendarBegin, mCalendarEnd);
+    			fetched.put(calendar.getId(), events);
+    			shiftedRooms++;
+    		}
+    	}
+    	Log.d(TAG, "Polled " + resources.size() + " rooms, shifted " + shiftedRooms 
+    			+ ", intervals: " + mPollPolicy.getIntervals());
+    	
+    	Map<String, List<? extends Event>> eventMap = new HashMap<String, List<? extends Event>>();
+    	for(String key : mCalendarMap.keySet()) {
+    		CalendarResource calendar = mCalendarMap.get(key);
+			List<? extends Event> events = fetched.get(calendar.getId());
+			if( events == null ) {
+				//Keep last known events of a failed or not polled room
+				events = mEventMap.get(key);
+			}
+			if( events != null ) {
+				Log.d(TAG, "=> Event list size: " + events.size());
+				eventMap.put(key, events);
+			}
+    	}
+    	mEventMap = eventMap;
+    	for(CalendarResource calendar : resources) {
+    		if( result.getEvents(calendar.getId()) != null ) {
+    			mFetchTimes.put(calendar.getId(), now);
+    		}
+    	}
+    	
+    	if( failures > 0 ) {
+    		throw new ResourceNotAvaiableException("Cannot get events of " + failures + " resources");
+    	}
+    }
+    
+    /**
+     * Fetch events of rooms in a time range
+     * @param resources rooms
+     * @param begin beginning of range
+     * @param end end of range
+     * @return events by room id
+     */
+    private EventFetchResult fetchEvents(Collection<CalendarResource> resources, Calendar begin, Calendar end) {
+    	if( resources.isEmpty() ) {
+    		return new EventFetchResult();
+    	}
+    	if( mFreeBusyMode ) {
+    		//Busy intervals of all rooms in one request
+    		return mResourceManager.getBusyIntervals(resources, begin, end);
     	}
+    	//Rooms are fetched concurrently, the ones on screen first
+    	List<String> visibleIds = new ArrayList<String>();
+    	for(String name : mRoomGrid.getVisibleColumns()) {
+    		CalendarResource calendar = mCalendarMap.get(name);
+    		if( calendar != null ) {
+    			visibleIds.add(calendar.getId());
+    		}
+    	}
+    	return mResourceManager.getEvents(resources, visibleIds, begin, end);
     }
+    
+    /**
+     * Events of a room after the window moved: last known events still in the
+     * window, and events beginning in the newly exposed part
+     * @param events last known events, may be null
+     * @param sliceEvents events of the newly exposed part
+     * @param sliceBegin beginning (ms) of the newly exposed part
+     * @return events of current window
+     */
+    private List<Event> shiftEvents(List<? extends Event> events, List<? extends Event> sliceEvents, long sliceBegin) {
+    	List<Event> result = new ArrayList<Event>();
+    	if( events != null ) {
+    		for(Event event : events) {
+    			if( event.getEnd().after(mCalendarBegin) ) {
+    				result.add(event);
+    			}
+    		}
+    	}
+    	for(Event event : sliceEvents) {
+    		//Events beginning before were already known
+    		if( event.getBegin().getTimeInMillis() >= sliceBegin ) {
+    			result.add(event);
+    		}
+    	}
+    	return result;
+    }
+    
+    /**
+     * Scheduled polls and requested refreshes. Only runs while activity is resumed
+     */
+    private PollScheduler.PollTask mPollTask = new PollScheduler.PollTask() {
+    	@Override
+    	public long poll(boolean requested) {
+    		int what = 0;
+    		try {
+    			//A requested refresh fetches every room
+    			loadData(requested);
+    		} catch (Exception e) {
+    			//Rooms which were fetched are drawn anyway
+    			what = 1;
+    			Log.d(TAG, e.getMessage());
+    		}
+    		if( requested ) {
+    			mRefreshHandler.sendMessage(mRefreshHandler.obtainMessage(what));
+    		}
+    		else {
+    			mPollHandler.sendMessage(mPollHandler.obtainMessage(0));
+    		}
+    		//Next room due, or next shift of the window
+    		long now = System.currentTimeMillis();
+    		long untilWindowShift = mCalendarBegin.getTimeInMillis() + MIN_EVENT_TIME*60*1000 - now;
+    		return Math.max(0, Math.min(mPollPolicy.getDelay(now), untilWindowShift));
+    	}
+    };
 
     private Handler mPollHandler = new Handler() {
     	@Override
@@ -554,52 +775,150 @@ public class HomeActivity extends Activity implements Observer {
     	}
     };
     
-    synchronized private void createEvent(final String calendarId, final Event event) {
-		mProgress.show();
-    	new Thread() {
+    /**
+     * Book a room. Booking is drawn at once as pending, and sent to google in 
+     * background; it is confirmed or removed when google answers
+     * @param room room id
+     * @param event event to create
+     */
+    private void createEvent(String room, final Event event) {
+    	final CalendarResource calendar = mCalendarMap.get(room);
+    	Event pending = new Event();
+    	pending.setTitle(getString(R.string.pending));
+    	pending.setBegin(event.getBegin());
+    	pending.setEnd(event.getEnd());
+    	final LocalChange change = new LocalChange();
+    	change.mRoom = room;
+    	change.mEvent = pending;
+    	mLocalChanges.add(change);
+    	drawEvents();
+    	
+    	//Bookings and deletions are not owned by the activity, so leaving the screen does not cancel them halfway
+    	TaskExecutor.getInstance().submit(new Runnable() {
     		@Override
     		public void run() {
-    			int what = 0;
 				try {
-					mResourceManager.createEvent(calendarId, event);
-				} catch (ResourceNotAvaiableException e) {
-					what = 1;
-					Log.d(TAG, e.getMessage());
-					e.printStackTrace();
+					if( calendar != null ) {
+						change.mCreated = mResourceManager.createEvent(calendar.getId(), event);
+						change.mAcceptTime = System.currentTimeMillis();
+						change.mAccepted = change.mCreated != null;
+						mPollPolicy.onLocalBooking(calendar.getId(), change.mAcceptTime);
+					}
+				} catch (Exception e) {
+					Log.d(TAG, "Cannot create event: " + e);
+				} finally {
+					mLocalChangeHandler.sendMessage(mLocalChangeHandler.obtainMessage(0, change));
 				}
-				mCreateEventHandler.sendMessage(mRefreshHandler.obtainMessage(what));
     		}
-    	}.start();
+    	}, TaskExecutor.PRIORITY_INTERACTIVE, null, null);
     }
     
-    private Handler mCreateEventHandler = new Handler() {
+    private Handler mLocalChangeHandler = new Handler() {
     	@Override
     	public void handleMessage(Message msg) {
-    		if( msg.what == 1 ) {
-    			Toast.makeText(HomeActivity.this, getString(R.string.creationError), Toast.LENGTH_SHORT).show();
+    		if( isFinishing() ) {
+    			return;
     		}
-    		refreshEvents();
+    		LocalChange change = (LocalChange) msg.obj;
+    		if( change.mAccepted ) {
+    			//Drawn as done until a fetch of the room includes it
+    			change.mConfirmed = true;
+    			change.mConfirmTime = change.mAcceptTime;
+    			if( !change.mDeletion ) {
+    				change.mEvent = change.mCreated;
+    			}
+    			Toast.makeText(HomeActivity.this, getString(change.mDeletion ? R.string.deletionConfirmed : R.string.bookingConfirmed), 
+    					Toast.LENGTH_SHORT).show();
+    			refreshRoom(change.mRoom);
+    		}
+    		else {
+    			mLocalChanges.remove(change);
+    			Toast.makeText(HomeActivity.this, getString(change.mDeletion ? R.string.deletionError : R.string.creationError), 
+    					Toast.LENGTH_SHORT).show();
+    		}
+    		drawEvents();
     	}
     };
     
+    /**
+     * Fetch events of one room in background and draw them, i.e. after a booking
+     * @param room room id, ignored if null
+     */
+    private void refreshRoom(final String room) {
+    	if( room == null || mCalendarMap.get(room) == null ) {
+    		return;
+    	}
+    	TaskExecutor.getInstance().submit(new Runnable() {
+    		@Override
+    		public void run() {
+    			if( loadRoom(room) ) {
+    				mPollHandler.sendMessage(mPollHandler.obtainMessage(0));
+    			}
+    		}
+    	}, TaskExecutor.PRIORITY_REFRESH, this, "room " + room);
+    }
+    
+    /**
+     * Fetch events of one room, in current window
+     * @param room room id
+     * @return true if room was fetched
+     */
+    synchronized private boolean loadRoom(String room) {
+    	CalendarResource calendar = mCalendarMap.get(room);
+    	if( calendar == null ) {
+    		return false;
+    	}
+    	long now = System.currentTimeMillis();
+    	List<CalendarResource> resources = Collections.singletonList(calendar);
+    	EventFetchResult result = fetchEvents(resources, mCalendarBegin, mCalendarEnd);
+    	List<? extends Event> events = result.getEvents(calendar.getId());
+    	if( events == null ) {
+    		mPollPolicy.onFailed(calendar.getId(), now);
+    		return false;
+    	}
+    	mPollPolicy.onPolled(calendar.getId(), events, mCalendarBegin, mCalendarEnd, now);
+    	Map<String, List<? extends Event>> eventMap = new HashMap<String, List<? extends Event>>(mEventMap);
+    	eventMap.put(room, events);
+    	mEventMap = eventMap;
+    	mFetchTimes.put(room, now);
+    	return true;
+    }
+    
     private void refreshEvents() {
 		if(!mProgress.isShowing()) mProgress.show();
-    	new Thread() {
+		//Replaces the pending scheduled poll
+		if( !mPollScheduler.requestPoll() ) {
+			mProgress.dismiss();
+		}
+    }
+    
+    /**
+     * Draw last known events at once, and refresh them in background. Progress 
+     * dialog is only shown if nothing was stored
+     */
+    private void refreshEventsFromStore() {
+    	TaskExecutor.getInstance().submit(new Runnable() {
     		@Override
     		public void run() {
-    			int what = 0;
-				try {
-					loadData();
-				} catch (Exception e) {
-					what = 1;
-					Log.d(TAG, e.getMessage());
-					e.printStackTrace();
-				}
-				mRefreshHandler.sendMessage(mRefreshHandler.obtainMessage(what));
+    			boolean stored = loadStoredData();
+    			mStoredDataHandler.sendMessage(mStoredDataHandler.obtainMessage(stored ? 1 : 0));
+    			mPollScheduler.requestPoll();
     		}
-    	}.start();
+    	}, TaskExecutor.PRIORITY_REFRESH, this, "storedEvents");
     }
     
+    private Handler mStoredDataHandler = new Handler() {
+    	@Override
+    	public void handleMessage(Message msg) {
+    		if( msg.what == 1 ) {
+    			drawEvents();
+    		}
+    		else if(!mProgress.isShowing()) {
+    			mProgress.show();
+    		}
+    	}
+    };
+    
     private Handler mRefreshHandler = new Handler() {
     	@Override
     	public void handleMessage(Message msg) {
@@ -611,67 +930,87 @@ public class HomeActivity extends Activity implements Observer {
     	}
     };
     
-    /**
-     * Return the cell position for a certain time.
-     * @param time given time to search for their cell
-     * @param includeBounds true for counting the time at the border.
-     * @return vertical cell position
-     */
-    private int convertCalendarToCellPosition(Calendar time, boolean includeBounds) {
-    	
-    	int cellPosition = 0;
-    	
-    	Log.d(TAG, "time: " + mFormatter.format(time.getTime()));
-    	Log.d(TAG, "mCalendarBegin: " + mFormatter.format(mCalendarBegin.getTime()));
-    	Log.d(TAG, "mCalendarEnd: " + mFormatter.format(mCalendarEnd.getTime()));
-    	
-    	long timeInMilli  = time.getTimeInMillis();
-    	long beginInMilli = mCalendarBegin.getTimeInMillis();
-    	long endInMilli   = mCalendarEnd.getTimeInMillis();
-    	
-    	long endDiffMin   = (endInMilli - timeInMilli) / (60*1000);
-    	long beginDiffMin = (timeInMilli - beginInMilli) / (60*1000);
-    	//The time starts before the first cell from the calendar
-    	if( beginDiffMin <= 0 ) return cellPosition;
-    	//The time ends after the last cell from the calendar
-    	if( endDiffMin <= 0 ) return (mNumberOfRows-1);
-    	
-    	cellPosition = (int) (beginDiffMin+1)/MIN_EVENT_TIME;
-    	
-    	Log.d(TAG, "endDiffMin: " + endDiffMin);
-    	Log.d(TAG, "beginDiffMin: " + beginDiffMin);
-    	Log.d(TAG, "cellPosition: " + cellPosition);
-    	
-    	Log.d(TAG, "includeBounds: " + includeBounds);
-		if(!includeBounds && (time.get(Calendar.MINUTE) % MIN_EVENT_TIME) ==0)  {
-			Log.d(TAG, "in includeBounds: --cellPosition");
-			 --cellPosition;
-		}
-		return cellPosition;
-    }
-    
 	@Override
-	public void notify(Observable o) {
-		EventTextView e = (EventTextView) o;
-		if( e.isUserEvent() ) {
-			showCancelReservationDialog(e.getEvent());
+	public void onCellTapped(String column, int slot) {
+		mSelectedCalendar = column;
+		mSelectedPosition = slot;
+		showReservationDialog();
+	}
+	
+	@Override
+	public void onEventTapped(String column, Event event, boolean isUserEvent) {
+		if( event instanceof BusyEvent ) {
+			loadEventDetails(column, (BusyEvent) event);
+		}
+		else if( isUserEvent ) {
+			showCancelReservationDialog(column, event, event);
 		}
 		else {
-			showEventInfoDialog(e.getEvent());
+			showEventInfoDialog(event);
 		}
 	}
 	
+    /**
+     * Fetch the event of a busy interval, and show its dialog
+     * @param room room id of the busy interval
+     * @param busyEvent busy interval
+     */
+    private void loadEventDetails(final String room, final BusyEvent busyEvent) {
+		if(!mProgress.isShowing()) mProgress.show();
+    	TaskExecutor.getInstance().submit(new Runnable() {
+    		@Override
+    		public void run() {
+    			int what = 0;
+    			Event event = busyEvent;
+				try {
+					List<? extends Event> events = mResourceManager.getEventDetails(busyEvent);
+					for( Event detail: events ) {
+						if( event == busyEvent || detail.getBegin().equals(busyEvent.getBegin()) ) {
+							event = detail;
+						}
+					}
+				} catch (ResourceNotAvaiableException e) {
+					what = 1;
+					Log.d(TAG, e.getMessage());
+					e.printStackTrace();
+				}
+				EventDetails details = new EventDetails();
+				details.mRoom = room;
+				details.mBusyEvent = busyEvent;
+				details.mEvent = event;
+				mEventDetailsHandler.sendMessage(mEventDetailsHandler.obtainMessage(what, details));
+    		}
+    	}, TaskExecutor.PRIORITY_INTERACTIVE, this, null);
+    }
+    
+    private Handler mEventDetailsHandler = new Handler() {
+    	@Override
+    	public void handleMessage(Message msg) {
+    		mProgress.dismiss();
+    		if( msg.what == 1 ) {
+    			Toast.makeText(HomeActivity.this, mToastErrorMessage, Toast.LENGTH_SHORT).show();
+    		}
+    		EventDetails details = (EventDetails) msg.obj;
+    		if( isCreatedByQuickMeeting(details.mEvent) ) {
+    			showCancelReservationDialog(details.mRoom, details.mEvent, details.mBusyEvent);
+    		}
+    		else {
+    			showEventInfoDialog(details.mEvent);
+    		}
+    	}
+    };
+    
     public void showReservationDialog() {
     	AlertDialog.Builder b = new AlertDialog.Builder(this);
     	b.setIcon(android.R.drawable.ic_dialog_alert);
-    	b.setTitle(mSelectedCell.getCalendarId());
+    	b.setTitle(mCalendarLabels.get(mSelectedCalendar));
     	b.setMessage(getString(R.string.reserve_question));
     	b.setPositiveButton(getString(R.string.yes), new DialogInterface.OnClickListener() {
     	    @Override
     	    public void onClick(DialogInterface dialog, int which) {
-    	        registerForContextMenu(mFrameLayout); 
-    	        openContextMenu(mFrameLayout);
-    	        unregisterForContextMenu(mFrameLayout);
+    	        registerForContextMenu(mRoomGrid); 
+    	        openContextMenu(mRoomGrid);
+    	        unregisterForContextMenu(mRoomGrid);
     	    }
     	});
     	b.setNegativeButton(getString(R.string.no), new DialogInterface.OnClickListener() {
@@ -683,14 +1022,20 @@ public class HomeActivity extends Activity implements Observer {
     	b.show();
     }
     
-    public void showCancelReservationDialog(final Event event) {
+    /**
+     * Ask before deleting a booking
+     * @param room room id
+     * @param event event to delete
+     * @param shownEvent event drawn in the grid: the event itself, or its busy interval
+     */
+    public void showCancelReservationDialog(final String room, final Event event, final Event shownEvent) {
     	AlertDialog.Builder b = new AlertDialog.Builder(this);
     	b.setIcon(android.R.drawable.ic_dialog_alert);
     	b.setMessage(getString(R.string.unreserve_question));
     	b.setPositiveButton(getString(R.string.yes), new DialogInterface.OnClickListener() {
     	    @Override
     	    public void onClick(DialogInterface dialog, int which) {
-    	    	removeEvent(event);
+    	    	removeEvent(room, event, shownEvent);
     	    }
     	});
     	b.setNegativeButton(getString(R.string.no), new DialogInterface.OnClickListener() {
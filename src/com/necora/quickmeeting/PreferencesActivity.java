@@ -20,6 +20,8 @@ package com.necora.quickmeeting;
 import android.content.Intent;
 import android.database.Cursor;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
@@ -27,6 +29,7 @@ import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
 import android.util.Log;
+import android.widget.Toast;
 
 import com.necora.quickmeeting.contentprovider.AccountColumns;
 import com.necora.quickmeeting.service.GoogleConstants;
@@ -35,6 +38,7 @@ import com.necora.quickmeeting.service.UserManager;
 import com.necora.quickmeeting.service.exception.SyncFailedException;
 import com.necora.quickmeeting.ui.dialogs.AuthenticateDialog;
 import com.necora.quickmeeting.ui.dialogs.AuthenticateDialogListener;
+import com.necora.quickmeeting.util.TaskExecutor;
 
 public class PreferencesActivity extends PreferenceActivity {
 
@@ -138,15 +142,33 @@ public class PreferencesActivity extends PreferenceActivity {
         
         mCurrentActiveAccountPref.setTitle(mUserManager.getActiveUserEmail());     
         
-        ResourceManager resourceManager = ResourceManager.getInstance(this);
-        try {
-            resourceManager.syncResources();
-        } catch (SyncFailedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
+        // synchronized in background, so switching accounts does not wait for google.
+        // The task keeps the account it was submitted for, even if another one is active when it runs
+        final ResourceManager resourceManager = ResourceManager.getInstance(this);
+        final String email = mUserManager.getActiveUserEmail();
+        TaskExecutor.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resourceManager.syncResources(email);
+                } catch (SyncFailedException e) {
+                    Log.e(TAG, "Cannot synchronize resources of " + email + ": " + e);
+                    mSyncErrorHandler.sendMessage(mSyncErrorHandler.obtainMessage(0, email));
+                }
+            }
+        }, TaskExecutor.PRIORITY_BACKGROUND, resourceManager, "syncResources:" + email);
     }
     
+    private Handler mSyncErrorHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            if (!isFinishing()) {
+                Toast.makeText(PreferencesActivity.this, getString(R.string.accountSyncError, (String) msg.obj), 
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+    
     private void callAuthorizeActivity() {
         AuthenticateDialogListener listener = new AuthenticateDialogListener() {
             
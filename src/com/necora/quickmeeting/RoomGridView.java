@@ -0,0 +1,805 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.text.TextUtils.TruncateAt;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.widget.Scroller;
+
+import com.necora.quickmeeting.objects.Event;
+
+/**
+ * Room grid drawn in a single view: a header with room names, a time axis,
+ * the cell grid and event blocks. Header and time axis stay pinned while the
+ * grid scrolls. Taps are mapped to a room and slot by arithmetic, so there is
+ * no view per cell or per event.
+ * @author jlafuente
+ *
+ */
+public class RoomGridView extends View {
+
+	/**
+	 * Receives taps on the grid
+	 */
+	public interface OnGridTapListener {
+		/**
+		 * A free cell was tapped
+		 * @param column room key
+		 * @param slot row of the cell, from the beginning of the window
+		 */
+		void onCellTapped(String column, int slot);
+
+		/**
+		 * An event was tapped
+		 * @param column room key
+		 * @param event tapped event
+		 * @param isUserEvent true if event was created by QuickMeeting
+		 */
+		void onEventTapped(String column, Event event, boolean isUserEvent);
+	}
+
+	/**
+	 * Event laid out on the grid. Bounds are in grid coordinates (without header
+	 * and time axis)
+	 */
+	private static class Block {
+		/** Event, replaced by the last fetched instance */
+		Event mEvent;
+		/** True if event was created by QuickMeeting */
+		boolean mUserEvent;
+		/** True if event is a booking not confirmed by google yet */
+		boolean mPending;
+		/** Column of the room */
+		int mColumn;
+		/** First row covered */
+		int mFirstRow;
+		/** Row after the last covered row */
+		int mEndRow;
+		/** Bounds in grid coordinates */
+		final RectF mBounds = new RectF();
+		/** Title, ellipsized to block width */
+		String mTitle;
+		/** Begin and end time */
+		String mTime;
+		/** Background gradient */
+		Shader mShader;
+
+		void set(Event event, boolean userEvent, boolean pending, int column, int firstRow, int endRow) {
+			mEvent = event;
+			mUserEvent = userEvent;
+			mPending = pending;
+			mColumn = column;
+			mFirstRow = firstRow;
+			mEndRow = endRow;
+		}
+	}
+
+	/** Columns laid out at each side of the visible ones, so short scrolls find them ready */
+	private static final int BOUND_COLUMNS_MARGIN = 1;
+	/** Maximum number of blocks kept for reuse */
+	private static final int MAX_RECYCLED_BLOCKS = 64;
+
+	/** Cell border color */
+	private static final int LINE_COLOR = 0xFFD5F3F3;
+	/** Top border of a cell at the beginning of a half hour */
+	private static final int DARK_LINE_COLOR = 0xFFB8B8B8;
+	/** Event gradient, from bottom to top */
+	private static final int[] EVENT_COLORS = {0xFF4169E1, 0xFF00BFFF, 0xFF4169E1};
+	/** Gradient of events created by QuickMeeting, from bottom to top */
+	private static final int[] USER_EVENT_COLORS = {0xFF00FF00, 0xFF006400, 0xFF00FF00};
+	/** Gradient of bookings not confirmed yet, from bottom to top */
+	private static final int[] PENDING_EVENT_COLORS = {0xFFC0C0C0, 0xFF808080, 0xFFC0C0C0};
+	/** Event border color */
+	private static final int EVENT_BORDER_COLOR = 0xFF008200;
+
+	/** Width of time axis */
+	private int mFirstColumnWidth;
+	/** Height of header */
+	private int mHeaderHeight;
+	/** Height of a row (slot) */
+	private int mRowHeight;
+	/** Width of a room column, computed from view width */
+	private int mColumnWidth;
+	/** Maximum number of columns in the screen */
+	private int mMaxColumnsPerScreen = 4;
+	/** Padding inside cells and events */
+	private int mPadding;
+	/** Event corner radius */
+	private float mCornerRadius;
+
+	/** Room keys, in column order */
+	private List<String> mColumns = Collections.emptyList();
+	/** Header labels, in column order */
+	private List<String> mColumnLabels = Collections.emptyList();
+	/** Beginning of the window */
+	private Calendar mWindowBegin;
+	/** Beginning of the last row */
+	private Calendar mWindowEnd;
+	/** Number of rows */
+	private int mNumberOfRows;
+	/** Minutes per row */
+	private int mMinutesPerRow = 15;
+	/** Time axis labels, null for rows without label */
+	private String[] mTimeLabels = new String[0];
+	/** Events by room key */
+	private Map<String, List<? extends Event>> mEvents = Collections.emptyMap();
+	/** Laid out events of bound columns by key, in drawing order */
+	private Map<String, Block> mBlocks = new LinkedHashMap<String, Block>();
+	/** Blocks of events which are not drawn anymore, ready for reuse */
+	private final ArrayList<Block> mRecycledBlocks = new ArrayList<Block>();
+	/** First column whose events are laid out */
+	private int mFirstBoundColumn;
+	/** Last column whose events are laid out. Lower than first if none */
+	private int mLastBoundColumn = -1;
+	/** Keys of visible rooms, replaced as a whole so it can be read from any thread */
+	private volatile List<String> mVisibleColumns = Collections.emptyList();
+	/** Details of events created by QuickMeeting */
+	private String mUserEventMarker;
+	/** Bookings not confirmed yet, drawn apart. Contains the event instances */
+	private Collection<? extends Event> mPendingEvents = Collections.emptySet();
+	/** Title of events without title */
+	private String mNoTitle = "";
+
+	/** Horizontal scroll of the grid */
+	private int mScrollX;
+	/** Vertical scroll of the grid */
+	private int mScrollY;
+	/** Fling animation */
+	private Scroller mScroller;
+	/** Converts touches into scrolls, flings and taps */
+	private GestureDetector mGestureDetector;
+	/** Tap listener */
+	private OnGridTapListener mListener;
+
+	/** Paint of grid lines */
+	private final Paint mLinePaint = new Paint();
+	/** Paint of event background */
+	private final Paint mEventPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	/** Paint of event border */
+	private final Paint mBorderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	/** Paint of time axis labels */
+	private final TextPaint mTimePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+	/** Paint of room names */
+	private final TextPaint mHeaderPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+	/** Paint of event texts */
+	private final TextPaint mEventTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+	/** Formatter of times */
+	private final SimpleDateFormat mFormatter = new SimpleDateFormat("HH:mm");
+	/** Clip bounds of the grid, reused while drawing */
+	private final Rect mClip = new Rect();
+	/** Grid area changed by last diff of events */
+	private final Rect mDirty = new Rect();
+	/** True to time each frame. Off by default, so normal drawing pays nothing */
+	private boolean mFrameTiming;
+	/** Time (us) spent in onDraw by the last frame, when frame timing is on */
+	private long mLastFrameTime;
+
+	public RoomGridView(Context context) {
+		super(context);
+		init();
+	}
+
+	public RoomGridView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		init();
+	}
+
+	public RoomGridView(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		init();
+	}
+
+	private void init() {
+		Resources res = getResources();
+		float density = res.getDisplayMetrics().density;
+		mFirstColumnWidth = res.getDimensionPixelSize(R.dimen.first_column_width);
+		mHeaderHeight     = res.getDimensionPixelSize(R.dimen.first_row_height);
+		mRowHeight        = res.getDimensionPixelSize(R.dimen.calendar_row_height);
+		mPadding          = (int) (5 * density);
+		mCornerRadius     = 5 * density;
+		mNoTitle          = res.getString(R.string.reserved);
+
+		mLinePaint.setStrokeWidth(0);
+		mBorderPaint.setStyle(Paint.Style.STROKE);
+		mBorderPaint.setColor(EVENT_BORDER_COLOR);
+		mBorderPaint.setStrokeWidth(Math.max(1, density / 2));
+
+		mTimePaint.setColor(Color.BLACK);
+		mTimePaint.setTextSize(res.getDimensionPixelSize(R.dimen.time_font_size));
+		mHeaderPaint.setColor(Color.BLACK);
+		mHeaderPaint.setTypeface(Typeface.DEFAULT_BOLD);
+		mHeaderPaint.setTextAlign(Paint.Align.CENTER);
+		mHeaderPaint.setTextSize(res.getDimensionPixelSize(R.dimen.calendar_name_font_size));
+		mEventTextPaint.setColor(Color.BLACK);
+		mEventTextPaint.setTextSize(res.getDimensionPixelSize(R.dimen.event_font_size));
+
+		mScroller = new Scroller(getContext());
+		mGestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+			@Override
+			public boolean onDown(MotionEvent e) {
+				mScroller.forceFinished(true);
+				return true;
+			}
+
+			@Override
+			public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+				scrollGridTo(mScrollX + (int) distanceX, mScrollY + (int) distanceY);
+				return true;
+			}
+
+			@Override
+			public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+				mScroller.fling(mScrollX, mScrollY, (int) -velocityX, (int) -velocityY,
+						0, getMaxScrollX(), 0, getMaxScrollY());
+				invalidate();
+				return true;
+			}
+
+			@Override
+			public boolean onSingleTapUp(MotionEvent e) {
+				return onTap(e.getX(), e.getY());
+			}
+		});
+		setClickable(true);
+	}
+
+	/**
+	 * @param listener receives taps on cells and events
+	 */
+	public void setOnGridTapListener(OnGridTapListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * @param maxColumns maximum number of room columns in the screen
+	 */
+	public void setMaxColumnsPerScreen(int maxColumns) {
+		mMaxColumnsPerScreen = maxColumns;
+		updateColumnWidth();
+	}
+
+	/**
+	 * @param marker details of events created by QuickMeeting
+	 */
+	public void setUserEventMarker(String marker) {
+		mUserEventMarker = marker;
+	}
+
+	/**
+	 * Set rooms shown in the grid
+	 * @param columns room keys, in column order. Events are given by these keys
+	 * @param labels header labels, in column order
+	 */
+	public void setColumns(List<String> columns, List<String> labels) {
+		if (columns.equals(mColumns) && labels.equals(mColumnLabels)) {
+			return;
+		}
+		mColumnLabels = new ArrayList<String>(labels);
+		if (columns.equals(mColumns)) {
+			invalidate();
+			return;
+		}
+		mColumns = new ArrayList<String>(columns);
+		updateColumnWidth();
+		relayoutEvents();
+		requestLayout();
+	}
+
+	/**
+	 * Set time window of the grid
+	 * @param begin beginning of the first row
+	 * @param numberOfRows number of rows
+	 * @param minutesPerRow minutes of a row
+	 */
+	public void setWindow(Calendar begin, int numberOfRows, int minutesPerRow) {
+		//Time axis and event positions only change when the window shifts
+		if (mWindowBegin != null && mWindowBegin.getTimeInMillis() == begin.getTimeInMillis()
+				&& mNumberOfRows == numberOfRows && mMinutesPerRow == minutesPerRow) {
+			return;
+		}
+		mWindowBegin = (Calendar) begin.clone();
+		mNumberOfRows = numberOfRows;
+		mMinutesPerRow = minutesPerRow;
+		mWindowEnd = (Calendar) begin.clone();
+		mWindowEnd.add(Calendar.MINUTE, (numberOfRows - 1) * minutesPerRow);
+
+		mTimeLabels = new String[numberOfRows];
+		Calendar tmp = (Calendar) begin.clone();
+		for (int i = 0; i < numberOfRows; i++) {
+			if (isHalfHour(tmp)) {
+				mTimeLabels[i] = mFormatter.format(tmp.getTime());
+			}
+			tmp.add(Calendar.MINUTE, minutesPerRow);
+		}
+		requestLayout();
+		relayoutEvents();
+	}
+
+	/**
+	 * Set events of the grid. New events are diffed against the drawn ones, so
+	 * only added, removed and moved events are laid out and redrawn
+	 * @param events events by room key
+	 * @param pendingEvents bookings not confirmed yet, among the given events. 
+	 *                      They are drawn apart and cannot be tapped
+	 */
+	public void setEvents(Map<String, List<? extends Event>> events, Collection<? extends Event> pendingEvents) {
+		mEvents = events;
+		mPendingEvents = pendingEvents;
+		mDirty.setEmpty();
+		mBlocks = diffEvents(mBlocks);
+		if (!mDirty.isEmpty()) {
+			invalidate(mDirty.left + mFirstColumnWidth - mScrollX, mDirty.top + mHeaderHeight - mScrollY,
+					mDirty.right + mFirstColumnWidth - mScrollX, mDirty.bottom + mHeaderHeight - mScrollY);
+		}
+	}
+
+	/**
+	 * Rooms in the viewport, so their events can be fetched before the others.
+	 * Safe to call from any thread
+	 * @return keys of visible rooms
+	 */
+	public List<String> getVisibleColumns() {
+		return mVisibleColumns;
+	}
+
+	/**
+	 * Time each drawn frame, to compare the grid against other layouts on a device
+	 * @param enabled true to time frames
+	 */
+	public void setFrameTiming(boolean enabled) {
+		mFrameTiming = enabled;
+		mLastFrameTime = 0;
+	}
+
+	/**
+	 * @return time (us) spent in onDraw by the last frame, 0 if frame timing is off
+	 */
+	public long getLastFrameTime() {
+		return mLastFrameTime;
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		int width = mFirstColumnWidth + mColumns.size() * Math.max(mColumnWidth, 1);
+		int height = mHeaderHeight + mNumberOfRows * mRowHeight;
+		setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		updateColumnWidth();
+	}
+
+	/**
+	 * Compute column width from view width, so at most the maximum number of
+	 * columns fit in the screen. A single room takes half of the screen
+	 */
+	private void updateColumnWidth() {
+		int width = getWidth() - mFirstColumnWidth;
+		if (width <= 0) {
+			return;
+		}
+		int numberOfColumns = mColumns.size();
+		int columnWidth;
+		if (numberOfColumns <= 1) {
+			columnWidth = width / 2;
+		}
+		else if (numberOfColumns <= mMaxColumnsPerScreen) {
+			columnWidth = width / numberOfColumns;
+		}
+		else {
+			columnWidth = width / mMaxColumnsPerScreen;
+		}
+		if (columnWidth != mColumnWidth) {
+			mColumnWidth = columnWidth;
+			relayoutEvents();
+		}
+		else if (updateBoundColumns()) {
+			mBlocks = diffEvents(mBlocks);
+			invalidate();
+		}
+		scrollGridTo(mScrollX, mScrollY);
+	}
+
+	/**
+	 * Lay out every event again. Called when window, columns or column width
+	 * change, so all positions may have moved
+	 */
+	private void relayoutEvents() {
+		updateBoundColumns();
+		recycle(mBlocks.values());
+		mBlocks = diffEvents(new LinkedHashMap<String, Block>());
+		invalidate();
+	}
+
+	/**
+	 * Diff current events of bound columns against laid out ones. Blocks of
+	 * unchanged events are kept; new events are laid out. Bounds of added and
+	 * removed blocks are added to mDirty, and removed blocks are recycled.
+	 * Never called while drawing
+	 * @param oldBlocks laid out events, emptied by this method
+	 * @return laid out current events
+	 */
+	private Map<String, Block> diffEvents(Map<String, Block> oldBlocks) {
+		Map<String, Block> blocks = new LinkedHashMap<String, Block>();
+		if (mWindowBegin != null) {
+			for (int column = mFirstBoundColumn; column <= mLastBoundColumn; column++) {
+				List<? extends Event> events = mEvents.get(mColumns.get(column));
+				if (events == null) {
+					continue;
+				}
+				for (Event event : events) {
+					String key = getKey(column, event);
+					Block block = oldBlocks.remove(key);
+					if (block == null) {
+						block = layoutEvent(event, column);
+						if (block == null) {
+							continue;
+						}
+						addDirty(block);
+					}
+					block.mEvent = event;
+					blocks.put(key, block);
+				}
+			}
+		}
+		//Removed, moved to a different slot, or scrolled out
+		for (Block block : oldBlocks.values()) {
+			addDirty(block);
+		}
+		recycle(oldBlocks.values());
+		oldBlocks.clear();
+		return blocks;
+	}
+
+	/**
+	 * Compute columns to lay out, the visible ones plus a margin
+	 * @return true if bound columns changed
+	 */
+	private boolean updateBoundColumns() {
+		int first = 0;
+		int last = -1;
+		List<String> visible = Collections.emptyList();
+		if (mColumnWidth > 0 && !mColumns.isEmpty()) {
+			int viewport = Math.max(1, getWidth() - mFirstColumnWidth);
+			int firstVisible = Math.min(mColumns.size() - 1, mScrollX / mColumnWidth);
+			int lastVisible = Math.min(mColumns.size() - 1, (mScrollX + viewport - 1) / mColumnWidth);
+			visible = Collections.unmodifiableList(new ArrayList<String>(mColumns.subList(firstVisible, lastVisible + 1)));
+			first = Math.max(0, firstVisible - BOUND_COLUMNS_MARGIN);
+			last = Math.min(mColumns.size() - 1, lastVisible + BOUND_COLUMNS_MARGIN);
+		}
+		if (!visible.equals(mVisibleColumns)) {
+			mVisibleColumns = visible;
+		}
+		if (first == mFirstBoundColumn && last == mLastBoundColumn) {
+			return false;
+		}
+		mFirstBoundColumn = first;
+		mLastBoundColumn = last;
+		return true;
+	}
+
+	/**
+	 * Keep blocks for reuse, up to a limit
+	 * @param blocks blocks which are not drawn anymore
+	 */
+	private void recycle(Collection<Block> blocks) {
+		for (Block block : blocks) {
+			if (mRecycledBlocks.size() >= MAX_RECYCLED_BLOCKS) {
+				return;
+			}
+			block.mEvent = null;
+			mRecycledBlocks.add(block);
+		}
+	}
+
+	/**
+	 * Key of a laid out event. An event which moves, is renamed or is confirmed gets a new key
+	 * @param column column of its room
+	 * @param event event
+	 * @return key
+	 */
+	private String getKey(int column, Event event) {
+		return column + "|" + event.getId() + "|" + event.getBegin().getTimeInMillis()
+				+ "|" + event.getEnd().getTimeInMillis() + "|" + event.getTitle() 
+				+ (mPendingEvents.contains(event) ? "|pending" : "");
+	}
+
+	/**
+	 * Add bounds of a block to the dirty area
+	 * @param block laid out event
+	 */
+	private void addDirty(Block block) {
+		RectF bounds = block.mBounds;
+		mDirty.union((int) Math.floor(bounds.left), (int) Math.floor(bounds.top),
+				(int) Math.ceil(bounds.right) + 1, (int) Math.ceil(bounds.bottom) + 1);
+	}
+
+	/**
+	 * Lay out an event
+	 * @param event event
+	 * @param column column of its room
+	 * @return laid out event, or null if event is outside the window
+	 */
+	private Block layoutEvent(Event event, int column) {
+		Calendar eventBegin = event.getBegin();
+		Calendar eventEnd = event.getEnd();
+		if (eventEnd.before(mWindowBegin) || eventBegin.after(mWindowEnd)) {
+			return null;
+		}
+		int firstRow = getRow(eventBegin, true);
+		int endRow = getRow(eventEnd, false) + 1;
+		boolean userEvent = mUserEventMarker != null && mUserEventMarker.equals(event.getDetails());
+		boolean pending = mPendingEvents.contains(event);
+
+		Block block;
+		if (mRecycledBlocks.isEmpty()) {
+			block = new Block();
+		}
+		else {
+			block = mRecycledBlocks.remove(mRecycledBlocks.size() - 1);
+		}
+		//Gradient is vertical, so it can be kept if rows did not change
+		boolean keepShader = block.mShader != null && block.mUserEvent == userEvent && block.mPending == pending
+				&& block.mFirstRow == firstRow && block.mEndRow == endRow;
+		block.set(event, userEvent, pending, column, firstRow, endRow);
+		block.mBounds.set(column * mColumnWidth, firstRow * mRowHeight,
+				(column + 1) * mColumnWidth, endRow * mRowHeight);
+
+		String title = event.getTitle();
+		if (title == null || title.length() == 0) {
+			title = mNoTitle;
+		}
+		float textWidth = Math.max(0, mColumnWidth - 2 * mPadding);
+		block.mTitle = TextUtils.ellipsize(title, mEventTextPaint, textWidth, TruncateAt.END).toString();
+		block.mTime = mFormatter.format(eventBegin.getTime()) + " - " + mFormatter.format(eventEnd.getTime());
+		if (!keepShader) {
+			block.mShader = new LinearGradient(0, block.mBounds.bottom, 0, block.mBounds.top,
+					pending ? PENDING_EVENT_COLORS : userEvent ? USER_EVENT_COLORS : EVENT_COLORS, null, Shader.TileMode.CLAMP);
+		}
+		return block;
+	}
+
+	/**
+	 * Return the row of a time
+	 * @param time given time to search for its row
+	 * @param includeBounds true for counting the time at the border
+	 * @return row
+	 */
+	private int getRow(Calendar time, boolean includeBounds) {
+		long endDiffMin = (mWindowEnd.getTimeInMillis() - time.getTimeInMillis()) / (60 * 1000);
+		long beginDiffMin = (time.getTimeInMillis() - mWindowBegin.getTimeInMillis()) / (60 * 1000);
+		//The time starts before the first row
+		if (beginDiffMin <= 0) return 0;
+		//The time ends after the last row
+		if (endDiffMin <= 0) return mNumberOfRows - 1;
+
+		int row = (int) (beginDiffMin + 1) / mMinutesPerRow;
+		if (!includeBounds && (time.get(Calendar.MINUTE) % mMinutesPerRow) == 0) {
+			--row;
+		}
+		return row;
+	}
+
+	/**
+	 * @param time time
+	 * @return true if time is at the beginning of a half hour
+	 */
+	private boolean isHalfHour(Calendar time) {
+		return time.get(Calendar.MINUTE) % 30 == 0;
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		long start = mFrameTiming ? System.nanoTime() : 0;
+
+		int width = getWidth();
+		int height = getHeight();
+		int gridWidth = mColumns.size() * mColumnWidth;
+		int gridHeight = mNumberOfRows * mRowHeight;
+
+		//Visible rows and columns
+		int firstRow = mScrollY / mRowHeight;
+		int lastRow = Math.min(mNumberOfRows - 1, (mScrollY + height - mHeaderHeight) / mRowHeight);
+		int firstColumn = mColumnWidth > 0 ? mScrollX / mColumnWidth : 0;
+		int lastColumn = mColumnWidth > 0
+				? Math.min(mColumns.size() - 1, (mScrollX + width - mFirstColumnWidth) / mColumnWidth) : -1;
+
+		//Grid
+		canvas.save();
+		canvas.clipRect(mFirstColumnWidth, mHeaderHeight, width, height);
+		canvas.translate(mFirstColumnWidth - mScrollX, mHeaderHeight - mScrollY);
+		canvas.getClipBounds(mClip);
+		for (int row = firstRow; row <= lastRow; row++) {
+			int y = row * mRowHeight;
+			mLinePaint.setColor(mTimeLabels[row] != null ? DARK_LINE_COLOR : LINE_COLOR);
+			canvas.drawLine(0, y, gridWidth, y, mLinePaint);
+		}
+		mLinePaint.setColor(LINE_COLOR);
+		for (int column = firstColumn; column <= lastColumn + 1 && column <= mColumns.size(); column++) {
+			int x = column * mColumnWidth;
+			canvas.drawLine(x, 0, x, gridHeight, mLinePaint);
+		}
+		for (Block block : mBlocks.values()) {
+			if (block.mColumn < firstColumn || block.mColumn > lastColumn) {
+				continue;
+			}
+			RectF bounds = block.mBounds;
+			if (!mClip.intersects((int) bounds.left, (int) bounds.top, (int) bounds.right, (int) bounds.bottom)) {
+				continue;
+			}
+			drawBlock(canvas, block);
+		}
+		canvas.restore();
+
+		//Time axis
+		canvas.save();
+		canvas.clipRect(0, mHeaderHeight, mFirstColumnWidth, height);
+		canvas.translate(0, mHeaderHeight - mScrollY);
+		float timeAscent = -mTimePaint.ascent();
+		for (int row = firstRow; row <= lastRow; row++) {
+			int y = row * mRowHeight;
+			if (mTimeLabels[row] != null) {
+				mLinePaint.setColor(DARK_LINE_COLOR);
+				canvas.drawLine(0, y, mFirstColumnWidth, y, mLinePaint);
+				canvas.drawText(mTimeLabels[row], mPadding * 2, y + timeAscent, mTimePaint);
+			}
+		}
+		canvas.restore();
+
+		//Header
+		canvas.save();
+		canvas.clipRect(mFirstColumnWidth, 0, width, mHeaderHeight);
+		canvas.translate(mFirstColumnWidth - mScrollX, 0);
+		float headerBaseline = (mHeaderHeight - mHeaderPaint.ascent() - mHeaderPaint.descent()) / 2;
+		float headerWidth = Math.max(0, mColumnWidth - 2 * mPadding);
+		for (int column = firstColumn; column <= lastColumn; column++) {
+			String name = TextUtils.ellipsize(mColumnLabels.get(column), mHeaderPaint, headerWidth, TruncateAt.END).toString();
+			canvas.drawText(name, column * mColumnWidth + mColumnWidth / 2f, headerBaseline, mHeaderPaint);
+		}
+		canvas.restore();
+
+		if (mFrameTiming) {
+			mLastFrameTime = (System.nanoTime() - start) / 1000;
+		}
+	}
+
+	/**
+	 * Draw an event, in grid coordinates
+	 * @param canvas canvas
+	 * @param block laid out event
+	 */
+	private void drawBlock(Canvas canvas, Block block) {
+		RectF bounds = block.mBounds;
+		mEventPaint.setShader(block.mShader);
+		canvas.drawRoundRect(bounds, mCornerRadius, mCornerRadius, mEventPaint);
+		canvas.drawRoundRect(bounds, mCornerRadius, mCornerRadius, mBorderPaint);
+
+		canvas.save();
+		canvas.clipRect(bounds.left + mPadding, bounds.top + mPadding, bounds.right - mPadding, bounds.bottom - mPadding);
+		float lineHeight = mEventTextPaint.descent() - mEventTextPaint.ascent();
+		float baseline = bounds.top + mPadding - mEventTextPaint.ascent();
+		canvas.drawText(block.mTitle, bounds.left + mPadding, baseline, mEventTextPaint);
+		canvas.drawText(block.mTime, bounds.left + mPadding, baseline + lineHeight, mEventTextPaint);
+		canvas.restore();
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		return mGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+	}
+
+	@Override
+	public void computeScroll() {
+		if (mScroller.computeScrollOffset()) {
+			scrollGridTo(mScroller.getCurrX(), mScroller.getCurrY());
+		}
+	}
+
+	/**
+	 * Scroll the grid. Header and time axis follow it
+	 * @param x horizontal scroll, clamped to grid size
+	 * @param y vertical scroll, clamped to grid size
+	 */
+	private void scrollGridTo(int x, int y) {
+		x = Math.max(0, Math.min(x, getMaxScrollX()));
+		y = Math.max(0, Math.min(y, getMaxScrollY()));
+		if (x != mScrollX || y != mScrollY) {
+			mScrollX = x;
+			mScrollY = y;
+			//Lay out columns scrolled in, recycle the ones scrolled out
+			if (updateBoundColumns()) {
+				mBlocks = diffEvents(mBlocks);
+			}
+			invalidate();
+		}
+	}
+
+	private int getMaxScrollX() {
+		return Math.max(0, mColumns.size() * mColumnWidth - (getWidth() - mFirstColumnWidth));
+	}
+
+	private int getMaxScrollY() {
+		return Math.max(0, mNumberOfRows * mRowHeight - (getHeight() - mHeaderHeight));
+	}
+
+	/**
+	 * Map a tap to an event or a cell
+	 * @param x x in view coordinates
+	 * @param y y in view coordinates
+	 * @return true if tap was on the grid
+	 */
+	private boolean onTap(float x, float y) {
+		if (x < mFirstColumnWidth || y < mHeaderHeight || mColumnWidth <= 0 || mListener == null) {
+			return false;
+		}
+		float gridX = x - mFirstColumnWidth + mScrollX;
+		float gridY = y - mHeaderHeight + mScrollY;
+		int column = (int) (gridX / mColumnWidth);
+		int row = (int) (gridY / mRowHeight);
+		if (column >= mColumns.size() || row >= mNumberOfRows) {
+			return false;
+		}
+
+		//Last drawn event is on top
+		Block tapped = null;
+		for (Block block : mBlocks.values()) {
+			if (block.mColumn == column && block.mBounds.contains(gridX, gridY)) {
+				tapped = block;
+			}
+		}
+		if (tapped != null && tapped.mPending) {
+			//Nothing to do with a booking until google confirms it
+			return true;
+		}
+		if (tapped != null) {
+			playSoundEffect(SoundEffectConstants.CLICK);
+			mListener.onEventTapped(mColumns.get(column), tapped.mEvent, tapped.mUserEvent);
+			return true;
+		}
+		playSoundEffect(SoundEffectConstants.CLICK);
+		mListener.onCellTapped(mColumns.get(column), row);
+		return true;
+	}
+}
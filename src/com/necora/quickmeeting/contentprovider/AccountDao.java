@@ -0,0 +1,347 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.    
+*/
+
+package com.necora.quickmeeting.contentprovider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typed access to authorized accounts for in-process callers. Goes straight to
+ * the database with precompiled statements, without the content resolver, uri 
+ * parsing and projection maps. Writes notify the provider uri, so cursors 
+ * opened through the provider are refreshed.
+ * Methods are synchronized: precompiled statements cannot be shared by threads.
+ * @author vitor
+ */
+public class AccountDao {
+
+    /**
+     * An authorized account
+     */
+    public static class Account {
+        /** Row id */
+        private final String mId;
+        /** Account email */
+        private final String mEmail;
+        /** OAuth access token */
+        private final String mAccessToken;
+        /** OAuth refresh token */
+        private final String mRefreshToken;
+        /** Expiration date of access token, in sqlite format */
+        private final String mExpirationDate;
+
+        /**
+         * Constructor
+         * @param id row id
+         * @param email account email
+         * @param accessToken access token
+         * @param refreshToken refresh token
+         * @param expirationDate expiration date of access token
+         */
+        Account(String id, String email, String accessToken, String refreshToken, String expirationDate) {
+            mId = id;
+            mEmail = email;
+            mAccessToken = accessToken;
+            mRefreshToken = refreshToken;
+            mExpirationDate = expirationDate;
+        }
+
+        /**
+         * @return row id
+         */
+        public String getId() {
+            return mId;
+        }
+
+        /**
+         * @return account email
+         */
+        public String getEmail() {
+            return mEmail;
+        }
+
+        /**
+         * @return access token
+         */
+        public String getAccessToken() {
+            return mAccessToken;
+        }
+
+        /**
+         * @return refresh token
+         */
+        public String getRefreshToken() {
+            return mRefreshToken;
+        }
+
+        /**
+         * @return expiration date of access token, in sqlite format
+         */
+        public String getExpirationDate() {
+            return mExpirationDate;
+        }
+    }
+
+    /** Columns of an account. Indices below follow this order */
+    private static final String[] ACCOUNT_PROJECTION = new String[] {
+            AccountColumns._ID,
+            AccountColumns.EMAIL,
+            AccountColumns.ACCESS_TOKEN,
+            AccountColumns.REFRESH_TOKEN,
+            AccountColumns.EXPIRATION_DATE
+    };
+    /** Index of id column */
+    private static final int ID_INDEX = 0;
+    /** Index of email column */
+    private static final int EMAIL_INDEX = 1;
+    /** Index of access token column */
+    private static final int ACCESS_TOKEN_INDEX = 2;
+    /** Index of refresh token column */
+    private static final int REFRESH_TOKEN_INDEX = 3;
+    /** Index of expiration date column */
+    private static final int EXPIRATION_DATE_INDEX = 4;
+
+    /** instance reference */
+    private static AccountDao sInstance = null;
+
+    /** Shared database helper */
+    private final DatabaseHelper mHelper;
+    /** Used to notify changes to provider observers */
+    private final ContentResolver mResolver;
+    /** Database the statements were compiled for */
+    private SQLiteDatabase mDb;
+    /** Find account id by email */
+    private SQLiteStatement mFindIdStatement;
+    /** Insert an account */
+    private SQLiteStatement mInsertStatement;
+    /** Update tokens of an account */
+    private SQLiteStatement mUpdateTokensStatement;
+    /** Update access token of an account */
+    private SQLiteStatement mUpdateAccessTokenStatement;
+    /** Mark one account as active and the others as inactive */
+    private SQLiteStatement mSetActiveStatement;
+    /** Rows changed by last statement */
+    private SQLiteStatement mChangesStatement;
+
+    /**
+     * Private constructor for singleton
+     * @param context app context
+     */
+    private AccountDao(Context context) {
+        mHelper = DatabaseHelper.getInstance(context);
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the account DAO
+     * @param context app context
+     * @return account DAO
+     */
+    public static synchronized AccountDao getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AccountDao(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get writable database, compiling statements the first time it is opened
+     * @return database
+     */
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        if (db != mDb) {
+            String table = DatabaseHelper.AUTH_USER_TABLE_NAME;
+            mFindIdStatement = db.compileStatement("SELECT " + AccountColumns._ID + " FROM " + table 
+                    + " WHERE " + AccountColumns.EMAIL + "=? LIMIT 1");
+            mInsertStatement = db.compileStatement("INSERT INTO " + table + " (" 
+                    + AccountColumns.EMAIL + ", " + AccountColumns.ACCESS_TOKEN + ", " + AccountColumns.REFRESH_TOKEN + ", " 
+                    + AccountColumns.EXPIRATION_DATE + ", " + AccountColumns.ACTIVE_USER + ") VALUES (?, ?, ?, ?, 1)");
+            mUpdateTokensStatement = db.compileStatement("UPDATE " + table + " SET " 
+                    + AccountColumns.ACCESS_TOKEN + "=?, " + AccountColumns.REFRESH_TOKEN + "=?, " 
+                    + AccountColumns.EXPIRATION_DATE + "=?, " + AccountColumns.ACTIVE_USER + "=1 WHERE " 
+                    + AccountColumns.EMAIL + "=?");
+            mUpdateAccessTokenStatement = db.compileStatement("UPDATE " + table + " SET " 
+                    + AccountColumns.ACCESS_TOKEN + "=?, " + AccountColumns.EXPIRATION_DATE + "=? WHERE " 
+                    + AccountColumns.EMAIL + "=?");
+            mSetActiveStatement = db.compileStatement("UPDATE " + table + " SET " 
+                    + AccountColumns.ACTIVE_USER + "=(" + AccountColumns.EMAIL + "=?)");
+            mChangesStatement = db.compileStatement("SELECT changes()");
+            mDb = db;
+        }
+        return db;
+    }
+
+    /**
+     * Get active account
+     * @return active account, or null if there is none
+     */
+    public synchronized Account getActiveAccount() {
+        Cursor cursor = getDatabase().query(DatabaseHelper.AUTH_USER_TABLE_NAME, ACCOUNT_PROJECTION, 
+                AccountColumns.ACTIVE_USER + "=1", null, null, null, null, "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Account(cursor.getString(ID_INDEX), cursor.getString(EMAIL_INDEX), 
+                    cursor.getString(ACCESS_TOKEN_INDEX), cursor.getString(REFRESH_TOKEN_INDEX), 
+                    cursor.getString(EXPIRATION_DATE_INDEX));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get all accounts
+     * @return accounts, in insertion order
+     */
+    public synchronized List<Account> getAccounts() {
+        Cursor cursor = getDatabase().query(DatabaseHelper.AUTH_USER_TABLE_NAME, ACCOUNT_PROJECTION,
+                null, null, null, null, AccountColumns._ID + " ASC");
+        try {
+            List<Account> accounts = new ArrayList<Account>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                accounts.add(new Account(cursor.getString(ID_INDEX), cursor.getString(EMAIL_INDEX),
+                        cursor.getString(ACCESS_TOKEN_INDEX), cursor.getString(REFRESH_TOKEN_INDEX),
+                        cursor.getString(EXPIRATION_DATE_INDEX)));
+            }
+            return accounts;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Find an account by email
+     * @param email account email
+     * @return account id, or -1 if there is no account with that email
+     */
+    public synchronized long findAccountId(String email) {
+        getDatabase();
+        mFindIdStatement.bindString(1, email);
+        try {
+            return mFindIdStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Insert a new account, as active account. Other accounts are not changed
+     * @param email account email
+     * @param accessToken access token
+     * @param refreshToken refresh token
+     * @param expirationDate expiration date of access token, in sqlite format
+     * @return id of new account
+     */
+    public synchronized long insertAccount(String email, String accessToken, String refreshToken, String expirationDate) {
+        getDatabase();
+        bindNullable(mInsertStatement, 1, email);
+        bindNullable(mInsertStatement, 2, accessToken);
+        bindNullable(mInsertStatement, 3, refreshToken);
+        bindNullable(mInsertStatement, 4, expirationDate);
+        long id = mInsertStatement.executeInsert();
+        mResolver.notifyChange(AccountColumns.CONTENT_URI, null);
+        return id;
+    }
+
+    /**
+     * Store new tokens of an account and mark it as active. Other accounts are not changed
+     * @param email account email
+     * @param accessToken access token
+     * @param refreshToken refresh token
+     * @param expirationDate expiration date of access token, in sqlite format
+     * @return true if account was updated
+     */
+    public synchronized boolean updateTokens(String email, String accessToken, String refreshToken, String expirationDate) {
+        getDatabase();
+        bindNullable(mUpdateTokensStatement, 1, accessToken);
+        bindNullable(mUpdateTokensStatement, 2, refreshToken);
+        bindNullable(mUpdateTokensStatement, 3, expirationDate);
+        bindNullable(mUpdateTokensStatement, 4, email);
+        return executeUpdate(mUpdateTokensStatement) == 1;
+    }
+
+    /**
+     * Store a refreshed access token
+     * @param email account email
+     * @param accessToken access token
+     * @param expirationDate expiration date of access token, in sqlite format
+     * @return true if account was updated
+     */
+    public synchronized boolean updateAccessToken(String email, String accessToken, String expirationDate) {
+        getDatabase();
+        bindNullable(mUpdateAccessTokenStatement, 1, accessToken);
+        bindNullable(mUpdateAccessTokenStatement, 2, expirationDate);
+        bindNullable(mUpdateAccessTokenStatement, 3, email);
+        return executeUpdate(mUpdateAccessTokenStatement) == 1;
+    }
+
+    /**
+     * Mark an account as active and every other account as inactive, in one statement
+     * @param email email of new active account
+     */
+    public synchronized void setActiveAccount(String email) {
+        getDatabase();
+        bindNullable(mSetActiveStatement, 1, email);
+        executeUpdate(mSetActiveStatement);
+    }
+
+    /**
+     * Execute an update and notify observers. Statement and row count are read 
+     * in a transaction, so no other statement runs in between
+     * @param statement bound update statement
+     * @return number of rows changed
+     */
+    private int executeUpdate(SQLiteStatement statement) {
+        int count;
+        mDb.beginTransaction();
+        try {
+            statement.execute();
+            count = (int) mChangesStatement.simpleQueryForLong();
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        if (count > 0) {
+            mResolver.notifyChange(AccountColumns.CONTENT_URI, null);
+        }
+        return count;
+    }
+
+    /**
+     * Bind a string that may be null
+     * @param statement statement
+     * @param index parameter index (1 based)
+     * @param value value to bind
+     */
+    static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
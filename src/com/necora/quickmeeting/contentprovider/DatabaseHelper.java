@@ -32,25 +32,138 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String AUTH_USER_TABLE_NAME = "auth_users";
     /** Resources table */
     public static final String RESOURCE_TABLE_NAME = "resources";
+    /** Events table */
+    public static final String EVENT_TABLE_NAME = "events";
     /** Config table */
     public static final String CONFIG_TABLE_NAME = "config_properties";
     /** SQLite Database name */
     private static final String DATABASE_NAME = "config.db";
-    /** SQLite Database version */
-    private static final int DATABASE_VERSION = 1;
+    /** SQLite Database version. Must be the version of last migration */
+    static final int DATABASE_VERSION = 5;
     /** TAG for log entries */
     private static final String TAG = "DatabaseHelper";
     
+    /** Schema steps after version 1, in order */
+    private static final DatabaseMigration[] MIGRATIONS = {
+        new DatabaseMigration(2) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //Calendar metadata
+                db.execSQL("ALTER TABLE " + RESOURCE_TABLE_NAME + " ADD COLUMN " + ResourceColumns.CALENDAR_ID + " VARCHAR(255)");
+                db.execSQL("ALTER TABLE " + RESOURCE_TABLE_NAME + " ADD COLUMN " + ResourceColumns.TIMEZONE + " VARCHAR(255)");
+                db.execSQL("ALTER TABLE " + RESOURCE_TABLE_NAME + " ADD COLUMN " + ResourceColumns.COLOR + " VARCHAR(255)");
+                db.execSQL("ALTER TABLE " + RESOURCE_TABLE_NAME + " ADD COLUMN " + ResourceColumns.METADATA_UPDATED + " INTEGER");
+            }
+        },
+        new DatabaseMigration(3) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //Last known events
+                db.execSQL("CREATE TABLE " + EVENT_TABLE_NAME + " (" 
+                        + EventColumns._ID             + " INTEGER PRIMARY KEY AUTOINCREMENT," 
+                        + EventColumns.RESOURCE_ID     + " VARCHAR(255)," 
+                        + EventColumns.EVENT_ID        + " VARCHAR(255)," 
+                        + EventColumns.TITLE           + " VARCHAR(255),"
+                        + EventColumns.DETAILS         + " TEXT,"
+                        + EventColumns.BEGIN           + " INTEGER,"
+                        + EventColumns.END             + " INTEGER,"
+                        + EventColumns.UPDATED         + " INTEGER);");
+                db.execSQL("CREATE INDEX " + EVENT_TABLE_NAME + "_resource_begin ON " + EVENT_TABLE_NAME 
+                        + " (" + EventColumns.RESOURCE_ID + ", " + EventColumns.BEGIN + ");");
+            }
+        },
+        new DatabaseMigration(4) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //auth_user_id becomes an integer foreign key. SQLite cannot change the type 
+                //of a column, so table is rebuilt. Resources of deleted users are dropped
+                String otherColumns = ResourceColumns.NAME + ", " + ResourceColumns.LINK + ", " 
+                        + ResourceColumns.EVENTS_LINK + ", " + ResourceColumns.ACTIVE + ", " 
+                        + ResourceColumns.DISPLAY_NAME + ", " + ResourceColumns.CALENDAR_ID + ", " 
+                        + ResourceColumns.TIMEZONE + ", " + ResourceColumns.COLOR + ", " 
+                        + ResourceColumns.METADATA_UPDATED;
+                db.execSQL("CREATE TABLE " + RESOURCE_TABLE_NAME + "_new (" 
+                        + ResourceColumns._ID             + " INTEGER PRIMARY KEY AUTOINCREMENT," 
+                        + ResourceColumns.AUTH_USER_ID    + " INTEGER NOT NULL REFERENCES " 
+                                + AUTH_USER_TABLE_NAME + "(" + AccountColumns._ID + ") ON DELETE CASCADE," 
+                        + ResourceColumns.NAME            + " VARCHAR(255)," 
+                        + ResourceColumns.LINK            + " VARCHAR(255),"
+                        + ResourceColumns.EVENTS_LINK     + " VARCHAR(255),"
+                        + ResourceColumns.ACTIVE          + " BOOLEAN,"
+                        + ResourceColumns.DISPLAY_NAME    + " VARCHAR(255),"
+                        + ResourceColumns.CALENDAR_ID     + " VARCHAR(255),"
+                        + ResourceColumns.TIMEZONE        + " VARCHAR(255),"
+                        + ResourceColumns.COLOR           + " VARCHAR(255),"
+                        + ResourceColumns.METADATA_UPDATED + " INTEGER);");
+                db.execSQL("INSERT INTO " + RESOURCE_TABLE_NAME + "_new (" 
+                        + ResourceColumns._ID + ", " + ResourceColumns.AUTH_USER_ID + ", " + otherColumns + ") SELECT " 
+                        + ResourceColumns._ID + ", CAST(" + ResourceColumns.AUTH_USER_ID + " AS INTEGER), " + otherColumns
+                        + " FROM " + RESOURCE_TABLE_NAME 
+                        + " WHERE " + ResourceColumns.AUTH_USER_ID + " IN (SELECT " + AccountColumns._ID 
+                        + " FROM " + AUTH_USER_TABLE_NAME + ");");
+                db.execSQL("DROP TABLE " + RESOURCE_TABLE_NAME + ";");
+                db.execSQL("ALTER TABLE " + RESOURCE_TABLE_NAME + "_new RENAME TO " + RESOURCE_TABLE_NAME + ";");
+            }
+        },
+        new DatabaseMigration(5) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //Active resources of a user (ResourceManager.refreshActiveResources)
+                db.execSQL("CREATE INDEX " + RESOURCE_TABLE_NAME + "_user_active ON " + RESOURCE_TABLE_NAME 
+                        + " (" + ResourceColumns.AUTH_USER_ID + ", " + ResourceColumns.ACTIVE + ");");
+                //Accounts by email and active account (UserManager)
+                db.execSQL("CREATE INDEX " + AUTH_USER_TABLE_NAME + "_email ON " + AUTH_USER_TABLE_NAME 
+                        + " (" + AccountColumns.EMAIL + ");");
+                db.execSQL("CREATE INDEX " + AUTH_USER_TABLE_NAME + "_active ON " + AUTH_USER_TABLE_NAME 
+                        + " (" + AccountColumns.ACTIVE_USER + ");");
+            }
+        }
+    };
+    
+    /** Shared instance. Provider and DAOs use the same connection */
+    private static DatabaseHelper sInstance = null;
+    
     /** 
      * Main Constructor
      * @param context context of application
      */
-    DatabaseHelper(Context context) {
+    private DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Returns the shared helper
+     * @param context any context, application context is used
+     * @return database helper
+     */
+    static synchronized DatabaseHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DatabaseHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates version 1 of the schema and applies every migration, so new 
+     * databases are built exactly as upgraded ones
+     */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createVersion1(db);
+        migrate(db, 1, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+        migrate(db, oldVersion, newVersion);
+    }
+    
+    /**
+     * Creates version 1 of the schema, as first released
+     * @param db empty database
+     */
+    static void createVersion1(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + AUTH_USER_TABLE_NAME + " (" 
                         + AccountColumns._ID             + " INTEGER PRIMARY KEY AUTOINCREMENT," 
                         + AccountColumns.ACCESS_TOKEN    + " VARCHAR(255)," 
@@ -73,15 +186,36 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + ConfigColumns.PROPERTY        + " VARCHAR(255)," 
                 + ConfigColumns.VALUE           + " VARCHAR(255),"
                 + ConfigColumns.DEFAULT         + " VARCHAR(255));");
-        
     }
-
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion
-                + ", which will destroy all old data");
-        db.execSQL("DROP TABLE IF EXISTS " + AUTH_USER_TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + RESOURCE_TABLE_NAME);
-        onCreate(db);
+    
+    /**
+     * Apply migrations after a version, in order. Each one runs in its own 
+     * transaction; if one fails, whole upgrade is rolled back and existing data is kept
+     * @param db database
+     * @param oldVersion current schema version
+     * @param newVersion target schema version
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (DatabaseMigration migration : MIGRATIONS) {
+            if (migration.getVersion() <= oldVersion || migration.getVersion() > newVersion) {
+                continue;
+            }
+            if (migration.getVersion() != version + 1) {
+                throw new IllegalStateException("Missing migration to version " + (version + 1));
+            }
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            version = migration.getVersion();
+            Log.i(TAG, "Database migrated to version " + version);
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration to version " + newVersion);
+        }
     }
 }
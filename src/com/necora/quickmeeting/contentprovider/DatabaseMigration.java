@@ -0,0 +1,52 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.    
+*/
+
+package com.necora.quickmeeting.contentprovider;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A step of the database schema. Each step upgrades the schema from the 
+ * previous version to its own version, keeping existing data
+ * @author vitor
+ */
+abstract class DatabaseMigration {
+
+    /** Schema version after this step */
+    private final int mVersion;
+
+    /**
+     * Constructor
+     * @param version schema version after this step
+     */
+    DatabaseMigration(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * @return schema version after this step
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Upgrade schema from previous version. Called inside a transaction
+     * @param db database
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,52 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.contentprovider;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+
+/**
+ * Event class for Database access. Last known events of each resource
+ * @author vitor
+ * 
+ */
+public class EventColumns implements BaseColumns{
+    
+    /** Column name: resource foreign key */
+    public static final String RESOURCE_ID = "resource_id";
+    /** Column name: google id of event */
+    public static final String EVENT_ID = "event_id";
+    /** Column name: title */
+    public static final String TITLE = "title";
+    /** Column name: details */
+    public static final String DETAILS = "details";
+    /** Column name: begin date (ms) */
+    public static final String BEGIN = "begin";
+    /** Column name: end date (ms) */
+    public static final String END = "end";
+    /** Column name: time (ms) event was downloaded */
+    public static final String UPDATED = "updated";
+    
+    /** Content type */
+    public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.events";
+    
+    /** Content URI */
+    public static final Uri CONTENT_URI = Uri.parse("content://" + QuickMeetingContentProvider.AUTHORITY + "/events");   
+
+}
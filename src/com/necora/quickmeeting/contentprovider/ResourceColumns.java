@@ -39,6 +39,14 @@ public class ResourceColumns implements BaseColumns{
     public static final String ACTIVE = "active";
     /** Column name: name to display on main screen */
     public static final String EVENTS_LINK = "events_link";
+    /** Column name: google id of calendar */
+    public static final String CALENDAR_ID = "calendar_id";
+    /** Column name: time zone id of calendar */
+    public static final String TIMEZONE = "timezone";
+    /** Column name: color of calendar */
+    public static final String COLOR = "color";
+    /** Column name: time (ms) calendar metadata was fetched from google */
+    public static final String METADATA_UPDATED = "metadata_updated";
     
     
 
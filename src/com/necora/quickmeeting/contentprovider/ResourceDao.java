@@ -0,0 +1,349 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.    
+*/
+
+package com.necora.quickmeeting.contentprovider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typed access to the resources (calendars) of an account for in-process callers.
+ * Goes straight to the database with precompiled statements, without the content 
+ * resolver, uri parsing and projection maps. Writes notify the provider uri of the
+ * account resources, so cursors opened through the provider are refreshed.
+ * Methods are synchronized: precompiled statements cannot be shared by threads.
+ * @author vitor
+ */
+public class ResourceDao {
+
+    /**
+     * A stored resource
+     */
+    public static class Resource {
+        /** Row id */
+        private final long mId;
+        /** Google calendar link */
+        private final String mLink;
+        /** Calendar name */
+        private final String mName;
+        /** Name shown to the user */
+        private final String mDisplayName;
+        /** Link of events feed */
+        private final String mEventsLink;
+        /** True if resource is shown in the grid */
+        private final boolean mActive;
+        /** Google calendar id, null if metadata was never stored */
+        private final String mCalendarId;
+        /** Time zone id */
+        private final String mTimeZone;
+        /** Calendar color */
+        private final String mColor;
+        /** Time (ms) metadata was fetched from google */
+        private final long mMetadataUpdated;
+
+        /**
+         * Constructor
+         * @param cursor cursor positioned on a row of RESOURCE_PROJECTION
+         */
+        private Resource(Cursor cursor) {
+            mId = cursor.getLong(ID_INDEX);
+            mLink = cursor.getString(LINK_INDEX);
+            mName = cursor.getString(NAME_INDEX);
+            mDisplayName = cursor.getString(DISPLAY_NAME_INDEX);
+            mEventsLink = cursor.getString(EVENTS_LINK_INDEX);
+            mActive = cursor.getInt(ACTIVE_INDEX) != 0;
+            mCalendarId = cursor.getString(CALENDAR_ID_INDEX);
+            mTimeZone = cursor.getString(TIMEZONE_INDEX);
+            mColor = cursor.getString(COLOR_INDEX);
+            mMetadataUpdated = cursor.getLong(METADATA_UPDATED_INDEX);
+        }
+
+        /**
+         * @return row id
+         */
+        public long getId() {
+            return mId;
+        }
+
+        /**
+         * @return google calendar link
+         */
+        public String getLink() {
+            return mLink;
+        }
+
+        /**
+         * @return calendar name
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return name shown to the user
+         */
+        public String getDisplayName() {
+            return mDisplayName;
+        }
+
+        /**
+         * @return link of events feed
+         */
+        public String getEventsLink() {
+            return mEventsLink;
+        }
+
+        /**
+         * @return true if resource is shown in the grid
+         */
+        public boolean isActive() {
+            return mActive;
+        }
+
+        /**
+         * @return google calendar id, null if metadata was never stored
+         */
+        public String getCalendarId() {
+            return mCalendarId;
+        }
+
+        /**
+         * @return time zone id
+         */
+        public String getTimeZone() {
+            return mTimeZone;
+        }
+
+        /**
+         * @return calendar color
+         */
+        public String getColor() {
+            return mColor;
+        }
+
+        /**
+         * @return time (ms) metadata was fetched from google
+         */
+        public long getMetadataUpdated() {
+            return mMetadataUpdated;
+        }
+    }
+
+    /** Columns of a resource. Indices below follow this order */
+    private static final String[] RESOURCE_PROJECTION = new String[] {
+            ResourceColumns._ID,
+            ResourceColumns.LINK,
+            ResourceColumns.NAME,
+            ResourceColumns.DISPLAY_NAME,
+            ResourceColumns.EVENTS_LINK,
+            ResourceColumns.ACTIVE,
+            ResourceColumns.CALENDAR_ID,
+            ResourceColumns.TIMEZONE,
+            ResourceColumns.COLOR,
+            ResourceColumns.METADATA_UPDATED
+    };
+    /** Index of id column */
+    private static final int ID_INDEX = 0;
+    /** Index of link column */
+    private static final int LINK_INDEX = 1;
+    /** Index of name column */
+    private static final int NAME_INDEX = 2;
+    /** Index of display name column */
+    private static final int DISPLAY_NAME_INDEX = 3;
+    /** Index of events link column */
+    private static final int EVENTS_LINK_INDEX = 4;
+    /** Index of active column */
+    private static final int ACTIVE_INDEX = 5;
+    /** Index of calendar id column */
+    private static final int CALENDAR_ID_INDEX = 6;
+    /** Index of time zone column */
+    private static final int TIMEZONE_INDEX = 7;
+    /** Index of color column */
+    private static final int COLOR_INDEX = 8;
+    /** Index of metadata updated column */
+    private static final int METADATA_UPDATED_INDEX = 9;
+
+    /** instance reference */
+    private static ResourceDao sInstance = null;
+
+    /** Shared database helper */
+    private final DatabaseHelper mHelper;
+    /** Used to notify changes to provider observers */
+    private final ContentResolver mResolver;
+    /** Database the statements were compiled for */
+    private SQLiteDatabase mDb;
+    /** Find link of a resource */
+    private SQLiteStatement mLinkStatement;
+    /** Change active state of a resource */
+    private SQLiteStatement mSetActiveStatement;
+    /** Store google metadata of a resource */
+    private SQLiteStatement mMetadataStatement;
+    /** Rows changed by last statement */
+    private SQLiteStatement mChangesStatement;
+
+    /**
+     * Private constructor for singleton
+     * @param context app context
+     */
+    private ResourceDao(Context context) {
+        mHelper = DatabaseHelper.getInstance(context);
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the resource DAO
+     * @param context app context
+     * @return resource DAO
+     */
+    public static synchronized ResourceDao getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResourceDao(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get writable database, compiling statements the first time it is opened
+     * @return database
+     */
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        if (db != mDb) {
+            String table = DatabaseHelper.RESOURCE_TABLE_NAME;
+            String byId = " WHERE " + ResourceColumns.AUTH_USER_ID + "=? AND " + ResourceColumns._ID + "=?";
+            mLinkStatement = db.compileStatement("SELECT " + ResourceColumns.LINK + " FROM " + table + byId);
+            mSetActiveStatement = db.compileStatement("UPDATE " + table + " SET " + ResourceColumns.ACTIVE + "=?" + byId);
+            mMetadataStatement = db.compileStatement("UPDATE " + table + " SET " 
+                    + ResourceColumns.CALENDAR_ID + "=?, " + ResourceColumns.TIMEZONE + "=?, " 
+                    + ResourceColumns.COLOR + "=?, " + ResourceColumns.METADATA_UPDATED + "=? WHERE " 
+                    + ResourceColumns.AUTH_USER_ID + "=? AND " + ResourceColumns.LINK + "=?");
+            mChangesStatement = db.compileStatement("SELECT changes()");
+            mDb = db;
+        }
+        return db;
+    }
+
+    /**
+     * Get resources of an account, ordered by id
+     * @param userId account id
+     * @param activeOnly true to get only resources shown in the grid
+     * @return resources
+     */
+    public synchronized List<Resource> getResources(long userId, boolean activeOnly) {
+        String where = ResourceColumns.AUTH_USER_ID + "=?";
+        if (activeOnly) {
+            where += " AND " + ResourceColumns.ACTIVE + "=1";
+        }
+        Cursor cursor = getDatabase().query(DatabaseHelper.RESOURCE_TABLE_NAME, RESOURCE_PROJECTION, where, 
+                new String[]{Long.toString(userId)}, null, null, ResourceColumns._ID + " ASC");
+        try {
+            List<Resource> resources = new ArrayList<Resource>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                resources.add(new Resource(cursor));
+            }
+            return resources;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get link of a resource
+     * @param userId account id
+     * @param resourceId resource id
+     * @return google calendar link, or null if resource does not exist
+     */
+    public synchronized String getLink(long userId, long resourceId) {
+        getDatabase();
+        mLinkStatement.bindLong(1, userId);
+        mLinkStatement.bindLong(2, resourceId);
+        try {
+            return mLinkStatement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Change active state of a resource
+     * @param userId account id
+     * @param resourceId resource id
+     * @param active true to show resource in the grid
+     * @return true if resource was updated
+     */
+    public synchronized boolean setActive(long userId, long resourceId, boolean active) {
+        getDatabase();
+        mSetActiveStatement.bindLong(1, active ? 1 : 0);
+        mSetActiveStatement.bindLong(2, userId);
+        mSetActiveStatement.bindLong(3, resourceId);
+        return executeUpdate(mSetActiveStatement, userId) == 1;
+    }
+
+    /**
+     * Store google metadata of a resource
+     * @param userId account id
+     * @param link google calendar link
+     * @param calendarId google calendar id
+     * @param timeZone time zone id
+     * @param color calendar color
+     * @param updateTime time (ms) metadata was fetched from google
+     * @return true if resource was updated
+     */
+    public synchronized boolean updateMetadata(long userId, String link, String calendarId, String timeZone, 
+            String color, long updateTime) {
+        getDatabase();
+        AccountDao.bindNullable(mMetadataStatement, 1, calendarId);
+        AccountDao.bindNullable(mMetadataStatement, 2, timeZone);
+        AccountDao.bindNullable(mMetadataStatement, 3, color);
+        mMetadataStatement.bindLong(4, updateTime);
+        mMetadataStatement.bindLong(5, userId);
+        AccountDao.bindNullable(mMetadataStatement, 6, link);
+        return executeUpdate(mMetadataStatement, userId) > 0;
+    }
+
+    /**
+     * Execute an update and notify observers. Statement and row count are read 
+     * in a transaction, so no other statement runs in between
+     * @param statement bound update statement
+     * @param userId account of updated resources
+     * @return number of rows changed
+     */
+    private int executeUpdate(SQLiteStatement statement, long userId) {
+        int count;
+        mDb.beginTransaction();
+        try {
+            statement.execute();
+            count = (int) mChangesStatement.simpleQueryForLong();
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        if (count > 0) {
+            mResolver.notifyChange(Uri.withAppendedPath(AccountColumns.CONTENT_URI, 
+                    userId + "/" + DatabaseHelper.RESOURCE_TABLE_NAME), null);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.objects;
+
+import java.util.Calendar;
+
+/**
+ * Busy interval of a resource, from a free/busy query. It has no id, title 
+ * nor details; real events of the interval can be fetched when needed
+ * @author vitor
+ */
+public class BusyEvent extends Event {
+
+    /** Id of resource which is busy */
+    private String mResourceId;
+
+    /**
+     * Constructor
+     * @param resourceId id of resource which is busy
+     * @param begin begin of busy interval
+     * @param end end of busy interval
+     */
+    public BusyEvent(String resourceId, Calendar begin, Calendar end) {
+        super();
+        mResourceId = resourceId;
+        mTitle = "";
+        mDetails = "";
+        mBegin = begin;
+        mEnd = end;
+    }
+
+    /**
+     * @return id of resource which is busy
+     */
+    public String getResourceId() {
+        return mResourceId;
+    }
+}
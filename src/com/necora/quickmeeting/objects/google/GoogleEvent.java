@@ -39,6 +39,9 @@ public class GoogleEvent extends Event{
     static public final String FIELD_BEGIN = "start";
     static public final String FIELD_END = "end";
     public static final String FIELD_WHEN_LIST = "when";
+    
+    /** Status of a deleted event, only returned when deleted events are requested */
+    static public final String STATUS_CANCELED = "canceled";
 
     
     private String mSelfLink;
@@ -104,6 +107,15 @@ public class GoogleEvent extends Event{
         this.mStatus = status;
     }
 
+    /**
+     * Check if event was deleted
+     * @return true if event status is canceled
+     */
+    public boolean isCanceled() {
+        //jsonc sends "canceled", atom feeds send the full "...#event.canceled" term
+        return mStatus != null && mStatus.endsWith(STATUS_CANCELED);
+    }
+
     public User getCreator() {
         return mCreator;
     }
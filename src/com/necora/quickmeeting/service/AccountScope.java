@@ -0,0 +1,94 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.necora.quickmeeting.service;
+
+/**
+ * Binds the calling thread to an account, so google is called with the token
+ * of that account instead of the active one. Used when several accounts are
+ * synchronized at once, and for rooms of other accounts shown in the grid.
+ * Bindings nest: enter returns the previous binding, which exit restores.
+ * @author vitor
+ */
+final class AccountScope {
+
+    /** Email of the account bound to each thread, null for the active account */
+    private static final ThreadLocal<String> sAccount = new ThreadLocal<String>();
+
+    /**
+     * No instances
+     */
+    private AccountScope() {
+    }
+
+    /**
+     * @return email of the account bound to calling thread, null for the active account
+     */
+    static String get() {
+        return sAccount.get();
+    }
+
+    /**
+     * Bind calling thread to an account
+     * @param email account email. If null, current binding is kept
+     * @return previous binding, to pass to exit
+     */
+    static String enter(String email) {
+        String previous = sAccount.get();
+        if (email != null) {
+            sAccount.set(email);
+        }
+        return previous;
+    }
+
+    /**
+     * Restore the binding entered returned
+     * @param previous previous binding
+     */
+    static void exit(String previous) {
+        if (previous == null) {
+            sAccount.remove();
+        } else {
+            sAccount.set(previous);
+        }
+    }
+
+    /**
+     * Wrap a task so it runs bound to the account of calling thread, i.e. when
+     * it is handed to another thread
+     * @param runnable task
+     * @return task bound to current account
+     */
+    static Runnable wrap(final Runnable runnable) {
+        final String email = sAccount.get();
+        if (email == null) {
+            return runnable;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                String previous = enter(email);
+                try {
+                    runnable.run();
+                } finally {
+                    exit(previous);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,335 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import com.necora.quickmeeting.objects.CalendarResource;
+import com.necora.quickmeeting.objects.Event;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides how often each resource is polled. A resource whose events changed
+ * in its last poll, or with a meeting beginning or ending soon, is polled at
+ * the minimum interval. A quiet resource backs off exponentially up to the
+ * maximum interval, which is also used outside office hours. A local booking
+ * puts every resource back at the minimum interval.
+ * A move of the shown window is not a poll: the caller fetches only the part
+ * of the window exposed since the last fetch of a resource (see getWindowEnd
+ * and onShifted). Changes are detected on the part of the window common to 
+ * two polls, so a move alone does not reset the interval.
+ * @author vitor
+ */
+public class AdaptivePollPolicy {
+
+    /**
+     * Poll state of a resource
+     */
+    private static class ResourceState {
+        /** Current interval (ms) */
+        long mInterval;
+        /** Time (ms) of next poll */
+        long mNextPoll;
+        /** Beginning (ms) of the window of last fetch */
+        long mWindowBegin;
+        /** End (ms) of the window of last fetch */
+        long mWindowEnd;
+        /** Events of last fetch, to detect changes */
+        List<? extends Event> mEvents;
+    }
+
+    /** Factor applied to the interval of a quiet resource */
+    private static final int BACKOFF_FACTOR = 2;
+
+    /** Minimum interval (ms) */
+    private final long mMinInterval;
+    /** Maximum interval (ms) */
+    private final long mMaxInterval;
+    /** First hour of office hours */
+    private int mOfficeBegin = 0;
+    /** Hour after last hour of office hours */
+    private int mOfficeEnd = 24;
+
+    /** State by resource id */
+    private final Map<String, ResourceState> mStates = new HashMap<String, ResourceState>();
+
+    /**
+     * Constructor
+     * @param minInterval minimum interval (ms)
+     * @param maxInterval maximum interval (ms)
+     */
+    public AdaptivePollPolicy(long minInterval, long maxInterval) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Invalid intervals: " + minInterval + ", " + maxInterval);
+        }
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+    }
+
+    /**
+     * Set office hours. Outside them resources are polled at the maximum interval
+     * @param beginHour first hour (0-23)
+     * @param endHour hour after the last one (1-24). Lower than begin for hours crossing midnight
+     */
+    public synchronized void setOfficeHours(int beginHour, int endHour) {
+        mOfficeBegin = beginHour;
+        mOfficeEnd = endHour;
+    }
+
+    /**
+     * Return resources which must be polled now. A resource whose last window
+     * is entirely before the shown one is due too, since nothing of it is left
+     * @param resources all resources
+     * @param windowBegin beginning of the shown window
+     * @param now current time (ms)
+     * @return due resources, new ones included
+     */
+    public synchronized <T extends CalendarResource> List<T> getDueResources(Collection<T> resources, 
+            Calendar windowBegin, long now) {
+        List<T> due = new ArrayList<T>();
+        for (T resource : resources) {
+            ResourceState state = mStates.get(resource.getId());
+            if (state == null || state.mNextPoll <= now 
+                    || state.mWindowEnd <= windowBegin.getTimeInMillis()) {
+                due.add(resource);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * End of the window of the last fetch of a resource. If it is before the
+     * end of the shown window, the part after it is not known yet
+     * @param resourceId resource id
+     * @return end (ms) of last fetched window, or -1 if resource was never polled
+     */
+    public synchronized long getWindowEnd(String resourceId) {
+        ResourceState state = mStates.get(resourceId);
+        return state == null ? -1 : state.mWindowEnd;
+    }
+
+    /**
+     * Update the interval of a polled resource
+     * @param resourceId resource id
+     * @param events polled events
+     * @param windowBegin beginning of the polled window
+     * @param windowEnd end of the polled window
+     * @param now time (ms) of the poll
+     */
+    public synchronized void onPolled(String resourceId, List<? extends Event> events, 
+            Calendar windowBegin, Calendar windowEnd, long now) {
+        ResourceState state = mStates.get(resourceId);
+        long begin = windowBegin.getTimeInMillis();
+        long end = windowEnd.getTimeInMillis();
+        if (state == null) {
+            state = new ResourceState();
+            state.mInterval = mMinInterval;
+        } else if (hasChanged(state, events, begin, end)) {
+            state.mInterval = mMinInterval;
+        } else {
+            state.mInterval = Math.min(mMaxInterval, state.mInterval * BACKOFF_FACTOR);
+        }
+        if (!isOfficeHours(now)) {
+            state.mInterval = mMaxInterval;
+        }
+        if (isBoundaryNear(events, now, state.mInterval)) {
+            state.mInterval = mMinInterval;
+        }
+        state.mEvents = events;
+        state.mWindowBegin = begin;
+        state.mWindowEnd = end;
+        state.mNextPoll = now + state.mInterval;
+        mStates.put(resourceId, state);
+    }
+
+    /**
+     * The window of a resource moved without a poll: its events are the ones
+     * kept from last fetch plus the ones of the newly exposed part. Interval
+     * and next poll are not changed
+     * @param resourceId resource id
+     * @param events events of the moved window
+     * @param windowBegin beginning of the moved window
+     * @param windowEnd end of the moved window
+     */
+    public synchronized void onShifted(String resourceId, List<? extends Event> events, 
+            Calendar windowBegin, Calendar windowEnd) {
+        ResourceState state = mStates.get(resourceId);
+        if (state != null) {
+            state.mEvents = events;
+            state.mWindowBegin = windowBegin.getTimeInMillis();
+            state.mWindowEnd = windowEnd.getTimeInMillis();
+        }
+    }
+
+    /**
+     * Retry a failed resource at the minimum interval
+     * @param resourceId resource id
+     * @param now time (ms) of the poll
+     */
+    public synchronized void onFailed(String resourceId, long now) {
+        ResourceState state = mStates.get(resourceId);
+        if (state != null) {
+            state.mNextPoll = now + mMinInterval;
+        }
+    }
+
+    /**
+     * A booking was made or deleted from this device: every resource goes back
+     * to the minimum interval, and the booked one is due at once
+     * @param resourceId booked resource id
+     * @param now current time (ms)
+     */
+    public synchronized void onLocalBooking(String resourceId, long now) {
+        for (ResourceState state : mStates.values()) {
+            state.mInterval = mMinInterval;
+            state.mNextPoll = Math.min(state.mNextPoll, now + mMinInterval);
+        }
+        ResourceState state = mStates.get(resourceId);
+        if (state != null) {
+            state.mNextPoll = now;
+        }
+    }
+
+    /**
+     * @param now current time (ms)
+     * @return time (ms) until next resource is due
+     */
+    public synchronized long getDelay(long now) {
+        long next = now + mMinInterval;
+        if (!mStates.isEmpty()) {
+            next = Long.MAX_VALUE;
+            for (ResourceState state : mStates.values()) {
+                next = Math.min(next, state.mNextPoll);
+            }
+        }
+        return Math.max(0, Math.min(next - now, mMaxInterval));
+    }
+
+    /**
+     * @param resourceId resource id
+     * @return current interval (ms) of resource, minimum interval if never polled
+     */
+    public synchronized long getInterval(String resourceId) {
+        ResourceState state = mStates.get(resourceId);
+        return state == null ? mMinInterval : state.mInterval;
+    }
+
+    /**
+     * @return current interval (ms) by resource id
+     */
+    public synchronized Map<String, Long> getIntervals() {
+        Map<String, Long> intervals = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, ResourceState> entry : mStates.entrySet()) {
+            intervals.put(entry.getKey(), entry.getValue().mInterval);
+        }
+        return intervals;
+    }
+
+    /**
+     * Forget resources which are not polled anymore
+     * @param resources current resources
+     */
+    public synchronized void retain(Collection<? extends CalendarResource> resources) {
+        Map<String, ResourceState> states = new HashMap<String, ResourceState>();
+        for (CalendarResource resource : resources) {
+            ResourceState state = mStates.get(resource.getId());
+            if (state != null) {
+                states.put(resource.getId(), state);
+            }
+        }
+        mStates.clear();
+        mStates.putAll(states);
+    }
+
+    /**
+     * @param now time (ms)
+     * @return true if time is inside office hours
+     */
+    private boolean isOfficeHours(long now) {
+        Calendar time = Calendar.getInstance();
+        time.setTimeInMillis(now);
+        int hour = time.get(Calendar.HOUR_OF_DAY);
+        if (mOfficeBegin <= mOfficeEnd) {
+            return hour >= mOfficeBegin && hour < mOfficeEnd;
+        }
+        return hour >= mOfficeBegin || hour < mOfficeEnd;
+    }
+
+    /**
+     * @param events events of a resource
+     * @param now time (ms)
+     * @param interval interval (ms) until next poll
+     * @return true if an event begins or ends before next poll
+     */
+    private boolean isBoundaryNear(List<? extends Event> events, long now, long interval) {
+        long limit = now + interval;
+        for (Event event : events) {
+            long begin = event.getBegin().getTimeInMillis();
+            long end = event.getEnd().getTimeInMillis();
+            if ((begin >= now && begin <= limit) || (end >= now && end <= limit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compare polled events with the last fetched ones, on the part of the 
+     * window common to both, so events entering or leaving a moved window are 
+     * not taken as changes
+     * @param state state of the resource
+     * @param events polled events
+     * @param windowBegin beginning (ms) of the polled window
+     * @param windowEnd end (ms) of the polled window
+     * @return true if events changed
+     */
+    private boolean hasChanged(ResourceState state, List<? extends Event> events, long windowBegin, long windowEnd) {
+        long begin = Math.max(state.mWindowBegin, windowBegin);
+        long end = Math.min(state.mWindowEnd, windowEnd);
+        if (state.mEvents == null || begin >= end) {
+            return true;
+        }
+        return getSignature(state.mEvents, begin, end) != getSignature(events, begin, end);
+    }
+
+    /**
+     * @param events events of a resource
+     * @param begin beginning (ms) of compared part of the window
+     * @param end end (ms) of compared part of the window
+     * @return hash of id, dates and title of events overlapping that part, independent of their order
+     */
+    private int getSignature(List<? extends Event> events, long begin, long end) {
+        int signature = 0;
+        for (Event event : events) {
+            if (event.getEnd().getTimeInMillis() <= begin || event.getBegin().getTimeInMillis() >= end) {
+                continue;
+            }
+            int hash = event.getId() == null ? 0 : event.getId().hashCode();
+            hash = hash * 31 + (int) event.getBegin().getTimeInMillis();
+            hash = hash * 31 + (int) event.getEnd().getTimeInMillis();
+            hash = hash * 31 + (event.getTitle() == null ? 0 : event.getTitle().hashCode());
+            signature += hash + 1;
+        }
+        return signature;
+    }
+}
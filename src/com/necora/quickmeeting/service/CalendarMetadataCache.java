@@ -0,0 +1,220 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import android.util.Log;
+
+import com.necora.quickmeeting.objects.CalendarResource;
+import com.necora.quickmeeting.objects.google.GoogleCalendar;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Cache of complete google calendars (google id, time zone, color...), by calendar link.
+ * Entries older than the TTL are still served, and refreshed in background.
+ * @author vitor
+ */
+class CalendarMetadataCache {
+
+    /** Log tag */
+    private static final String TAG = CalendarMetadataCache.class.getName();
+
+    /** Default time (ms) an entry is fresh */
+    static final long DEFAULT_TTL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Receives calendars refreshed in background, i.e. to persist them
+     */
+    interface RefreshListener {
+        /**
+         * @param calendar refreshed calendar
+         * @param account email of the account the calendar was fetched for
+         * @param updateTime refresh time (ms)
+         */
+        void onCalendarRefreshed(GoogleCalendar calendar, String account, long updateTime);
+    }
+
+    /**
+     * Cached calendar
+     */
+    private static class Entry {
+        /** Complete calendar */
+        final GoogleCalendar mCalendar;
+        /** Time (ms) calendar was fetched */
+        final long mUpdateTime;
+
+        /**
+         * Constructor
+         * @param calendar complete calendar
+         * @param updateTime time (ms) calendar was fetched
+         */
+        Entry(GoogleCalendar calendar, long updateTime) {
+            mCalendar = calendar;
+            mUpdateTime = updateTime;
+        }
+    }
+
+    /** Google connector */
+    private final GoogleCalendarApiConnector mConnector;
+    /** Cached calendars by link */
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<String, Entry>();
+    /** Links being refreshed in background */
+    private final ConcurrentHashMap<String, Boolean> mRefreshing = new ConcurrentHashMap<String, Boolean>();
+    /** Background refresh thread */
+    private final ExecutorService mRefresher;
+    /** Time (ms) an entry is fresh */
+    private volatile long mTtl = DEFAULT_TTL;
+    /** Listener of background refreshes */
+    private volatile RefreshListener mListener;
+
+    /**
+     * Constructor
+     * @param connector google connector
+     */
+    CalendarMetadataCache(GoogleCalendarApiConnector connector) {
+        mConnector = connector;
+        mRefresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CalendarMetadataRefresher");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param ttl time (ms) an entry is fresh
+     */
+    void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    /**
+     * @param listener listener of background refreshes
+     */
+    void setRefreshListener(RefreshListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Store a complete calendar
+     * @param calendar complete calendar, with google id
+     * @param updateTime time (ms) calendar was fetched
+     */
+    void put(GoogleCalendar calendar, long updateTime) {
+        Entry current = mEntries.get(calendar.getSelfLink());
+        if (current == null || current.mUpdateTime <= updateTime) {
+            mEntries.put(calendar.getSelfLink(), new Entry(calendar, updateTime));
+        }
+    }
+
+    /**
+     * Get a cached calendar. A stale calendar is returned, and refreshed in background
+     * @param link calendar link
+     * @param account email of the account which owns the calendar
+     * @return complete calendar, or null if it is not cached
+     */
+    GoogleCalendar get(String link, String account) {
+        Entry entry = mEntries.get(link);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.mUpdateTime > mTtl) {
+            refreshInBackground(link, account);
+        }
+        return entry.mCalendar;
+    }
+
+    /**
+     * Get a calendar, from cache or from google if it is not cached
+     * @param link calendar link
+     * @param account email of the account which owns the calendar
+     * @return complete calendar, or null if google cannot be reached
+     */
+    GoogleCalendar getOrFetch(String link, String account) {
+        GoogleCalendar calendar = get(link, account);
+        if (calendar == null) {
+            Log.d(TAG, "Calendar metadata not cached: " + link);
+            calendar = fetch(link, account);
+        }
+        return calendar;
+    }
+
+    /**
+     * Forget all calendars
+     */
+    void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Refresh a calendar in background, unless it is already being refreshed
+     * @param link calendar link
+     * @param account email of the account which owns the calendar
+     */
+    private void refreshInBackground(final String link, final String account) {
+        if (mRefreshing.putIfAbsent(link, Boolean.TRUE) != null) {
+            return;
+        }
+        mRefresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(link, account);
+                } finally {
+                    mRefreshing.remove(link);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get a calendar from google and store it
+     * @param link calendar link
+     * @param account email of the account which owns the calendar, its token is used
+     * @return complete calendar, or null if google cannot be reached
+     */
+    private GoogleCalendar fetch(String link, String account) {
+        long updateTime = System.currentTimeMillis();
+        CalendarResource resource;
+        String previous = AccountScope.enter(account);
+        try {
+            resource = mConnector.getCalendarByLink(link);
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot get calendar metadata of " + link + ": " + e);
+            return null;
+        } finally {
+            AccountScope.exit(previous);
+        }
+        if (!(resource instanceof GoogleCalendar) || resource.getId() == null) {
+            return null;
+        }
+        GoogleCalendar calendar = (GoogleCalendar) resource;
+        put(calendar, updateTime);
+        RefreshListener listener = mListener;
+        if (listener != null) {
+            listener.onCalendarRefreshed(calendar, account, updateTime);
+        }
+        return calendar;
+    }
+}
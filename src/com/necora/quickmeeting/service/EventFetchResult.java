@@ -0,0 +1,101 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import com.necora.quickmeeting.objects.Event;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of fetching events of several resources. Resources whose fetch failed
+ * are reported apart, so one failing room does not hide the others
+ * @author vitor
+ */
+public class EventFetchResult {
+
+    /** Events by resource id */
+    private final Map<String, List<? extends Event>> mEvents = new HashMap<String, List<? extends Event>>();
+    /** Failures by resource id */
+    private final Map<String, Exception> mFailures = new HashMap<String, Exception>();
+    /** Time (ms) spent fetching all resources */
+    private long mElapsedTime;
+
+    /**
+     * Store events of a resource
+     * @param resourceId id of resource
+     * @param events events of resource
+     */
+    void putEvents(String resourceId, List<? extends Event> events) {
+        mEvents.put(resourceId, events);
+    }
+
+    /**
+     * Store the failure of a resource
+     * @param resourceId id of resource
+     * @param failure cause of failure
+     */
+    void putFailure(String resourceId, Exception failure) {
+        mFailures.put(resourceId, failure);
+    }
+
+    /**
+     * @param elapsedTime time (ms) spent fetching all resources
+     */
+    void setElapsedTime(long elapsedTime) {
+        mElapsedTime = elapsedTime;
+    }
+
+    /**
+     * Get events of a resource
+     * @param resourceId id of resource
+     * @return events of resource, or null if fetch failed
+     */
+    public List<? extends Event> getEvents(String resourceId) {
+        return mEvents.get(resourceId);
+    }
+
+    /**
+     * @return events by resource id of all succeeded resources
+     */
+    public Map<String, List<? extends Event>> getAllEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @return failures by resource id
+     */
+    public Map<String, Exception> getFailures() {
+        return mFailures;
+    }
+
+    /**
+     * @return true if every resource was fetched
+     */
+    public boolean isComplete() {
+        return mFailures.isEmpty();
+    }
+
+    /**
+     * @return time (ms) spent fetching all resources
+     */
+    public long getElapsedTime() {
+        return mElapsedTime;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.necora.quickmeeting.contentprovider.EventColumns;
+import com.necora.quickmeeting.contentprovider.QuickMeetingContentProvider;
+import com.necora.quickmeeting.objects.CalendarResource;
+import com.necora.quickmeeting.objects.Event;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Last known events of each resource, stored in database so the grid can be
+ * drawn before google answers (i.e. after a reboot). Writes are done in a 
+ * background thread. Events ended before the retention time are removed.
+ * @author vitor
+ */
+class EventStore {
+
+    /** Log tag */
+    private static final String TAG = EventStore.class.getName();
+
+    /** Events ended more than this time (ms) ago are removed */
+    static final long RETENTION = 24 * 60 * 60 * 1000L;
+
+    /** Minimum time (ms) between compactions */
+    private static final long COMPACTION_INTERVAL = 60 * 60 * 1000L;
+
+    /** QuickMeeting Provider object */
+    private final ContentResolver mProvider;
+    /** Background writer thread. A single thread keeps writes in order */
+    private final ExecutorService mWriter;
+    /** Time (ms) of last compaction */
+    private long mLastCompaction;
+
+    /**
+     * Constructor
+     * @param provider content resolver
+     */
+    EventStore(ContentResolver provider) {
+        mProvider = provider;
+        mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "EventStoreWriter");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Load stored events of several resources
+     * @param resources resources to load
+     * @param begin Calendar begin
+     * @param end Calendar end
+     * @return stored events overlapping (begin, end) by resource id. Resources 
+     * without stored events are not included
+     */
+    Map<String, List<Event>> load(Collection<? extends CalendarResource> resources, Calendar begin, Calendar end) {
+        Map<String, List<Event>> events = new HashMap<String, List<Event>>();
+        if (resources.isEmpty()) {
+            return events;
+        }
+
+        StringBuilder where = new StringBuilder();
+        String[] whereArgs = new String[resources.size() + 2];
+        where.append(EventColumns.BEGIN).append("<? and ").append(EventColumns.END).append(">? and ");
+        where.append(EventColumns.RESOURCE_ID).append(" in (");
+        whereArgs[0] = Long.toString(end.getTimeInMillis());
+        whereArgs[1] = Long.toString(begin.getTimeInMillis());
+        int arg = 2;
+        for (CalendarResource resource : resources) {
+            where.append(arg > 2 ? ",?" : "?");
+            whereArgs[arg++] = resource.getId();
+        }
+        where.append(")");
+
+        String[] projection = new String[] {
+                EventColumns.RESOURCE_ID,
+                EventColumns.EVENT_ID,
+                EventColumns.TITLE,
+                EventColumns.DETAILS,
+                EventColumns.BEGIN,
+                EventColumns.END
+        };
+        Cursor cursor = mProvider.query(EventColumns.CONTENT_URI, projection, where.toString(), whereArgs, 
+                EventColumns.BEGIN + " ASC");
+        try {
+            if (cursor.moveToFirst()) {
+                int resourceIdColumn = cursor.getColumnIndex(EventColumns.RESOURCE_ID);
+                int eventIdColumn = cursor.getColumnIndex(EventColumns.EVENT_ID);
+                int titleColumn = cursor.getColumnIndex(EventColumns.TITLE);
+                int detailsColumn = cursor.getColumnIndex(EventColumns.DETAILS);
+                int beginColumn = cursor.getColumnIndex(EventColumns.BEGIN);
+                int endColumn = cursor.getColumnIndex(EventColumns.END);
+                do {
+                    String resourceId = cursor.getString(resourceIdColumn);
+                    Event event = new Event(cursor.getString(eventIdColumn));
+                    event.setTitle(cursor.getString(titleColumn));
+                    event.setDetails(cursor.getString(detailsColumn));
+                    Calendar evBegin = new GregorianCalendar();
+                    evBegin.setTimeInMillis(cursor.getLong(beginColumn));
+                    event.setBegin(evBegin);
+                    Calendar evEnd = new GregorianCalendar();
+                    evEnd.setTimeInMillis(cursor.getLong(endColumn));
+                    event.setEnd(evEnd);
+
+                    List<Event> resourceEvents = events.get(resourceId);
+                    if (resourceEvents == null) {
+                        resourceEvents = new ArrayList<Event>();
+                        events.put(resourceId, resourceEvents);
+                    }
+                    resourceEvents.add(event);
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+        return events;
+    }
+
+    /**
+     * Replace stored events of the resources of a fetch, in background. Failed 
+     * resources keep their stored events. The whole fetch is written in a single 
+     * batch, so a window is never seen half replaced
+     * @param result fetched events
+     * @param begin Calendar begin of fetched window
+     * @param end Calendar end of fetched window
+     */
+    void storeAsync(final EventFetchResult result, Calendar begin, Calendar end) {
+        final long windowBegin = begin.getTimeInMillis();
+        final long windowEnd = end.getTimeInMillis();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long now = System.currentTimeMillis();
+                    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+                    for (Map.Entry<String, List<? extends Event>> entry : result.getAllEvents().entrySet()) {
+                        addStoreOperations(operations, entry.getKey(), entry.getValue(), windowBegin, windowEnd, now);
+                    }
+                    if (!operations.isEmpty()) {
+                        mProvider.applyBatch(QuickMeetingContentProvider.AUTHORITY, operations);
+                    }
+                    compact(now);
+                } catch (Exception e) {
+                    Log.e(TAG, "Cannot store events: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove a stored event, in background
+     * @param eventId google id of event
+     */
+    void removeAsync(final String eventId) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mProvider.delete(EventColumns.CONTENT_URI, EventColumns.EVENT_ID + "=?", new String[]{eventId});
+                } catch (Exception e) {
+                    Log.e(TAG, "Cannot remove stored event: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Add the operations that replace stored events of a resource in a window
+     * @param operations list to fill
+     * @param resourceId resource id
+     * @param events events of resource in window
+     * @param windowBegin begin (ms) of window
+     * @param windowEnd end (ms) of window
+     * @param now current time (ms)
+     */
+    private void addStoreOperations(List<ContentProviderOperation> operations, String resourceId, 
+            List<? extends Event> events, long windowBegin, long windowEnd, long now) {
+        operations.add(ContentProviderOperation.newDelete(EventColumns.CONTENT_URI)
+                .withSelection(EventColumns.RESOURCE_ID + "=? and " + EventColumns.BEGIN + "<? and " + EventColumns.END + ">?", 
+                        new String[]{resourceId, Long.toString(windowEnd), Long.toString(windowBegin)})
+                .build());
+
+        for (Event event : events) {
+            if (event.getId() == null) {
+                //Busy intervals are not stored, they have no event data
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            values.put(EventColumns.RESOURCE_ID, resourceId);
+            values.put(EventColumns.EVENT_ID, event.getId());
+            values.put(EventColumns.TITLE, event.getTitle());
+            values.put(EventColumns.DETAILS, event.getDetails());
+            values.put(EventColumns.BEGIN, event.getBegin().getTimeInMillis());
+            values.put(EventColumns.END, event.getEnd().getTimeInMillis());
+            values.put(EventColumns.UPDATED, now);
+            operations.add(ContentProviderOperation.newInsert(EventColumns.CONTENT_URI).withValues(values).build());
+        }
+    }
+
+    /**
+     * Remove events ended before retention time, at most once per compaction interval
+     * @param now current time (ms)
+     */
+    private void compact(long now) {
+        if (now - mLastCompaction < COMPACTION_INTERVAL) {
+            return;
+        }
+        mLastCompaction = now;
+        int count = mProvider.delete(EventColumns.CONTENT_URI, EventColumns.END + "<?", 
+                new String[]{Long.toString(now - RETENTION)});
+        Log.d(TAG, "Compaction removed " + count + " old events");
+    }
+}
@@ -0,0 +1,546 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import android.util.Log;
+
+import com.necora.quickmeeting.objects.CalendarResource;
+import com.necora.quickmeeting.objects.User;
+import com.necora.quickmeeting.objects.google.GoogleEvent;
+
+import org.apache.http.HttpException;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of events, by resource and fixed time tiles. A window is 
+ * assembled from its tiles, and only missing tiles are downloaded (consecutive
+ * missing tiles in a single request). Tiles older than the TTL are revalidated
+ * with the events changed since last synchronization of the resource 
+ * (updated-min), or downloaded again if revalidation is disabled.
+ * Least recently used tiles are dropped when the memory budget is exceeded.
+ * @author vitor
+ */
+class EventTileCache {
+
+    /** Log tag */
+    private static final String TAG = EventTileCache.class.getName();
+
+    /** Duration (ms) of a tile */
+    static final long TILE_DURATION = 60 * 60 * 1000L;
+    /** Default time (ms) a tile is fresh */
+    static final long DEFAULT_TTL = 60 * 1000L;
+    /** Default memory budget (bytes) of cached tiles */
+    static final long DEFAULT_MEMORY_BUDGET = 512 * 1024L;
+    /** Tiles of a resource not revalidated for this time (ms) are dropped instead */
+    static final long MAX_DELTA_AGE = 6 * 60 * 60 * 1000L;
+
+    /** Margin (ms) for clock differences between device and google servers */
+    private static final long CLOCK_SKEW_MARGIN = 2 * 60 * 1000L;
+    /** A delta with this many changes may be truncated, so tiles are dropped instead */
+    private static final int MAX_DELTA_RESULTS = 250;
+    /** Estimated size (bytes) of an empty tile */
+    private static final int TILE_BASE_SIZE = 128;
+    /** Estimated size (bytes) of an event without its strings */
+    private static final int EVENT_BASE_SIZE = 256;
+    /** Estimated size (bytes) of an attendee without its strings */
+    private static final int USER_BASE_SIZE = 64;
+
+    /**
+     * Key of a tile
+     */
+    private static class TileKey {
+        /** Resource id */
+        final String mResourceId;
+        /** Tile index, from epoch */
+        final long mIndex;
+
+        /**
+         * Constructor
+         * @param resourceId resource id
+         * @param index tile index
+         */
+        TileKey(String resourceId, long index) {
+            mResourceId = resourceId;
+            mIndex = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return mIndex == other.mIndex && mResourceId.equals(other.mResourceId);
+        }
+
+        @Override
+        public int hashCode() {
+            return mResourceId.hashCode() * 31 + (int) (mIndex ^ (mIndex >>> 32));
+        }
+    }
+
+    /**
+     * Events of a resource overlapping a tile
+     */
+    private static class Tile {
+        /** Events by id */
+        final Map<String, GoogleEvent> mEvents = new HashMap<String, GoogleEvent>();
+        /** Time (ms) tile was downloaded or revalidated */
+        long mFetchTime;
+        /** Estimated size (bytes) */
+        long mSize;
+
+        /**
+         * Constructor
+         * @param fetchTime time (ms) tile was downloaded
+         */
+        Tile(long fetchTime) {
+            mFetchTime = fetchTime;
+            mSize = TILE_BASE_SIZE;
+        }
+
+        /**
+         * Add or replace an event
+         * @param event event
+         */
+        void put(GoogleEvent event) {
+            remove(event.getId());
+            mEvents.put(event.getId(), event);
+            mSize += estimateSize(event);
+        }
+
+        /**
+         * Remove an event
+         * @param id event id
+         */
+        void remove(String id) {
+            GoogleEvent old = mEvents.remove(id);
+            if (old != null) {
+                mSize -= estimateSize(old);
+            }
+        }
+    }
+
+    /**
+     * Synchronization state of a resource
+     */
+    private static class ResourceState {
+        /** Cached tiles of resource are up to date with changes before this time (ms) */
+        long mLastSync;
+    }
+
+    /** Google connector */
+    private final GoogleCalendarApiConnector mConnector;
+    /** Cached tiles, in access order */
+    private final LinkedHashMap<TileKey, Tile> mTiles = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true);
+    /** Estimated size (bytes) of cached tiles */
+    private long mMemoryUsed;
+    /** State of each resource. Also used to serialize requests of a resource */
+    private final ConcurrentHashMap<String, ResourceState> mStates = new ConcurrentHashMap<String, ResourceState>();
+
+    /** Time (ms) a tile is fresh */
+    private volatile long mTtl = DEFAULT_TTL;
+    /** Memory budget (bytes) of cached tiles */
+    private volatile long mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** If true, stale tiles are revalidated with changed events instead of downloaded again */
+    private volatile boolean mDeltaRevalidation = true;
+
+    /** Tiles served from cache */
+    private final AtomicLong mTileHits = new AtomicLong();
+    /** Tiles downloaded */
+    private final AtomicLong mTileFetches = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param connector google connector
+     */
+    EventTileCache(GoogleCalendarApiConnector connector) {
+        mConnector = connector;
+    }
+
+    /**
+     * @param ttl time (ms) a tile is fresh
+     */
+    void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    /**
+     * @param memoryBudget memory budget (bytes) of cached tiles
+     */
+    void setMemoryBudget(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+        synchronized (mTiles) {
+            evict();
+        }
+    }
+
+    /**
+     * @param deltaRevalidation true to revalidate stale tiles with changed events, 
+     * false to download them again
+     */
+    void setDeltaRevalidation(boolean deltaRevalidation) {
+        mDeltaRevalidation = deltaRevalidation;
+    }
+
+    /**
+     * Get events of a resource in a window, from cached tiles and downloading missing ones
+     * @param calendar resource
+     * @param begin Calendar begin
+     * @param end Calendar end
+     * @return events of resource overlapping (begin, end)
+     * @throws IOException in case of connection problems
+     * @throws HttpException if google rejects the request
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates in response
+     */
+    List<GoogleEvent> getEvents(CalendarResource calendar, Calendar begin, Calendar end) 
+            throws IOException, HttpException, JSONException, ParseException {
+        String resourceId = calendar.getId();
+        long windowBegin = begin.getTimeInMillis();
+        long windowEnd = end.getTimeInMillis();
+        long firstTile = tileIndex(windowBegin);
+        long lastTile = Math.max(firstTile, tileIndex(windowEnd - 1));
+
+        ResourceState state = getState(resourceId);
+        synchronized (state) {
+            long now = System.currentTimeMillis();
+            if (mDeltaRevalidation) {
+                revalidate(calendar, state, now);
+            }
+
+            //Tiles of this request are kept here, so evictions do not affect it
+            Map<Long, Tile> tiles = new HashMap<Long, Tile>();
+            List<Long> missing = new ArrayList<Long>();
+            synchronized (mTiles) {
+                for (long index = firstTile; index <= lastTile; index++) {
+                    Tile tile = mTiles.get(new TileKey(resourceId, index));
+                    if (tile != null && (mDeltaRevalidation || now - tile.mFetchTime <= mTtl)) {
+                        tiles.put(index, tile);
+                    } else {
+                        missing.add(index);
+                    }
+                }
+            }
+            mTileHits.addAndGet(tiles.size());
+
+            //Consecutive missing tiles are downloaded together
+            int runStart = 0;
+            for (int i = 1; i <= missing.size(); i++) {
+                if (i == missing.size() || missing.get(i) != missing.get(i - 1) + 1) {
+                    fetchTiles(calendar, state, missing.get(runStart), missing.get(i - 1), tiles, now);
+                    runStart = i;
+                }
+            }
+
+            Map<String, GoogleEvent> events = new LinkedHashMap<String, GoogleEvent>();
+            synchronized (mTiles) {
+                for (long index = firstTile; index <= lastTile; index++) {
+                    for (GoogleEvent event : tiles.get(index).mEvents.values()) {
+                        if (overlaps(event, windowBegin, windowEnd)) {
+                            events.put(event.getId(), event);
+                        }
+                    }
+                }
+            }
+            Log.d(TAG, calendar.getTitle() + ": " + (lastTile - firstTile + 1 - missing.size()) + " cached tiles, " 
+                    + missing.size() + " downloaded " + getStats());
+            return new ArrayList<GoogleEvent>(events.values());
+        }
+    }
+
+    /**
+     * Drop cached tiles of a resource overlapping an interval, i.e. after creating an event
+     * @param resourceId resource id
+     * @param begin Calendar begin
+     * @param end Calendar end
+     */
+    void invalidate(String resourceId, Calendar begin, Calendar end) {
+        long firstTile = tileIndex(begin.getTimeInMillis());
+        long lastTile = Math.max(firstTile, tileIndex(end.getTimeInMillis() - 1));
+        synchronized (mTiles) {
+            for (long index = firstTile; index <= lastTile; index++) {
+                Tile tile = mTiles.remove(new TileKey(resourceId, index));
+                if (tile != null) {
+                    mMemoryUsed -= tile.mSize;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop cached tiles containing an event, i.e. after deleting it
+     * @param eventId event id
+     */
+    void invalidateEvent(String eventId) {
+        synchronized (mTiles) {
+            Iterator<Tile> it = mTiles.values().iterator();
+            while (it.hasNext()) {
+                Tile tile = it.next();
+                if (tile.mEvents.containsKey(eventId)) {
+                    mMemoryUsed -= tile.mSize;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all cached tiles
+     */
+    void clear() {
+        synchronized (mTiles) {
+            mTiles.clear();
+            mMemoryUsed = 0;
+        }
+    }
+
+    /**
+     * @return cache counters, for logging
+     */
+    String getStats() {
+        synchronized (mTiles) {
+            return "[TILE CACHE] {TILES = " + mTiles.size() + "; MEMORY = " + mMemoryUsed + "/" + mMemoryBudget 
+                    + "; HITS = " + mTileHits.get() + "; FETCHES = " + mTileFetches.get() + "; }";
+        }
+    }
+
+    /**
+     * Get state of a resource, creating it if needed
+     * @param resourceId resource id
+     * @return resource state
+     */
+    private ResourceState getState(String resourceId) {
+        ResourceState state = mStates.get(resourceId);
+        if (state == null) {
+            ResourceState newState = new ResourceState();
+            state = mStates.putIfAbsent(resourceId, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Merge events changed since last synchronization into cached tiles of a resource,
+     * if they are stale. Tiles are dropped if changes cannot be merged
+     * @param calendar resource
+     * @param state resource state
+     * @param now request time (ms)
+     * @throws IOException in case of connection problems
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates in response
+     */
+    private void revalidate(CalendarResource calendar, ResourceState state, long now) 
+            throws IOException, JSONException, ParseException {
+        if (state.mLastSync == 0 || now - state.mLastSync <= mTtl) {
+            return;
+        }
+        if (now - state.mLastSync > MAX_DELTA_AGE) {
+            dropResource(calendar.getId(), state);
+            return;
+        }
+
+        Calendar updatedMin = Calendar.getInstance();
+        updatedMin.setTimeInMillis(state.mLastSync);
+        final List<GoogleEvent> changes = new ArrayList<GoogleEvent>();
+        try {
+            mConnector.getUpdatedEvents(calendar, updatedMin, MAX_DELTA_RESULTS, new GoogleEventStreamParser.EventListener() {
+                @Override
+                public void onEvent(GoogleEvent event) {
+                    changes.add(event);
+                }
+            });
+        } catch (HttpException e) {
+            //i.e. updated-min rejected by google
+            Log.w(TAG, "Delta rejected, tiles of " + calendar.getTitle() + " are dropped: " + e.getMessage());
+            dropResource(calendar.getId(), state);
+            return;
+        }
+        if (changes.size() >= MAX_DELTA_RESULTS) {
+            Log.d(TAG, "Delta of " + calendar.getTitle() + " may be truncated, tiles are dropped");
+            dropResource(calendar.getId(), state);
+            return;
+        }
+
+        synchronized (mTiles) {
+            for (Map.Entry<TileKey, Tile> entry : mTiles.entrySet()) {
+                if (!entry.getKey().mResourceId.equals(calendar.getId())) {
+                    continue;
+                }
+                Tile tile = entry.getValue();
+                long tileBegin = entry.getKey().mIndex * TILE_DURATION;
+                mMemoryUsed -= tile.mSize;
+                for (GoogleEvent event : changes) {
+                    //Deleted, or moved to another time
+                    tile.remove(event.getId());
+                    if (!event.isCanceled() && overlaps(event, tileBegin, tileBegin + TILE_DURATION)) {
+                        tile.put(event);
+                    }
+                }
+                tile.mFetchTime = now;
+                mMemoryUsed += tile.mSize;
+            }
+            evict();
+        }
+        state.mLastSync = now - CLOCK_SKEW_MARGIN;
+        Log.d(TAG, "Delta of " + calendar.getTitle() + ": " + changes.size() + " changes");
+    }
+
+    /**
+     * Download a run of consecutive tiles with a single request
+     * @param calendar resource
+     * @param state resource state
+     * @param firstTile index of first tile
+     * @param lastTile index of last tile
+     * @param tiles tiles of current request, downloaded tiles are added
+     * @param now request time (ms)
+     * @throws IOException in case of connection problems
+     * @throws HttpException if google rejects the request
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates in response
+     */
+    private void fetchTiles(CalendarResource calendar, ResourceState state, long firstTile, long lastTile, 
+            Map<Long, Tile> tiles, long now) throws IOException, HttpException, JSONException, ParseException {
+        Calendar runBegin = Calendar.getInstance();
+        runBegin.setTimeInMillis(firstTile * TILE_DURATION);
+        Calendar runEnd = Calendar.getInstance();
+        runEnd.setTimeInMillis((lastTile + 1) * TILE_DURATION);
+
+        List<GoogleEvent> events = mConnector.getEvents(calendar, runBegin, runEnd);
+        mTileFetches.addAndGet(lastTile - firstTile + 1);
+
+        Map<Long, Tile> fetched = new HashMap<Long, Tile>();
+        for (long index = firstTile; index <= lastTile; index++) {
+            fetched.put(index, new Tile(now));
+        }
+        for (GoogleEvent event : events) {
+            if (event.getBegin() == null || event.getEnd() == null) {
+                continue;
+            }
+            long eventFirstTile = tileIndex(event.getBegin().getTimeInMillis());
+            long eventLastTile = Math.max(eventFirstTile, tileIndex(event.getEnd().getTimeInMillis() - 1));
+            for (long index = Math.max(firstTile, eventFirstTile); index <= Math.min(lastTile, eventLastTile); index++) {
+                fetched.get(index).put(event);
+            }
+        }
+
+        synchronized (mTiles) {
+            for (Map.Entry<Long, Tile> entry : fetched.entrySet()) {
+                Tile old = mTiles.put(new TileKey(calendar.getId(), entry.getKey()), entry.getValue());
+                if (old != null) {
+                    mMemoryUsed -= old.mSize;
+                }
+                mMemoryUsed += entry.getValue().mSize;
+            }
+            evict();
+        }
+        tiles.putAll(fetched);
+        if (state.mLastSync == 0) {
+            state.mLastSync = now - CLOCK_SKEW_MARGIN;
+        }
+    }
+
+    /**
+     * Drop all cached tiles of a resource, and its synchronization time
+     * @param resourceId resource id
+     * @param state resource state
+     */
+    private void dropResource(String resourceId, ResourceState state) {
+        synchronized (mTiles) {
+            Iterator<Map.Entry<TileKey, Tile>> it = mTiles.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<TileKey, Tile> entry = it.next();
+                if (entry.getKey().mResourceId.equals(resourceId)) {
+                    mMemoryUsed -= entry.getValue().mSize;
+                    it.remove();
+                }
+            }
+        }
+        state.mLastSync = 0;
+    }
+
+    /**
+     * Drop least recently used tiles until memory budget is met. Must hold mTiles lock
+     */
+    private void evict() {
+        Iterator<Tile> it = mTiles.values().iterator();
+        while (mMemoryUsed > mMemoryBudget && it.hasNext()) {
+            mMemoryUsed -= it.next().mSize;
+            it.remove();
+        }
+    }
+
+    /**
+     * @param time epoch millis
+     * @return index of tile containing time
+     */
+    private static long tileIndex(long time) {
+        long index = time / TILE_DURATION;
+        return (time % TILE_DURATION < 0) ? index - 1 : index;
+    }
+
+    /**
+     * Check if an event overlaps an interval
+     * @param event event
+     * @param begin begin (ms) of interval
+     * @param end end (ms) of interval
+     * @return true if event overlaps (begin, end)
+     */
+    private static boolean overlaps(GoogleEvent event, long begin, long end) {
+        return event.getBegin() != null && event.getEnd() != null
+                && event.getBegin().getTimeInMillis() < end 
+                && event.getEnd().getTimeInMillis() > begin;
+    }
+
+    /**
+     * Estimate memory used by an event
+     * @param event event
+     * @return estimated size (bytes)
+     */
+    private static long estimateSize(GoogleEvent event) {
+        long size = EVENT_BASE_SIZE + 2 * (length(event.getId()) + length(event.getTitle()) 
+                + length(event.getDetails()) + length(event.getLocation()) 
+                + length(event.getSelfLink()) + length(event.getAlternateLink()));
+        for (User attendee : event.getAttendees()) {
+            size += USER_BASE_SIZE + 2 * (length(attendee.getName()) + length(attendee.getEmail()));
+        }
+        return size;
+    }
+
+    /**
+     * @param s string
+     * @return length of string, 0 if null
+     */
+    private static int length(String s) {
+        return s != null ? s.length() : 0;
+    }
+}
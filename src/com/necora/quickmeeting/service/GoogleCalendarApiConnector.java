@@ -21,11 +21,14 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
+import com.necora.quickmeeting.objects.BusyEvent;
 import com.necora.quickmeeting.objects.CalendarResource;
 import com.necora.quickmeeting.objects.User;
 import com.necora.quickmeeting.objects.google.GoogleCalendar;
 import com.necora.quickmeeting.objects.google.GoogleEvent;
+import com.necora.quickmeeting.util.CacheValidator;
 import com.necora.quickmeeting.util.ConnectionUtils;
+import com.necora.quickmeeting.util.Rfc3339;
 
 import org.apache.http.HttpException;
 import org.apache.http.client.ClientProtocolException;
@@ -36,14 +39,20 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * GoogleApiConnector implements the connection between Google Api
@@ -60,22 +69,79 @@ public class GoogleCalendarApiConnector {
     /** Singleton instance*/
     private static GoogleCalendarApiConnector _instance;
     
+    /** Maximum number of calendars of a free/busy query */
+    public static final int MAX_FREE_BUSY_CALENDARS = 50;
+    
+    /** Response codes of a delete request */
+    private static final int HTTP_OK         = 200;
+    private static final int HTTP_NO_CONTENT = 204;
+    private static final int HTTP_NOT_FOUND  = 404;
+    private static final int HTTP_GONE       = 410;
+    
+    /** Path of event feed links before calendar id */
+    private static final String FEEDS_PATH = "/calendar/feeds/";
+    
+    /** Maximum number of feeds whose last response is kept for revalidation */
+    private static final int MAX_CACHED_FEEDS = 64;
+    
     /** userManager instance*/
     private UserManager mSessionManager;
     
-    /** DateTime formatter for interval events */
-    private SimpleDateFormat mDateTimeFormatter;
-    /** Date formatter for complete-day events */
-    private SimpleDateFormat mDateFormatter;
+    /** Last response of each feed url, with its validators. Least recently used feeds are dropped */
+    private Map<String, CachedFeed<?>> mFeedCache;
+    /** Requests answered with "304 Not Modified" */
+    private AtomicLong mCacheHits = new AtomicLong();
+    /** Requests which downloaded and parsed the whole feed */
+    private AtomicLong mCacheMisses = new AtomicLong();
     
     /**
-     * Constructor. Get userManager instance and initialize formatters
+     * Parsed content of a feed and the validators of the response it came from.
+     * Entries are never modified, a new one replaces the old one
+     * @param <T> type of parsed content
+     */
+    private static class CachedFeed<T> {
+        /** ETag of the response */
+        final String mETag;
+        /** Last-Modified date of the response */
+        final String mLastModified;
+        /** Parsed content */
+        final List<T> mItems;
+        
+        /**
+         * Constructor
+         * @param validator validators of the response
+         * @param items parsed content
+         */
+        CachedFeed(CacheValidator validator, List<T> items) {
+            mETag = validator.getETag();
+            mLastModified = validator.getLastModified();
+            mItems = Collections.unmodifiableList(items);
+        }
+        
+        /**
+         * @return validators to revalidate this content
+         */
+        CacheValidator newValidator() {
+            CacheValidator validator = new CacheValidator();
+            validator.update(mETag, mLastModified);
+            return validator;
+        }
+    }
+    
+    /**
+     * Constructor. Get userManager instance and initialize feed cache
      * @param context application context
      */
     private GoogleCalendarApiConnector(Context context) {
         mSessionManager = UserManager.getInstance(context);
-        mDateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-        mDateFormatter = new SimpleDateFormat("yyyy-MM-dd");
+        mFeedCache = Collections.synchronizedMap(new LinkedHashMap<String, CachedFeed<?>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedFeed<?>> eldest) {
+                return size() > MAX_CACHED_FEEDS;
+            }
+        });
     }
 
     /**
@@ -91,6 +157,48 @@ public class GoogleCalendarApiConnector {
         return _instance;
     }
     
+    /**
+     * Key of a feed in cache. It includes the user because same feed may have 
+     * different content for each account
+     * @param url feed url
+     * @return cache key
+     */
+    private String getFeedCacheKey(String url) {
+        return mSessionManager.getActiveUserEmail() + " " + url;
+    }
+    
+    /**
+     * Get cached feed
+     * @param key cache key
+     * @return cached feed, or null if feed was never parsed
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CachedFeed<T> getCachedFeed(String key) {
+        return (CachedFeed<T>) mFeedCache.get(key);
+    }
+    
+    /**
+     * Forget all cached feeds. Next requests will download whole feeds
+     */
+    public void clearFeedCache() {
+        mFeedCache.clear();
+    }
+    
+    /**
+     * @return number of requests answered by google with "304 Not Modified", 
+     * served from last parsed response
+     */
+    public long getCacheHits() {
+        return mCacheHits.get();
+    }
+    
+    /**
+     * @return number of requests which downloaded and parsed the whole feed
+     */
+    public long getCacheMisses() {
+        return mCacheMisses.get();
+    }
+    
     /**
      * Get all available calendars of active user
      * @return googlecalendar list
@@ -101,9 +209,20 @@ public class GoogleCalendarApiConnector {
         String[] paramsKey =  {"Authorization"};
         String[] paramsValue = {"Bearer " + mSessionManager.getActiveUserAccessToken()};
         
+        String cacheKey = getFeedCacheKey(GoogleConstants.URL_ALL_CALENDARS);
+        CachedFeed<GoogleCalendar> cachedFeed = getCachedFeed(cacheKey);
+        //Validators are only sent if there is a parsed response to fall back on
+        CacheValidator validator = cachedFeed != null ? cachedFeed.newValidator() : new CacheValidator();
+        
         String googleResponse = null;
         try {
-            googleResponse = ConnectionUtils.getHttpsGetConnection(GoogleConstants.URL_ALL_CALENDARS, paramsKey, paramsValue);
+            googleResponse = ConnectionUtils.getHttpsConditionalGetConnection(GoogleConstants.URL_ALL_CALENDARS, paramsKey, paramsValue, validator);
+            if (googleResponse == null) {
+                mCacheHits.incrementAndGet();
+                Log.d(TAG, "Calendars not modified " + getCacheStats());
+                return new ArrayList<GoogleCalendar>(cachedFeed.mItems);
+            }
+            mCacheMisses.incrementAndGet();
         } catch (IllegalStateException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -139,6 +258,7 @@ public class GoogleCalendarApiConnector {
                 cal.setTitle(jsonCalendar.getString(GoogleCalendar.FIELD_TITLE));
                 calendarsList.add(cal);               
             }
+            mFeedCache.put(cacheKey, new CachedFeed<GoogleCalendar>(validator, new ArrayList<GoogleCalendar>(calendarsList)));
             
         } catch (JSONException e) {
             // TODO Auto-generated catch block
@@ -204,11 +324,40 @@ public class GoogleCalendarApiConnector {
      * @param begin Begin date
      * @param end End date
      * @return list of events from calendar between begin and end dates
+     * @throws IOException in case of connection problems
+     * @throws HttpException if google rejects the request
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates in response
      */
-    public List<GoogleEvent> getEvents (CalendarResource calendar, Calendar begin, Calendar end) {
-        ArrayList<GoogleEvent> events = new ArrayList<GoogleEvent>();
+    public List<GoogleEvent> getEvents (CalendarResource calendar, Calendar begin, Calendar end) 
+            throws IOException, HttpException, JSONException, ParseException {
+        final ArrayList<GoogleEvent> events = new ArrayList<GoogleEvent>();
+        
+        getEvents(calendar, begin, end, new GoogleEventStreamParser.EventListener() {
+            @Override
+            public void onEvent(GoogleEvent event) {
+                events.add(event);
+            }
+        });
+        
+        return events;
+    }
+    
+    /**
+     * Get events from googleCalendar. Events are parsed straight from the response
+     * stream and handed to the listener one at a time
+     * @param calendar calendar which contains events
+     * @param begin Begin date
+     * @param end End date
+     * @param listener receives each event of calendar between begin and end dates
+     * @throws IOException in case of connection problems
+     * @throws HttpException if google rejects the request
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates in response
+     */
+    public void getEvents (CalendarResource calendar, Calendar begin, Calendar end, GoogleEventStreamParser.EventListener listener) 
+            throws IOException, HttpException, JSONException, ParseException {
         
-       
         String googleDateInit = formatToGoogleDateTime(begin);
         String googleDateEnd = formatToGoogleDateTime(end);
         
@@ -220,46 +369,149 @@ public class GoogleCalendarApiConnector {
         String[] paramsKey =  {"Authorization"};
         String[] paramsValue = {"Bearer " + mSessionManager.getActiveUserAccessToken()};
         
-               
-        String googleResponse = null;
-        try {
-            googleResponse = ConnectionUtils.getHttpsGetConnection(url, paramsKey, paramsValue);
-        } catch (IllegalStateException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (HttpException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        String cacheKey = getFeedCacheKey(url);
+        CachedFeed<GoogleEvent> cachedFeed = getCachedFeed(cacheKey);
+        //Validators are only sent if there is a parsed response to fall back on
+        CacheValidator validator = cachedFeed != null ? cachedFeed.newValidator() : new CacheValidator();
+        InputStream googleResponse = ConnectionUtils.getHttpsConditionalGetStream(url, paramsKey, paramsValue, validator);
+        
+        if (googleResponse == null) {
+            //Not modified: last parsed events are served, nothing is parsed
+            mCacheHits.incrementAndGet();
+            for (GoogleEvent event : cachedFeed.mItems) {
+                listener.onEvent(event);
+            }
+        } else {
+            mCacheMisses.incrementAndGet();
+            final ArrayList<GoogleEvent> parsedEvents = new ArrayList<GoogleEvent>();
+            final GoogleEventStreamParser.EventListener finalListener = listener;
+            new GoogleEventStreamParser().parse(googleResponse, new GoogleEventStreamParser.EventListener() {
+                @Override
+                public void onEvent(GoogleEvent event) {
+                    parsedEvents.add(event);
+                    finalListener.onEvent(event);
+                }
+            });
+            //Validators and events are only stored once the whole feed was parsed
+            mFeedCache.put(cacheKey, new CachedFeed<GoogleEvent>(validator, parsedEvents));
         }
         
+        Log.d(TAG, "Connection pool => " + ConnectionUtils.getPoolStats() + " " + getCacheStats());
+    }
+    
+    /**
+     * Get events of googleCalendar changed since a date, including deleted ones
+     * (with canceled status). Events are handed to the listener one at a time
+     * @param calendar calendar which contains events
+     * @param updatedMin only events changed after this date are returned
+     * @param maxResults maximum number of returned events
+     * @param listener receives each changed event
+     * @throws IOException in case of connection problems
+     * @throws HttpException if google rejects the request (i.e. updatedMin is too old)
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates in response
+     */
+    public void getUpdatedEvents (CalendarResource calendar, Calendar updatedMin, int maxResults, GoogleEventStreamParser.EventListener listener) 
+            throws IOException, HttpException, JSONException, ParseException {
         
-        JSONObject jsonUserObj;
-        try {
-            jsonUserObj = (JSONObject) new JSONTokener(googleResponse).nextValue();
-            
-            JSONObject jsonData = jsonUserObj.getJSONObject("data");
-            Log.d(TAG, "MESSAGE => " + jsonData.toString());
-            JSONArray jsonEventsList = (JSONArray) jsonData.getJSONArray("items");
-                        
-            int ilength = jsonEventsList.length();
-
-            JSONObject jsonEvent;
-            for (int j = 0; j < ilength; j++) {
-                jsonEvent = (JSONObject) jsonEventsList.get(j);
-                events.add( parseEvent(jsonEvent));               
-            }            
-        } catch (JSONException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (ParseException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        //Not limited by start date, so events moved out of a window are also returned
+        String url = calendar.getEventFeedLink() 
+                           +  "?alt=jsonc&updated-min=" + formatToGoogleDateTime(updatedMin)
+                           + "&showdeleted=true"
+                           + "&max-results=" + maxResults
+                           + "&ctz=Europe/Madrid" ;
+                
+        String[] paramsKey =  {"Authorization"};
+        String[] paramsValue = {"Bearer " + mSessionManager.getActiveUserAccessToken()};
+        
+        //Every request has a different updated-min, so response is not cached
+        InputStream googleResponse = ConnectionUtils.getHttpsGetStream(url, paramsKey, paramsValue);
+        new GoogleEventStreamParser().parse(googleResponse, listener);
+    }
+    
+    /**
+     * Get busy intervals of several calendars in a single request (free/busy query).
+     * Response has no event data, so it is much smaller than the event feeds
+     * @param calendars calendars to query, at most MAX_FREE_BUSY_CALENDARS
+     * @param begin Begin date
+     * @param end End date
+     * @return busy intervals by calendar id. Calendars whose data is not available are not included
+     * @throws IOException in case of connection problems
+     * @throws HttpException if google rejects the request
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates in response
+     */
+    public Map<String, List<BusyEvent>> getFreeBusy(Collection<? extends CalendarResource> calendars, Calendar begin, Calendar end) 
+            throws IOException, HttpException, JSONException, ParseException {
+        
+        final Map<String, String> resourceIds = new HashMap<String, String>();
+        final Map<String, List<BusyEvent>> busyEvents = new HashMap<String, List<BusyEvent>>();
+        
+        JSONArray items = new JSONArray();
+        for (CalendarResource calendar : calendars) {
+            String calendarId = getCalendarIdFromFeedLink(calendar);
+            resourceIds.put(calendarId, calendar.getId());
+            busyEvents.put(calendar.getId(), new ArrayList<BusyEvent>());
+            items.put(new JSONObject().put("id", calendarId));
         }
         
-        return events;
+        JSONObject query = new JSONObject();
+        query.put("timeMin", Rfc3339.formatDateTime(begin.getTimeInMillis(), begin.getTimeZone()));
+        query.put("timeMax", Rfc3339.formatDateTime(end.getTimeInMillis(), end.getTimeZone()));
+        query.put("items", items);
+        
+        String[] paramsKey =   {"Authorization"};
+        String[] paramsValue = {"Bearer " + mSessionManager.getActiveUserAccessToken()};
+        StringEntity stringEntity = new StringEntity(query.toString(), "UTF-8");
+        stringEntity.setContentType("application/json");
+        
+        InputStream googleResponse = ConnectionUtils.doHttpsPostStream(GoogleConstants.URL_FREE_BUSY, paramsKey, paramsValue, stringEntity);
+        new GoogleFreeBusyParser().parse(googleResponse, new GoogleFreeBusyParser.FreeBusyListener() {
+            @Override
+            public void onBusy(String calendarId, long busyBegin, long busyEnd) {
+                String resourceId = resourceIds.get(calendarId);
+                List<BusyEvent> events = busyEvents.get(resourceId);
+                if (events != null) {
+                    Calendar evBegin = new GregorianCalendar();
+                    evBegin.setTimeInMillis(busyBegin);
+                    Calendar evEnd = new GregorianCalendar();
+                    evEnd.setTimeInMillis(busyEnd);
+                    events.add(new BusyEvent(resourceId, evBegin, evEnd));
+                }
+            }
+            
+            @Override
+            public void onError(String calendarId, String reason) {
+                Log.w(TAG, "No free/busy data of " + calendarId + ": " + reason);
+                busyEvents.remove(resourceIds.get(calendarId));
+            }
+        });
+        
+        return busyEvents;
+    }
+    
+    /**
+     * Google id of a calendar is a part of its event feed link 
+     * (https://www.google.com/calendar/feeds/[id]/private/full)
+     * @param calendar calendar
+     * @return google calendar id, usually an email
+     */
+    private String getCalendarIdFromFeedLink(CalendarResource calendar) {
+        String link = calendar.getEventFeedLink();
+        int feedsPath = link.indexOf(FEEDS_PATH);
+        if (feedsPath < 0) {
+            throw new IllegalArgumentException("Unknown event feed link: " + link);
+        }
+        int begin = feedsPath + FEEDS_PATH.length();
+        int end = link.indexOf('/', begin);
+        return Uri.decode(end > begin ? link.substring(begin, end) : link.substring(begin));
+    }
+    
+    /**
+     * @return cache counters, for logging
+     */
+    private String getCacheStats() {
+        return "[FEED CACHE] {HITS = " + mCacheHits.get() + "; MISSES = " + mCacheMisses.get() + "; }";
     }
 
     /**
@@ -268,11 +520,7 @@ public class GoogleCalendarApiConnector {
      * @return output example: 2012-07-07T11%3A15%3A19%2B02%3A00
      */
     private String formatToGoogleDateTime(Calendar begin) {
-        String preFormattedDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(begin.getTime());
-        StringBuffer sb = new StringBuffer(preFormattedDate); 
-        
-        sb.insert(22, ':');
-        String googleFormattedDate = Uri.encode(sb.toString());
+        String googleFormattedDate = Uri.encode(Rfc3339.formatDateTime(begin.getTimeInMillis(), begin.getTimeZone()));
         
         Log.d(TAG, "Date to google"+ googleFormattedDate);
         return googleFormattedDate;
@@ -286,23 +534,10 @@ public class GoogleCalendarApiConnector {
      * @throws ParseException in case of unparseable string
      */
     private Calendar parseGoogleDate(String dateTime) throws ParseException{
-        SimpleDateFormat formatter = mDateTimeFormatter;
-        if(isCompleteDayEvent(dateTime)){
-            formatter = mDateFormatter;
-        }
         Calendar evCalendar = new GregorianCalendar();
-        evCalendar.setTime(formatter.parse(dateTime));
+        evCalendar.setTimeInMillis(Rfc3339.parse(dateTime));
         return evCalendar;
     }
-
-    /**
-     * Check if event represents a complete day
-     * @param dateTime string
-     * @return true: Means that string type is Date (complete day). false: Means that string type is DateTime
-     */
-    private boolean isCompleteDayEvent(String dateTime) {
-        return dateTime.length() == 10;
-    }
     
     /**
      * Creates a Google Event
@@ -326,8 +561,8 @@ public class GoogleCalendarApiConnector {
             attendee.put(User.FIELD_EMAIL, email);
             attendeeList.put(attendee);
             
-            when.put(GoogleEvent.FIELD_BEGIN, mDateTimeFormatter.format(event.getBegin().getTime()));
-            when.put(GoogleEvent.FIELD_END,   mDateTimeFormatter.format(event.getEnd().getTime()));
+            when.put(GoogleEvent.FIELD_BEGIN, Rfc3339.formatDateTime(event.getBegin().getTimeInMillis(), event.getBegin().getTimeZone()));
+            when.put(GoogleEvent.FIELD_END,   Rfc3339.formatDateTime(event.getEnd().getTimeInMillis(), event.getEnd().getTimeZone()));
             whenList.put(when);
             
             data.put(GoogleEvent.FIELD_TITLE, event.getTitle());
@@ -439,18 +674,22 @@ public class GoogleCalendarApiConnector {
     
     
     /**
-     * Delete event from google
+     * Delete event from google. An event already gone (404/410) counts as deleted
      * @param gEvent event to delete
+     * @throws IOException in case of connection problems
+     * @throws HttpException if google refuses the deletion
      */
-    public void deleteEvent(GoogleEvent gEvent){
+    public void deleteEvent(GoogleEvent gEvent) throws IOException, HttpException {
         String eventURL = GoogleConstants.URL_INSERT_EVENT + gEvent.getId();
         Log.d(TAG, eventURL);
         
         //If-Match: * header allow to delete an event, even if it was modified after its insertion
         String[] paramsKey =   {"Authorization","If-Match"};
         String[] paramsValue = {"Bearer " + mSessionManager.getActiveUserAccessToken(),"*"};
-        boolean response = ConnectionUtils.doHttpsDelete(eventURL, paramsKey, paramsValue);
-        Log.d(TAG, "gConnector response : " + Boolean.toString(response));
-        
+        int returnCode = ConnectionUtils.doHttpsDelete(eventURL, paramsKey, paramsValue);
+        if (returnCode != HTTP_OK && returnCode != HTTP_NO_CONTENT
+                && returnCode != HTTP_NOT_FOUND && returnCode != HTTP_GONE) {
+            throw new HttpException("Google refused to delete event " + gEvent.getId() + ": " + returnCode);
+        }
     }
 }
\ No newline at end of file
@@ -35,6 +35,9 @@ public class GoogleConstants {
     /** Google API All Calendar Info Address */
     public static final String URL_ALL_CALENDARS = "https://www.google.com/calendar/feeds/default/allcalendars/full?alt=jsonc";
    
+    /** Google API Free/Busy query Address */
+    public static final String URL_FREE_BUSY = "https://www.googleapis.com/calendar/v3/freeBusy";
+    
     /** Google API Insert new event Address */
     public static final String URL_INSERT_EVENT =  "https://www.google.com/calendar/feeds/default/private/full/";
  
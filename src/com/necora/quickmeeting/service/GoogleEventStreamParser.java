@@ -0,0 +1,236 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import com.necora.quickmeeting.objects.User;
+import com.necora.quickmeeting.objects.google.GoogleEvent;
+import com.necora.quickmeeting.util.JsonPullParser;
+import com.necora.quickmeeting.util.Rfc3339;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Parses a google event feed (jsonc) directly from the response stream.
+ * Events are handed to a listener one at a time, so the whole payload is never
+ * held in memory, neither as a String nor as a JSONObject tree.
+ * A parser instance is not thread safe; use one per response.
+ * @author vitor
+ */
+public class GoogleEventStreamParser {
+
+    /**
+     * Receives events as soon as they are parsed
+     */
+    public interface EventListener {
+        /**
+         * @param event parsed event
+         */
+        void onEvent(GoogleEvent event);
+    }
+
+    /**
+     * Parse a feed of events. Stream is closed when parsing ends
+     * @param is response stream
+     * @param listener listener for parsed events
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed feed, or event without mandatory fields
+     * @throws ParseException malformed dates
+     */
+    public void parse(InputStream is, EventListener listener) throws IOException, JSONException, ParseException {
+        JsonPullParser parser = new JsonPullParser(new InputStreamReader(is, "UTF-8"));
+        try {
+            parser.beginObject();
+            while (parser.hasNext()) {
+                if ("data".equals(parser.nextName())) {
+                    parseData(parser, listener);
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.endObject();
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Parse "data" object of feed
+     * @param parser JSON parser
+     * @param listener listener for parsed events
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed feed
+     * @throws ParseException malformed dates
+     */
+    private void parseData(JsonPullParser parser, EventListener listener) throws IOException, JSONException, ParseException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            if ("items".equals(parser.nextName())) {
+                parser.beginArray();
+                while (parser.hasNext()) {
+                    listener.onEvent(parseEvent(parser));
+                }
+                parser.endArray();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+    }
+
+    /**
+     * Parse an event object. Same result as GoogleCalendarApiConnector.parseEvent
+     * @param parser JSON parser
+     * @return GoogleEvent object
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed event
+     * @throws ParseException malformed dates
+     */
+    private GoogleEvent parseEvent(JsonPullParser parser) throws IOException, JSONException, ParseException {
+        GoogleEvent ev = new GoogleEvent();
+        boolean hasWhen = false;
+        boolean hasCreator = false;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (GoogleEvent.FIELD_ID.equals(name)) {
+                ev.setId(parser.nextString());
+            } else if (GoogleEvent.FIELD_TITLE.equals(name)) {
+                ev.setTitle(parser.nextString());
+            } else if (GoogleEvent.FIELD_DETAILS.equals(name)) {
+                ev.setDetails(parser.nextString());
+            } else if (GoogleEvent.FIELD_STATUS.equals(name)) {
+                ev.setStatus(parser.nextString());
+            } else if (GoogleEvent.FIELD_LOCATION.equals(name)) {
+                ev.setLocation(parser.nextString());
+            } else if (GoogleEvent.FIELD_SELF_LINK.equals(name)) {
+                ev.setSelfLink(parser.nextString());
+            } else if (GoogleEvent.FIELD_ALTERNATIVE_LINK.equals(name)) {
+                ev.setAlternateLink(parser.nextString());
+            } else if (GoogleEvent.FIELD_CAN_EDIT.equals(name)) {
+                ev.setCanEdit(parser.nextBoolean());
+            } else if (GoogleEvent.FIELD_WHEN_LIST.equals(name)) {
+                hasWhen = parseWhen(parser, ev);
+            } else if (GoogleEvent.FIELD_CREATOR.equals(name)) {
+                User creator = parseUser(parser, "private");
+                ev.setCreator(creator);
+                hasCreator = true;
+            } else if (GoogleEvent.FIELD_ATTENDEES.equals(name)) {
+                parser.beginArray();
+                while (parser.hasNext()) {
+                    ev.addAttendee(parseUser(parser, null));
+                }
+                parser.endArray();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        if (ev.getId() == null) {
+            throw new JSONException("Event without id");
+        }
+        //Deleted events may come without dates or creator
+        if (!ev.isCanceled() && (!hasWhen || !hasCreator)) {
+            throw new JSONException("Event without dates or creator");
+        }
+        if (ev.getLocation() == null) {
+            ev.setLocation("");
+        }
+        return ev;
+    }
+
+    /**
+     * Parse the list of dates of an event. Only first date is used
+     * @param parser JSON parser
+     * @param ev event to fill
+     * @return true if event has dates
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed list
+     * @throws ParseException malformed dates
+     */
+    private boolean parseWhen(JsonPullParser parser, GoogleEvent ev) throws IOException, JSONException, ParseException {
+        boolean first = true;
+        parser.beginArray();
+        while (parser.hasNext()) {
+            if (!first) {
+                parser.skipValue();
+                continue;
+            }
+            first = false;
+            parser.beginObject();
+            while (parser.hasNext()) {
+                String name = parser.nextName();
+                if (GoogleEvent.FIELD_BEGIN.equals(name)) {
+                    ev.setBegin(parseGoogleDate(parser.nextString()));
+                } else if (GoogleEvent.FIELD_END.equals(name)) {
+                    ev.setEnd(parseGoogleDate(parser.nextString()));
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.endObject();
+        }
+        parser.endArray();
+        return ev.getBegin() != null && ev.getEnd() != null;
+    }
+
+    /**
+     * Parse a creator or attendee object
+     * @param parser JSON parser
+     * @param defaultEmail email to use if object has no email
+     * @return user
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed object
+     */
+    private User parseUser(JsonPullParser parser, String defaultEmail) throws IOException, JSONException {
+        User user = new User(null, defaultEmail);
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (User.FIELD_DISPLAY_NAME.equals(name)) {
+                user.setName(parser.nextString());
+            } else if (User.FIELD_EMAIL.equals(name)) {
+                user.setEmail(parser.nextString());
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+        return user;
+    }
+
+    /**
+     * Converts a string form GoogleCalendar date o dateTime into a calendar.
+     * @param dateTime string as date or dateTime
+     * @return a Calendar representation of input string
+     * @throws ParseException in case of unparseable string
+     */
+    private Calendar parseGoogleDate(String dateTime) throws ParseException {
+        Calendar evCalendar = new GregorianCalendar();
+        evCalendar.setTimeInMillis(Rfc3339.parse(dateTime));
+        return evCalendar;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import com.necora.quickmeeting.util.JsonPullParser;
+import com.necora.quickmeeting.util.Rfc3339;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+
+/**
+ * Parses a google free/busy response (calendar v3) directly from the response stream.
+ * Busy intervals are handed to a listener one at a time
+ * @author vitor
+ */
+public class GoogleFreeBusyParser {
+
+    /**
+     * Receives busy intervals and errors of each calendar
+     */
+    public interface FreeBusyListener {
+        /**
+         * @param calendarId google calendar id
+         * @param begin begin of busy interval (epoch millis)
+         * @param end end of busy interval (epoch millis)
+         */
+        void onBusy(String calendarId, long begin, long end);
+
+        /**
+         * Free/busy data of a calendar is not available
+         * @param calendarId google calendar id
+         * @param reason error reason
+         */
+        void onError(String calendarId, String reason);
+    }
+
+    /**
+     * Parse a free/busy response. Stream is closed when parsing ends
+     * @param is response stream
+     * @param listener listener for busy intervals
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates
+     */
+    public void parse(InputStream is, FreeBusyListener listener) throws IOException, JSONException, ParseException {
+        JsonPullParser parser = new JsonPullParser(new InputStreamReader(is, "UTF-8"));
+        try {
+            parser.beginObject();
+            while (parser.hasNext()) {
+                if ("calendars".equals(parser.nextName())) {
+                    parser.beginObject();
+                    while (parser.hasNext()) {
+                        String calendarId = parser.nextName();
+                        parseCalendar(parser, calendarId, listener);
+                    }
+                    parser.endObject();
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.endObject();
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Parse free/busy data of a calendar
+     * @param parser JSON parser
+     * @param calendarId google calendar id
+     * @param listener listener for busy intervals
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed response
+     * @throws ParseException malformed dates
+     */
+    private void parseCalendar(JsonPullParser parser, String calendarId, FreeBusyListener listener) 
+            throws IOException, JSONException, ParseException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if ("busy".equals(name)) {
+                parser.beginArray();
+                while (parser.hasNext()) {
+                    parseInterval(parser, calendarId, listener);
+                }
+                parser.endArray();
+            } else if ("errors".equals(name)) {
+                parser.beginArray();
+                while (parser.hasNext()) {
+                    listener.onError(calendarId, parseErrorReason(parser));
+                }
+                parser.endArray();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+    }
+
+    /**
+     * Parse a busy interval
+     * @param parser JSON parser
+     * @param calendarId google calendar id
+     * @param listener listener for busy intervals
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed interval
+     * @throws ParseException malformed dates
+     */
+    private void parseInterval(JsonPullParser parser, String calendarId, FreeBusyListener listener) 
+            throws IOException, JSONException, ParseException {
+        String begin = null;
+        String end = null;
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if ("start".equals(name)) {
+                begin = parser.nextString();
+            } else if ("end".equals(name)) {
+                end = parser.nextString();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+        listener.onBusy(calendarId, Rfc3339.parse(begin), Rfc3339.parse(end));
+    }
+
+    /**
+     * Parse an error object
+     * @param parser JSON parser
+     * @return error reason
+     * @throws IOException error reading the stream
+     * @throws JSONException malformed error
+     */
+    private String parseErrorReason(JsonPullParser parser) throws IOException, JSONException {
+        String reason = null;
+        parser.beginObject();
+        while (parser.hasNext()) {
+            if ("reason".equals(parser.nextName())) {
+                reason = parser.nextString();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+        return reason;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.necora.quickmeeting.service;
+
+import android.util.Log;
+
+import com.necora.quickmeeting.service.exception.SyncFailedException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Synchronizes every account at the same time: refreshes its token if needed
+ * and synchronizes its resources, bound to that account. A failure only
+ * affects its own account.
+ * @author vitor
+ */
+class ParallelAccountSyncer {
+
+    /** Log tag */
+    private static final String TAG = ParallelAccountSyncer.class.getName();
+
+    /** Maximum number of accounts synchronized at the same time */
+    static final int MAX_CONCURRENT_ACCOUNTS = 3;
+
+    /** Time (s) an idle worker is kept */
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    /** Resource manager which synchronizes resources of one account */
+    private final ResourceManager mResourceManager;
+
+    /** User manager, owner of accounts and tokens */
+    private final UserManager mUserManager;
+
+    /** Worker pool, its size is the concurrency cap */
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Constructor
+     * @param resourceManager resource manager which synchronizes resources of one account
+     * @param userManager user manager, owner of accounts and tokens
+     */
+    ParallelAccountSyncer(ResourceManager resourceManager, UserManager userManager) {
+        mResourceManager = resourceManager;
+        mUserManager = userManager;
+        mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_ACCOUNTS, MAX_CONCURRENT_ACCOUNTS,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+
+                    /** Number of created threads */
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "AccountSyncer-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Synchronize every account. Blocks until all of them finish
+     * @return failure of each account which could not be synchronized, by email
+     */
+    Map<String, SyncFailedException> syncAll() {
+        long startTime = System.currentTimeMillis();
+        Map<String, SyncFailedException> failures = new LinkedHashMap<String, SyncFailedException>();
+
+        Map<String, Future<SyncSummary>> futures = new LinkedHashMap<String, Future<SyncSummary>>();
+        for (Session session : mUserManager.getSessions()) {
+            final String email = session.getEmail();
+            futures.put(email, mExecutor.submit(new Callable<SyncSummary>() {
+                @Override
+                public SyncSummary call() throws SyncFailedException {
+                    return sync(email);
+                }
+            }));
+        }
+
+        boolean interrupted = false;
+        for (Map.Entry<String, Future<SyncSummary>> entry : futures.entrySet()) {
+            if (interrupted) {
+                entry.getValue().cancel(true);
+                failures.put(entry.getKey(), new SyncFailedException("Interrupted"));
+                continue;
+            }
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Log.e(TAG, "Cannot synchronize account " + entry.getKey() + ": " + cause);
+                failures.put(entry.getKey(), cause instanceof SyncFailedException 
+                        ? (SyncFailedException) cause : new SyncFailedException(cause));
+            } catch (InterruptedException e) {
+                entry.getValue().cancel(true);
+                failures.put(entry.getKey(), new SyncFailedException(e));
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Log.d(TAG, "Synchronized " + futures.size() + " accounts in " + (System.currentTimeMillis() - startTime)
+                + " ms, " + failures.size() + " failed");
+        return failures;
+    }
+
+    /**
+     * Synchronize an account, bound to calling thread
+     * @param email account email
+     * @return counts and elapsed time of resource synchronization
+     * @throws SyncFailedException token cannot be refreshed, or resources cannot be synchronized
+     */
+    private SyncSummary sync(String email) throws SyncFailedException {
+        String previous = AccountScope.enter(email);
+        try {
+            if (!mUserManager.refreshAccessToken(email)) {
+                throw new SyncFailedException("Cannot refresh token of " + email);
+            }
+            return mResourceManager.syncResources();
+        } finally {
+            AccountScope.exit(previous);
+        }
+    }
+}
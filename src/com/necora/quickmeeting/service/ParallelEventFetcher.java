@@ -0,0 +1,222 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import android.util.Log;
+
+import com.necora.quickmeeting.objects.CalendarResource;
+import com.necora.quickmeeting.objects.Event;
+import com.necora.quickmeeting.service.exception.ResourceNotAvaiableException;
+import com.necora.quickmeeting.util.ConnectionUtils;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches events of several resources at the same time, with a bounded
+ * number of requests in flight. Prioritized resources (e.g. rooms on screen)
+ * are fetched before the others
+ * @author vitor
+ */
+class ParallelEventFetcher {
+
+    /**
+     * Fetch of one resource, ordered by priority and then by submission
+     */
+    private static class FetchTask extends FutureTask<List<? extends Event>> implements Comparable<FetchTask> {
+
+        /** Priority, lower values go first */
+        private final int mPriority;
+        /** Submission order */
+        private final long mSequence;
+        /** Requests of the fetch, aborted when it is cancelled */
+        private final ConnectionUtils.RequestTracker mRequests = new ConnectionUtils.RequestTracker();
+
+        FetchTask(Callable<List<? extends Event>> callable, int priority, long sequence) {
+            super(callable);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            ConnectionUtils.RequestTracker previous = ConnectionUtils.bindRequestTracker(mRequests);
+            try {
+                super.run();
+            } finally {
+                ConnectionUtils.bindRequestTracker(previous);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            //Interrupting does not unblock a socket read
+            if (cancelled && mayInterruptIfRunning) {
+                mRequests.abort();
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(FetchTask another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    /** Priority of prioritized resources */
+    private static final int PRIORITY_HIGH = 0;
+    /** Priority of the rest of resources */
+    private static final int PRIORITY_NORMAL = 1;
+
+    /** Log tag */
+    private static final String TAG = ParallelEventFetcher.class.getName();
+
+    /** Default number of simultaneous requests */
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    /** Time (s) an idle worker is kept */
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    /** Resource manager which fetches events of one resource */
+    private final ResourceManager mResourceManager;
+
+    /** Worker pool, its size is the concurrency cap. Queued fetches are ordered by priority */
+    private final ThreadPoolExecutor mExecutor;
+
+    /** Submission counter, keeps fetches of same priority in order */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param resourceManager resource manager which fetches events of one resource
+     * @param maxConcurrentRequests maximum number of simultaneous requests
+     */
+    ParallelEventFetcher(ResourceManager resourceManager, int maxConcurrentRequests) {
+        mResourceManager = resourceManager;
+        mExecutor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), 
+                new ThreadFactory() {
+                    
+                    /** Number of created threads */
+                    private final AtomicInteger mCount = new AtomicInteger();
+                    
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "EventFetcher-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Change the maximum number of simultaneous requests
+     * @param maxConcurrentRequests maximum number of simultaneous requests
+     */
+    void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("At least one request is needed");
+        }
+        if (maxConcurrentRequests > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxConcurrentRequests);
+            mExecutor.setCorePoolSize(maxConcurrentRequests);
+        } else {
+            mExecutor.setCorePoolSize(maxConcurrentRequests);
+            mExecutor.setMaximumPoolSize(maxConcurrentRequests);
+        }
+    }
+
+    /**
+     * Fetch events of every resource. Blocks until all of them finish.
+     * Prioritized resources are fetched first, also before resources queued by
+     * other callers
+     * @param resources resources to fetch
+     * @param prioritizedIds ids of resources to fetch first, may be null
+     * @param begin Calendar begin
+     * @param end Calendar end
+     * @return events of each resource and failed resources
+     */
+    EventFetchResult fetch(Collection<? extends CalendarResource> resources, Collection<String> prioritizedIds,
+            Calendar begin, Calendar end) {
+        long startTime = System.currentTimeMillis();
+        EventFetchResult result = new EventFetchResult();
+        
+        Map<String, Future<List<? extends Event>>> futures = new LinkedHashMap<String, Future<List<? extends Event>>>();
+        for (CalendarResource resource : resources) {
+            final String resourceId = resource.getId();
+            // Calendar is not thread safe: each request gets its own copy
+            final Calendar taskBegin = (Calendar) begin.clone();
+            final Calendar taskEnd = (Calendar) end.clone();
+            int priority = prioritizedIds != null && prioritizedIds.contains(resourceId) ? PRIORITY_HIGH : PRIORITY_NORMAL;
+            FetchTask task = new FetchTask(new Callable<List<? extends Event>>() {
+                @Override
+                public List<? extends Event> call() throws ResourceNotAvaiableException {
+                    return mResourceManager.getEvents(resourceId, taskBegin, taskEnd);
+                }
+            }, priority, mSequence.incrementAndGet());
+            // submit() would wrap the task and lose its priority
+            mExecutor.execute(task);
+            futures.put(resourceId, task);
+        }
+        
+        boolean interrupted = false;
+        for (Map.Entry<String, Future<List<? extends Event>>> entry : futures.entrySet()) {
+            if (interrupted) {
+                entry.getValue().cancel(true);
+                result.putFailure(entry.getKey(), new InterruptedException());
+                continue;
+            }
+            try {
+                result.putEvents(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Log.e(TAG, "Cannot get events of resource " + entry.getKey() + ": " + cause);
+                result.putFailure(entry.getKey(), cause instanceof Exception ? (Exception) cause : e);
+            } catch (InterruptedException e) {
+                entry.getValue().cancel(true);
+                result.putFailure(entry.getKey(), e);
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        
+        result.setElapsedTime(System.currentTimeMillis() - startTime);
+        Log.d(TAG, "Fetched " + futures.size() + " resources in " + result.getElapsedTime() + " ms, " 
+                + result.getFailures().size() + " failed");
+        return result;
+    }
+}
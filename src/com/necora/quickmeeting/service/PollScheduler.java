@@ -0,0 +1,276 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.necora.quickmeeting.util.TaskExecutor;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a poll repeatedly while started. Each poll returns the delay until the
+ * next one, so the task can adapt its rate. Meant to be started when a screen
+ * is shown and stopped when it is hidden, so nothing polls in background.
+ * A requested poll (e.g. manual refresh) runs at once and replaces the pending
+ * scheduled one; several requests made before it runs are merged.
+ * All schedulers share one timer thread; polls themselves run on the
+ * TaskExecutor, below interactive work.
+ * @author vitor
+ */
+public class PollScheduler {
+
+    /**
+     * Work done on each poll
+     */
+    public interface PollTask {
+        /**
+         * Poll. Called on a TaskExecutor worker
+         * @param requested true if the poll was requested, false if it is a scheduled one
+         * @return time (ms) until next poll, or a negative value for the default interval
+         */
+        long poll(boolean requested);
+    }
+
+    /** Log tag */
+    private static final String TAG = PollScheduler.class.getName();
+
+    /** Timer shared by all schedulers */
+    private static ScheduledThreadPoolExecutor sTimer;
+
+    /** Work done on each poll */
+    private final PollTask mTask;
+    /** Default time (ms) between the end of a poll and the next one */
+    private final long mInterval;
+
+    /** True between start and stop */
+    private boolean mStarted;
+    /** True if a poll was requested and has not started yet */
+    private boolean mRequested;
+    /** Timer of next poll, null if none is scheduled */
+    private Future<?> mNextPoll;
+    /** Poll submitted to the executor which has not started yet, null if none */
+    private Future<?> mQueuedPoll;
+    /** Id of the queued poll, so a cancelled one which starts anyway does nothing */
+    private long mQueuedPollId;
+    /** Running poll, null if none */
+    private Future<?> mRunningPoll;
+    /** Last poll id */
+    private long mLastPollId;
+
+    /** Polls run */
+    private long mPolls;
+    /** Scheduled polls replaced by a requested poll */
+    private long mSkippedTicks;
+    /** Requests merged into a pending one */
+    private long mCoalescedRequests;
+    /** Duration (ms) of last poll */
+    private long mLastDuration;
+    /** Duration (ms) of all polls */
+    private long mTotalDuration;
+
+    /**
+     * Constructor
+     * @param task work done on each poll
+     * @param interval default time (ms) between the end of a poll and the next one
+     */
+    public PollScheduler(PollTask task, long interval) {
+        mTask = task;
+        mInterval = interval;
+    }
+
+    /**
+     * @return timer shared by all schedulers, created on first use
+     */
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (sTimer == null) {
+            sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PollScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimer;
+    }
+
+    /**
+     * Start polling. First poll runs after one interval
+     */
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        //A poll still running from before stop schedules the next one when it ends
+        if (mRunningPoll == null) {
+            schedule(mInterval);
+        }
+    }
+
+    /**
+     * Stop polling. A queued poll is dropped, and a running one is cancelled:
+     * it is interrupted and its http request aborted
+     */
+    public synchronized void stop() {
+        mStarted = false;
+        mRequested = false;
+        cancelNextPoll();
+        if (mQueuedPoll != null) {
+            mQueuedPoll.cancel(false);
+            mQueuedPoll = null;
+            mQueuedPollId = 0;
+        }
+        if (mRunningPoll != null) {
+            mRunningPoll.cancel(true);
+        }
+    }
+
+    /**
+     * Request a poll now. It replaces the pending scheduled poll, and is merged
+     * with other requests made before it starts. Ignored if not started
+     * @return true if a poll will run, false if scheduler is stopped
+     */
+    public synchronized boolean requestPoll() {
+        if (!mStarted) {
+            return false;
+        }
+        if (mRequested) {
+            mCoalescedRequests++;
+            return true;
+        }
+        mRequested = true;
+        //Running poll queues the requested one when it ends, and a queued one
+        //takes the request when it starts
+        if (mRunningPoll != null || mQueuedPoll != null) {
+            return true;
+        }
+        if (cancelNextPoll()) {
+            mSkippedTicks++;
+        }
+        submitPoll();
+        return true;
+    }
+
+    /**
+     * @return snapshot of scheduler metrics
+     */
+    public synchronized PollStats getStats() {
+        return new PollStats(mPolls, mSkippedTicks, mCoalescedRequests, mLastDuration, mTotalDuration);
+    }
+
+    /**
+     * Schedule next poll
+     * @param delay time (ms) until next poll
+     */
+    private void schedule(long delay) {
+        mNextPoll = getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimer();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel next poll timer, if any
+     * @return true if a timer was cancelled
+     */
+    private boolean cancelNextPoll() {
+        if (mNextPoll == null) {
+            return false;
+        }
+        boolean cancelled = mNextPoll.cancel(false);
+        mNextPoll = null;
+        //Cancelled timers would stay queued, holding the poll task, until their delay ends
+        getTimer().purge();
+        return cancelled;
+    }
+
+    /**
+     * Timer of next poll expired
+     */
+    private synchronized void onTimer() {
+        mNextPoll = null;
+        if (mStarted && mQueuedPoll == null && mRunningPoll == null) {
+            submitPoll();
+        }
+    }
+
+    /**
+     * Submit a poll to the executor. Requested polls go before background work
+     */
+    private void submitPoll() {
+        final long pollId = ++mLastPollId;
+        mQueuedPollId = pollId;
+        mQueuedPoll = TaskExecutor.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                runPoll(pollId);
+            }
+        }, mRequested ? TaskExecutor.PRIORITY_REFRESH : TaskExecutor.PRIORITY_BACKGROUND, this, null);
+    }
+
+    /**
+     * Run a poll and schedule next one
+     * @param pollId id of the poll
+     */
+    private void runPoll(long pollId) {
+        boolean requested;
+        synchronized (this) {
+            if (!mStarted || pollId != mQueuedPollId) {
+                return;
+            }
+            mRunningPoll = mQueuedPoll;
+            mQueuedPoll = null;
+            mQueuedPollId = 0;
+            requested = mRequested;
+            mRequested = false;
+        }
+
+        long startTime = SystemClock.uptimeMillis();
+        long delay = -1;
+        try {
+            delay = mTask.poll(requested);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Poll failed", e);
+        } finally {
+            long duration = SystemClock.uptimeMillis() - startTime;
+            synchronized (this) {
+                mRunningPoll = null;
+                mPolls++;
+                mLastDuration = duration;
+                mTotalDuration += duration;
+                if (mStarted && mNextPoll == null && mQueuedPoll == null) {
+                    if (mRequested) {
+                        submitPoll();
+                    } else {
+                        schedule(delay < 0 ? mInterval : delay);
+                    }
+                }
+            }
+            Log.d(TAG, getStats().toString());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+/**
+ * Snapshot of the state of a poll scheduler
+ * @author vitor
+ */
+public class PollStats {
+
+    /** Polls run */
+    private final long mPolls;
+    /** Scheduled polls which did not run because a requested poll ran in their place */
+    private final long mSkippedTicks;
+    /** Poll requests merged into a request which was already pending */
+    private final long mCoalescedRequests;
+    /** Duration (ms) of last poll */
+    private final long mLastDuration;
+    /** Duration (ms) of all polls */
+    private final long mTotalDuration;
+
+    /**
+     * Constructor
+     * @param polls polls run
+     * @param skippedTicks scheduled polls replaced by a requested poll
+     * @param coalescedRequests requests merged into a pending one
+     * @param lastDuration duration (ms) of last poll
+     * @param totalDuration duration (ms) of all polls
+     */
+    public PollStats(long polls, long skippedTicks, long coalescedRequests, long lastDuration, long totalDuration) {
+        mPolls = polls;
+        mSkippedTicks = skippedTicks;
+        mCoalescedRequests = coalescedRequests;
+        mLastDuration = lastDuration;
+        mTotalDuration = totalDuration;
+    }
+
+    /**
+     * @return polls run
+     */
+    public long getPolls() {
+        return mPolls;
+    }
+
+    /**
+     * @return scheduled polls replaced by a requested poll
+     */
+    public long getSkippedTicks() {
+        return mSkippedTicks;
+    }
+
+    /**
+     * @return requests merged into a pending one
+     */
+    public long getCoalescedRequests() {
+        return mCoalescedRequests;
+    }
+
+    /**
+     * @return duration (ms) of last poll
+     */
+    public long getLastDuration() {
+        return mLastDuration;
+    }
+
+    /**
+     * @return average duration (ms) of polls
+     */
+    public long getAverageDuration() {
+        return mPolls == 0 ? 0 : mTotalDuration / mPolls;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[POLL] {");
+            sb.append("POLLS = ").append(mPolls).append("; ");
+            sb.append("SKIPPED = ").append(mSkippedTicks).append("; ");
+            sb.append("COALESCED = ").append(mCoalescedRequests).append("; ");
+            sb.append("LAST = ").append(mLastDuration).append("ms; ");
+            sb.append("AVERAGE = ").append(getAverageDuration()).append("ms; ");
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -17,15 +17,18 @@
 
 package com.necora.quickmeeting.service;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.util.Log;
 
 import com.necora.quickmeeting.contentprovider.AccountColumns;
+import com.necora.quickmeeting.contentprovider.QuickMeetingContentProvider;
 import com.necora.quickmeeting.contentprovider.ResourceColumns;
+import com.necora.quickmeeting.contentprovider.ResourceDao;
+import com.necora.quickmeeting.objects.BusyEvent;
 import com.necora.quickmeeting.objects.CalendarResource;
 import com.necora.quickmeeting.objects.Event;
 import com.necora.quickmeeting.objects.google.GoogleCalendar;
@@ -36,9 +39,13 @@ import com.necora.quickmeeting.service.exception.SyncFailedException;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manage resources (calendars)
@@ -49,6 +56,16 @@ public class ResourceManager {
     /** Log tag */
     static private final String TAG = ResourceManager.class.toString();
     
+    /**
+     * Active resources of an account. Replaced as a whole when they change
+     */
+    private static class AccountResources {
+        /** List of active calendar resources */
+        final List<CalendarResource> mActiveResources = new ArrayList<CalendarResource>();
+        /** Hash with calendar ids and calendars */
+        final Map<String, GoogleCalendar> mResourceMap = new HashMap<String, GoogleCalendar>();
+    }
+    
     /** instance reference */
     private static ResourceManager sInstance = null;
     /** user manager reference */
@@ -57,20 +74,85 @@ public class ResourceManager {
     private Context mContext;
     /** QuickMeeting Provider object */
     private ContentResolver mProvider;
-    /** List of active calendar resources */
-    private List<CalendarResource> activeResources = null;    
-    /** Hash with calendar ids and calendars */
-    private  Map<String, GoogleCalendar> resourceMap = null;
+    /** In-process access to stored resources */
+    private ResourceDao mResourceDao;
+    /** 
+     * Active resources of each account, by account id. Loaded on first use and 
+     * kept when switching accounts. Events are cached by resource id, which is 
+     * unique among accounts, so they survive switching too
+     */
+    private final ConcurrentHashMap<String, AccountResources> mAccountResources = 
+            new ConcurrentHashMap<String, AccountResources>();
+    /** Email of the account of each loaded resource, by resource id */
+    private final ConcurrentHashMap<String, String> mResourceAccounts = new ConcurrentHashMap<String, String>();
+    /** Synchronizes all accounts in parallel */
+    private ParallelAccountSyncer mAccountSyncer;
+    /** Fetches events of several resources in parallel */
+    private ParallelEventFetcher mEventFetcher;
+    /** Events by resource and time tile */
+    private EventTileCache mTileCache;
+    /** Last known events, stored in database */
+    private EventStore mEventStore;
+    /** Complete google calendars, needed to create events */
+    private CalendarMetadataCache mMetadataCache;
     
     /**
-     * Return an updated Map of resources (Calendars)
+     * Return an updated Map of resources (Calendars) of active account
      * @return an  updated Map of resources
      */
     private Map<String, GoogleCalendar> getResourceMap() {
-        if( resourceMap == null){
-            refreshActiveResources();
+        return getAccountResources().mResourceMap;
+    }
+    
+    /**
+     * Active resources of active account, loaded from database if they are not cached
+     * @return active resources
+     */
+    private AccountResources getAccountResources() {
+        Session session = mUserManager.getSession();
+        if (session == null) {
+            return new AccountResources();
+        }
+        String userId = session.getUserId();
+        AccountResources resources = mAccountResources.get(userId);
+        if (resources == null) {
+            resources = loadActiveResources(Long.parseLong(userId), session.getEmail());
+            AccountResources loaded = mAccountResources.putIfAbsent(userId, resources);
+            if (loaded != null) {
+                resources = loaded;
+            }
+        }
+        return resources;
+    }
+    
+    /**
+     * Return the account of a loaded resource
+     * @param resourceId resource id
+     * @return account email, or null if resource is not loaded
+     */
+    public String getResourceAccount(String resourceId) {
+        return mResourceAccounts.get(resourceId);
+    }
+    
+    /**
+     * Bind calling thread to the account of a resource, so google is called 
+     * with its token even if it is not the active account
+     * @param resourceId resource id
+     * @return previous binding, to restore with AccountScope.exit
+     */
+    private String enterResourceAccount(String resourceId) {
+        return AccountScope.enter(resourceId != null ? mResourceAccounts.get(resourceId) : null);
+    }
+    
+    /**
+     * Forget cached active resources of current account (bound to calling thread, 
+     * or else the active one). They are loaded again on next use
+     */
+    private void invalidateActiveResources() {
+        String userId = mUserManager.getActiveUserId();
+        if (userId != null) {
+            mAccountResources.remove(userId);
         }
-        return resourceMap;
     }
 
     /**
@@ -80,8 +162,20 @@ public class ResourceManager {
     private ResourceManager(Context context){
         //TODO return exception if it is null
         mProvider = context.getContentResolver();
+        mResourceDao = ResourceDao.getInstance(context);
         mUserManager = UserManager.getInstance(context);
         mContext = context;
+        mEventFetcher = new ParallelEventFetcher(this, ParallelEventFetcher.DEFAULT_MAX_CONCURRENT_REQUESTS);
+        mAccountSyncer = new ParallelAccountSyncer(this, mUserManager);
+        mTileCache = new EventTileCache(GoogleCalendarApiConnector.getInstance(context));
+        mEventStore = new EventStore(mProvider);
+        mMetadataCache = new CalendarMetadataCache(GoogleCalendarApiConnector.getInstance(context));
+        mMetadataCache.setRefreshListener(new CalendarMetadataCache.RefreshListener() {
+            @Override
+            public void onCalendarRefreshed(GoogleCalendar calendar, String account, long updateTime) {
+                updateResourceMetadata(calendar, account, updateTime);
+            }
+        });
     }
     
     /**
@@ -114,135 +208,100 @@ public class ResourceManager {
     
     
     /**
-     * Get list of links FromGoogle and add new calendars to database
-     * @return A list of calendar link for current active user
+     * @return row id of active user, or -1 if there is no active user
      */
-    private List<String> loadLinksFromGoogle() {
-        
-        //Calendar links (google)
-        List<String> gLinks = new ArrayList<String>();
-        //Calendar links (db)
-        List<String> dbLinks = getResourceLinksFromDatabase();
-
-        //Get all calendars from google.
-        GoogleCalendarApiConnector gConector = GoogleCalendarApiConnector.getInstance(mContext);
-        List<GoogleCalendar> calendars = gConector.getCalendars();
-        
-        for(GoogleCalendar calendar: calendars){
-            String link = calendar.getSelfLink();
-            gLinks.add(link);
-            
-            if( !dbLinks.contains(link) ){
-                addResourceToDatabase(calendar);
-            }
-        }
-        
-        return gLinks;
-    }
-
-    /**
-     * Get a list of calendar links from database
-     * @return a list of resources links from database
-     */
-    private List<String> getResourceLinksFromDatabase(){
-        
-        List<String> resourceLinks = new ArrayList<String>();
-        
-        // Form an array specifying which columns to return. 
-        String[] projection = new String[] {
-                ResourceColumns.LINK,
-        };
-
-        // Get the base URI for the Resources table.
-        Uri resourceUri = Uri.parse(AccountColumns.CONTENT_URI + "/" + mUserManager.getActiveUserId() + "/" + "resources"); 
-
-        // Make the query. 
-        Cursor managedCursor = mProvider.query(resourceUri,
-                projection, // Which columns to return 
-                null,       // Which rows to return (all rows)
-                null,       // Selection arguments (none)
-                // Put the results in ascending order by email
-                ResourceColumns._ID + " ASC");       
-
-        if (managedCursor.moveToFirst()) {
-
-            int linkColumn = managedCursor.getColumnIndex(ResourceColumns.LINK); 
-            
-            do {
-                String link = managedCursor.getString(linkColumn);
-                resourceLinks.add(link);
-
-                Log.d(TAG, "Google calendar loaded from db: "+ link);
-
-            } while (managedCursor.moveToNext());
-
-        }
-        
-        return resourceLinks;
+    private long getActiveUserRowId() {
+        String userId = mUserManager.getActiveUserId();
+        return userId != null ? Long.parseLong(userId) : -1;
     }
     
     /**
-     * Add a google calendar to database
-     * @param calendar calendar to add
+     * Store google metadata of a calendar already in database
+     * @param calendar complete google calendar
+     * @param account email of the account whose resource is updated, whichever account is active
+     * @param updateTime time (ms) calendar was fetched from google
      */
-    private void addResourceToDatabase(GoogleCalendar calendar) {
-        ContentValues values = new ContentValues();
-
-        values.put(ResourceColumns.NAME, calendar.getTitle());
-        values.put(ResourceColumns.LINK, calendar.getSelfLink());
-        values.put(ResourceColumns.EVENTS_LINK, calendar.getEventFeedLink());
-        values.put(ResourceColumns.DISPLAY_NAME, calendar.getTitle());
-        values.put(ResourceColumns.ACTIVE, false);
-        Uri resources = Uri.parse(AccountColumns.CONTENT_URI + "/" + mUserManager.getActiveUserId() +"/" + "resources"); 
-        Uri uri = mProvider.insert(resources, values);
-        Log.d(TAG, "New calendar inserted: " + uri);
+    private void updateResourceMetadata(GoogleCalendar calendar, String account, long updateTime) {
+        String previous = AccountScope.enter(account);
+        try {
+            mResourceDao.updateMetadata(getActiveUserRowId(), calendar.getSelfLink(), calendar.getId(), 
+                    calendar.getTimeZone() != null ? calendar.getTimeZone().getID() : null, calendar.getColor(), updateTime);
+        } finally {
+            AccountScope.exit(previous);
+        }
     }
-
     
     /**
      * Synchronizes google and database resources.
-     * Add new calendars from google.
-     * Delete old calendars stored in database 
+     * Add new calendars from google, update renamed or changed ones and
+     * delete old calendars stored in database. All changes are applied in a single batch 
+     * @return counts and elapsed time of each phase
      * @throws SyncFailedException When synchronizatoin fails
      */
-    public void syncResources() throws SyncFailedException{
+    public SyncSummary syncResources() throws SyncFailedException{
         
+        SyncSummary summary = new SyncSummary();
         try{
-            //Get Calendars from google (and add the new ones)
-            List<String> googleLinks = loadLinksFromGoogle();
-            
-            //build a where clause, to exclude calendars that exists in db, but not in google 
-            String where = buildWhereClause(googleLinks);
+            //Get Calendars from google
+            long start = System.currentTimeMillis();
+            List<GoogleCalendar> calendars = GoogleCalendarApiConnector.getInstance(mContext).getCalendars();
+            for(GoogleCalendar calendar: calendars){
+                //complete calendars are kept, so events can be created without asking google again
+                mMetadataCache.put(calendar, start);
+            }
+            long fetched = System.currentTimeMillis();
+            summary.setFetchTime(fetched - start);
 
             Uri resources = Uri.parse(AccountColumns.CONTENT_URI + "/" + mUserManager.getActiveUserId() +"/" + "resources"); 
+            ResourceReconciler reconciler = new ResourceReconciler(resources, start);
+            for (ResourceDao.Resource resource : mResourceDao.getResources(getActiveUserRowId(), false)) {
+                reconciler.addLocal(resource);
+            }
+            long loaded = System.currentTimeMillis();
+            summary.setLoadTime(loaded - fetched);
 
-            int result = mProvider.delete(resources, where, null);
-            Log.d(TAG, "Number of resources to delete: " + result);
+            ArrayList<ContentProviderOperation> operations = reconciler.reconcile(calendars, summary);
+            long diffed = System.currentTimeMillis();
+            summary.setDiffTime(diffed - loaded);
+
+            if (!operations.isEmpty()) {
+                mProvider.applyBatch(QuickMeetingContentProvider.AUTHORITY, operations);
+                invalidateActiveResources();
+            }
+            summary.setApplyTime(System.currentTimeMillis() - diffed);
+            Log.d(TAG, summary.toString());
             
         } catch (Exception e){
             throw new SyncFailedException("Cannot synchronize calendars with Google", e);
         }       
         
+        return summary;
     }
-
+    
     /**
-     * build a where clause, to exclude calendars that exists in db, but not in google 
-     * @param googleLinks calendars that exists in google
-     * @return where clause of type "not in ('http://calendar1...', 'http://calendar2');
+     * Synchronizes resources of an account with its own token, whichever account
+     * is active when the call runs
+     * @param email account email
+     * @return counts and elapsed time of each phase
+     * @throws SyncFailedException When synchronization fails
      */
-    private String buildWhereClause(List<String> googleLinks) {
-        
-        //Build Comma separated values (calendar links) 
-        StringBuilder sb = new StringBuilder();
-        for(String link : googleLinks){
-            sb.append("'").append(link).append("',");
-        }
-        if(sb.length()>0){
-            sb.deleteCharAt(sb.length()-1);
+    public SyncSummary syncResources(String email) throws SyncFailedException {
+        String previous = AccountScope.enter(email);
+        try {
+            return syncResources();
+        } finally {
+            AccountScope.exit(previous);
         }
-        
-        String where = ResourceColumns.LINK + " not in (" + sb.toString() + ")";
-        return where;
+    }
+    
+    /**
+     * Synchronizes resources of every account at the same time, each with its
+     * own token. An account which fails does not stop the others
+     * @return failure of each account which could not be synchronized, by email.
+     *         Empty if all of them were synchronized
+     */
+    public Map<String, SyncFailedException> syncAllAccounts() {
+        return mAccountSyncer.syncAll();
     }
     
     /**
@@ -251,14 +310,9 @@ public class ResourceManager {
      * @param state active/not active
      */
     public void changeResourceActive(String id, boolean state){
-        ContentValues values = new ContentValues();
-
-        values.put(ResourceColumns.ACTIVE, state);
-        
-        Uri resources = Uri.parse(AccountColumns.CONTENT_URI + "/" + mUserManager.getActiveUserId() + "/" + "resources/" + id); 
-        int result = mProvider.update(resources, values, null, null);
+        boolean result = mResourceDao.setActive(getActiveUserRowId(), Long.parseLong(id), state);
         Log.d(TAG, "Result update: " + result);
-        activeResources = null;
+        invalidateActiveResources();
     }
 
 
@@ -276,54 +330,60 @@ public class ResourceManager {
     }
     
     /**
-     * List of active calendar resources
+     * Load active calendar resources of an account from database
+     * @param userRowId account row id
+     * @param email account email
+     * @return active resources
      */
-    private  void refreshActiveResources(){
-        activeResources = new ArrayList<CalendarResource>();
-        resourceMap = new HashMap<String, GoogleCalendar>();
-
-        // Form an array specifying which columns to return. 
-        String[] projection = new String[] {
-                ResourceColumns._ID,
-                ResourceColumns.NAME,
-                ResourceColumns.LINK,
-                ResourceColumns.EVENTS_LINK
-        };
-
-        
-        // Get the base URI for the Resources table.
-        Uri resourceUri = Uri.parse(AccountColumns.CONTENT_URI + "/" + mUserManager.getActiveUserId() + "/" + "resources"); 
-
-        String where = ResourceColumns.ACTIVE + "=?";
-        String[] whereParams = new String[]{"1"};
-        
-        // Make the query. 
-        Cursor managedCursor = mProvider.query(resourceUri,
-                projection, // Which columns to return 
-                where,       // Which rows to return (all rows)
-                whereParams,       // Selection arguments (none)
-                // Put the results in ascending order by email
-                ResourceColumns._ID + " ASC");       
-
-        if (managedCursor.moveToFirst()) {
-
-            int idColumn   = managedCursor.getColumnIndex(ResourceColumns._ID);
-            int nameColumn = managedCursor.getColumnIndex(ResourceColumns.NAME); 
-            int linkColumn = managedCursor.getColumnIndex(ResourceColumns.LINK);
-            int eventsLinkColumn = managedCursor.getColumnIndex(ResourceColumns.EVENTS_LINK);
+    private AccountResources loadActiveResources(long userRowId, String email){
+        AccountResources resources = new AccountResources();
+        List<CalendarResource> activeResources = resources.mActiveResources;
+        Map<String, GoogleCalendar> resourceMap = resources.mResourceMap;
+
+        for (ResourceDao.Resource resource : mResourceDao.getResources(userRowId, true)) {
+            String id = Long.toString(resource.getId());
+            String name = resource.getName();
+            String link = resource.getLink();
+            String eventsLink = resource.getEventsLink();
+            GoogleCalendar gCalendar = new GoogleCalendar(id,name,link, eventsLink);
+            activeResources.add(gCalendar);
+            resourceMap.put(id,gCalendar);
+            mResourceAccounts.put(id, email);
             
-            do {
-                String id = managedCursor.getString(idColumn);
-                String name = managedCursor.getString(nameColumn);
-                String link = managedCursor.getString(linkColumn);
-                String eventsLink = managedCursor.getString(eventsLinkColumn);
-                GoogleCalendar gCalendar = new GoogleCalendar(id,name,link, eventsLink);
-                activeResources.add(gCalendar);
-                resourceMap.put(id,gCalendar);
+            //Persisted metadata, so first booking does not need to ask google
+            if (resource.getCalendarId() != null) {
+                GoogleCalendar completeCalendar = new GoogleCalendar(resource.getCalendarId(), name, link, eventsLink);
+                if (resource.getTimeZone() != null) {
+                    completeCalendar.setTimeZone(TimeZone.getTimeZone(resource.getTimeZone()));
+                }
+                completeCalendar.setColor(resource.getColor());
+                mMetadataCache.put(completeCalendar, resource.getMetadataUpdated());
+            }
 
-                Log.d(TAG, "Resource calendar loaded from db: " + id + "/" + name );
-            } while (managedCursor.moveToNext());
+            Log.d(TAG, "Resource calendar loaded from db: " + id + "/" + name );
         }
+        return resources;
+    }
+
+    /**
+     * Return a list of active resources of every account, in order of account
+     * creation, so columns keep their place between calls. An account whose 
+     * resources cannot be loaded is skipped
+     * @return List of active resources
+     */
+    public List<CalendarResource> getAllActiveResources() {
+        List<CalendarResource> resources = new ArrayList<CalendarResource>();
+        for (Session session : mUserManager.getSessions()) {
+            String previous = AccountScope.enter(session.getEmail());
+            try {
+                resources.addAll(getAccountResources().mActiveResources);
+            } catch (Exception e) {
+                Log.e(TAG, "Cannot load resources of " + session.getEmail() + ": " + e);
+            } finally {
+                AccountScope.exit(previous);
+            }
+        }
+        return resources;
     }
 
     /**
@@ -332,14 +392,11 @@ public class ResourceManager {
      * @throws ResourceNotAvaiableException In case of google invokation failure
      */
     public List<CalendarResource> getActiveResources() throws ResourceNotAvaiableException{
-        if (activeResources == null){
-            try{
-                refreshActiveResources();
-            }catch (Exception e) {
-                throw new ResourceNotAvaiableException("Cannot get calendars from Google",e);
-            }
+        try{
+            return getAccountResources().mActiveResources;
+        }catch (Exception e) {
+            throw new ResourceNotAvaiableException("Cannot get calendars from Google",e);
         }
-        return activeResources;
     }
     
     /**
@@ -354,16 +411,17 @@ public class ResourceManager {
         
         List<? extends Event> events = null; 
         
-        //Get gCalendar from a map that caches database calendar (it's a 'generic' calendar)
-        GoogleCalendar gCalendar = getResourceMap().get(resourceId);
-        
-        GoogleCalendarApiConnector gConector = GoogleCalendarApiConnector.getInstance(mContext);
-        
+        String previous = enterResourceAccount(resourceId);
         try{
+            //Get gCalendar from a map that caches database calendar (it's a 'generic' calendar)
+            GoogleCalendar gCalendar = getResourceMap().get(resourceId);
             
-            events = gConector.getEvents(gCalendar, begin, end);
+            //Only tiles of the window which are not cached are downloaded
+            events = mTileCache.getEvents(gCalendar, begin, end);
         } catch (Exception e) {
             throw new ResourceNotAvaiableException(e);
+        } finally {
+            AccountScope.exit(previous);
         }
         
         return events;
@@ -371,41 +429,188 @@ public class ResourceManager {
     }
     
     /**
-     * Get resource link from database
-     * @param resourceId id of resource
-     * @return link
+     * Get events of several resources. Requests are sent concurrently, so a slow
+     * resource does not delay the others. Prioritized resources (e.g. rooms on
+     * screen) are requested first
+     * @param resources resources to fetch
+     * @param prioritizedIds ids of resources to fetch first, may be null
+     * @param begin Calendar begin
+     * @param end Calendar end
+     * @return events of each resource, and resources whose fetch failed
      */
-    public String getResourceLinkFromDatabase(String resourceId) {
+    public EventFetchResult getEvents(Collection<? extends CalendarResource> resources, Collection<String> prioritizedIds,
+            Calendar begin, Calendar end) {
+        //load resource map before workers use it
+        getResourceMap();
+        EventFetchResult result = mEventFetcher.fetch(resources, prioritizedIds, begin, end);
+        //stored for next cold start, without delaying the caller
+        mEventStore.storeAsync(result, begin, end);
+        return result;
+    }
+    
+    /**
+     * Get last known events of several resources from database, without calling google. 
+     * They can be shown while up to date events are fetched
+     * @param resources resources to load
+     * @param begin Calendar begin
+     * @param end Calendar end
+     * @return stored events of each resource. Resources without stored events are not included
+     */
+    public EventFetchResult getStoredEvents(Collection<? extends CalendarResource> resources, Calendar begin, Calendar end) {
+        long startTime = System.currentTimeMillis();
+        EventFetchResult result = new EventFetchResult();
+        for (Map.Entry<String, List<Event>> entry : mEventStore.load(resources, begin, end).entrySet()) {
+            result.putEvents(entry.getKey(), entry.getValue());
+        }
+        result.setElapsedTime(System.currentTimeMillis() - startTime);
+        Log.d(TAG, "Stored events of " + result.getAllEvents().size() + " resources loaded in " + result.getElapsedTime() + " ms");
+        return result;
+    }
+    
+    /**
+     * Get busy intervals of several resources, asking google free/busy data of 
+     * many resources of the same account in each request. Intervals have no 
+     * details, they can be fetched with getEventDetails
+     * @param resources resources to fetch
+     * @param begin Calendar begin
+     * @param end Calendar end
+     * @return busy intervals (BusyEvent) of each resource, and resources whose fetch failed
+     */
+    public EventFetchResult getBusyIntervals(Collection<? extends CalendarResource> resources, Calendar begin, Calendar end) {
+        long startTime = System.currentTimeMillis();
+        EventFetchResult result = new EventFetchResult();
+        GoogleCalendarApiConnector gConector = GoogleCalendarApiConnector.getInstance(mContext);
         
-        String link = null;
-        String[] projection = new String[] {
-                ResourceColumns._ID,
-                ResourceColumns.LINK
-        };
-
-        // Get the base URI for the Resources table.
-        Uri resourceUri = Uri.parse(AccountColumns.CONTENT_URI + "/" + mUserManager.getActiveUserId() + "/" + "resource" + "/" + resourceId); 
-
+        //a request is made with the token of one account
+        Map<String, List<CalendarResource>> resourcesByAccount = new LinkedHashMap<String, List<CalendarResource>>();
+        for (CalendarResource resource : resources) {
+            String account = mResourceAccounts.get(resource.getId());
+            List<CalendarResource> accountResources = resourcesByAccount.get(account);
+            if (accountResources == null) {
+                accountResources = new ArrayList<CalendarResource>();
+                resourcesByAccount.put(account, accountResources);
+            }
+            accountResources.add(resource);
+        }
         
-        // Make the query. 
-        Cursor managedCursor = mProvider.query(resourceUri,
-                projection, // Which columns to return 
-                null,       // Which rows to return (all rows)
-                null,       // Selection arguments (none)
-                // Put the results in ascending order by email
-                ResourceColumns._ID + " ASC");       
-
-        if (managedCursor.moveToFirst()) {
-
-            int idColumn   = managedCursor.getColumnIndex(ResourceColumns._ID);
-            int nameColumn = managedCursor.getColumnIndex(ResourceColumns.NAME);
-
-            String id = managedCursor.getString(idColumn);
-            link = managedCursor.getString(nameColumn);
-            
-            Log.d(TAG, "Resource calendar loaded from db: " + id + "/" + link );
+        for (Map.Entry<String, List<CalendarResource>> entry : resourcesByAccount.entrySet()) {
+            String previous = AccountScope.enter(entry.getKey());
+            try {
+                List<CalendarResource> chunk = new ArrayList<CalendarResource>();
+                for (CalendarResource resource : entry.getValue()) {
+                    chunk.add(resource);
+                    if (chunk.size() == GoogleCalendarApiConnector.MAX_FREE_BUSY_CALENDARS) {
+                        fetchBusyIntervals(gConector, chunk, begin, end, result);
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    fetchBusyIntervals(gConector, chunk, begin, end, result);
+                }
+            } finally {
+                AccountScope.exit(previous);
+            }
         }
         
+        result.setElapsedTime(System.currentTimeMillis() - startTime);
+        Log.d(TAG, "Busy intervals of " + resources.size() + " resources in " + result.getElapsedTime() + " ms, " 
+                + result.getFailures().size() + " failed");
+        return result;
+    }
+    
+    /**
+     * Get busy intervals of a chunk of resources with a single request
+     * @param gConector google connector
+     * @param chunk resources of the request
+     * @param begin Calendar begin
+     * @param end Calendar end
+     * @param result result to fill
+     */
+    private void fetchBusyIntervals(GoogleCalendarApiConnector gConector, List<CalendarResource> chunk, 
+            Calendar begin, Calendar end, EventFetchResult result) {
+        try {
+            Map<String, List<BusyEvent>> busyEvents = gConector.getFreeBusy(chunk, begin, end);
+            for (CalendarResource resource : chunk) {
+                List<BusyEvent> events = busyEvents.get(resource.getId());
+                if (events != null) {
+                    result.putEvents(resource.getId(), events);
+                } else {
+                    result.putFailure(resource.getId(), new ResourceNotAvaiableException("No free/busy data of " + resource.getTitle()));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot get free/busy data: " + e);
+            for (CalendarResource resource : chunk) {
+                result.putFailure(resource.getId(), e);
+            }
+        }
+    }
+    
+    /**
+     * Get full events of a busy interval
+     * @param busyEvent busy interval of a resource
+     * @return events of the resource in the interval
+     * @throws ResourceNotAvaiableException In case of google invocation failure
+     */
+    public List<? extends Event> getEventDetails(BusyEvent busyEvent) throws ResourceNotAvaiableException {
+        String previous = enterResourceAccount(busyEvent.getResourceId());
+        try {
+            GoogleCalendar gCalendar = getResourceMap().get(busyEvent.getResourceId());
+            if (gCalendar == null) {
+                throw new ResourceNotAvaiableException("Unknown resource " + busyEvent.getResourceId());
+            }
+            GoogleCalendarApiConnector gConector = GoogleCalendarApiConnector.getInstance(mContext);
+            try {
+                return gConector.getEvents(gCalendar, busyEvent.getBegin(), busyEvent.getEnd());
+            } catch (Exception e) {
+                throw new ResourceNotAvaiableException(e);
+            }
+        } finally {
+            AccountScope.exit(previous);
+        }
+    }
+    
+    /**
+     * Change the maximum number of simultaneous requests when getting events of several resources
+     * @param maxConcurrentRequests maximum number of simultaneous requests
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        mEventFetcher.setMaxConcurrentRequests(maxConcurrentRequests);
+    }
+    
+    /**
+     * Enable or disable incremental synchronization of events. When enabled, only 
+     * events changed since last poll are downloaded for cached tiles
+     * @param enabled true to merge changes, false to download stale tiles again
+     */
+    public void setIncrementalSyncEnabled(boolean enabled) {
+        mTileCache.setDeltaRevalidation(enabled);
+    }
+    
+    /**
+     * Change the time cached events are fresh
+     * @param ttl time (ms) a cached tile of events is fresh
+     */
+    public void setEventCacheTtl(long ttl) {
+        mTileCache.setTtl(ttl);
+    }
+    
+    /**
+     * Change the memory available to cached events. Least recently used tiles are dropped
+     * @param memoryBudget memory budget (bytes)
+     */
+    public void setEventCacheMemoryBudget(long memoryBudget) {
+        mTileCache.setMemoryBudget(memoryBudget);
+    }
+    
+    /**
+     * Get resource link from database
+     * @param resourceId id of resource
+     * @return link
+     */
+    public String getResourceLinkFromDatabase(String resourceId) {
+        String link = mResourceDao.getLink(getActiveUserRowId(), Long.parseLong(resourceId));
+        Log.d(TAG, "Resource calendar loaded from db: " + resourceId + "/" + link );
         return link;
     }
     
@@ -418,22 +623,36 @@ public class ResourceManager {
      */
     public Event createEvent(String resourceId, Event event) throws ResourceNotAvaiableException{
        
-        //Get gCalendar from a map that caches database calendar (it's a 'generic' calendar)
-        GoogleCalendar gCalendar = getResourceMap().get(resourceId);
-
         GoogleCalendarApiConnector gConector = GoogleCalendarApiConnector.getInstance(mContext);
 
+        //Booked with the account which owns the resource
+        String previous = enterResourceAccount(resourceId);
+        
         Event result = null;
         try{
-            //completeGCalendar has more data than stored in database, so we have to call google
-            CalendarResource completeGCalendar = gConector.getCalendarByLink(gCalendar.getSelfLink());
+            //Get gCalendar from a map that caches database calendar (it's a 'generic' calendar)
+            GoogleCalendar gCalendar = getResourceMap().get(resourceId);
+
+            //completeGCalendar has more data than gCalendar. It is cached, so google is only called if it is missing.
+            //A refresh in background is stored for the account which owns the resource, even if another one is active by then
+            String account = getResourceAccount(resourceId);
+            if (account == null) {
+                account = mUserManager.getActiveUserEmail();
+            }
+            CalendarResource completeGCalendar = mMetadataCache.getOrFetch(gCalendar.getSelfLink(), account);
+            if (completeGCalendar == null) {
+                throw new ResourceNotAvaiableException("Cannot get calendar " + gCalendar.getTitle());
+            }
         
             result = gConector.setEvent(completeGCalendar, new GoogleEvent(event));
             
             Log.d(TAG, "CREATED => " + result);
+            mTileCache.invalidate(resourceId, event.getBegin(), event.getEnd());
             
         } catch (Exception e) {
             throw new ResourceNotAvaiableException("Error invoking google while creating an event",e);
+        } finally {
+            AccountScope.exit(previous);
         }
         if (result == null){
             throw new ResourceNotAvaiableException("Error creation google event");
@@ -445,15 +664,22 @@ public class ResourceManager {
 
     /**
      * Delete an event
+     * @param resourceId id of resource of the event, may be null for active account
      * @param event Event to delete. Only ID of event is needed
      * @throws ResourceNotAvaiableException In case of google invocation failure
      */
-    public void deleteEvent(Event event) throws ResourceNotAvaiableException{
+    public void deleteEvent(String resourceId, Event event) throws ResourceNotAvaiableException{
         GoogleCalendarApiConnector gConector = GoogleCalendarApiConnector.getInstance(mContext);
+        String previous = enterResourceAccount(resourceId);
         try{
             gConector.deleteEvent(new GoogleEvent(event));
         } catch (Exception e) {
-            throw new ResourceNotAvaiableException("Error invoking google while creating an event",e);
+            throw new ResourceNotAvaiableException("Error invoking google while deleting an event",e);
+        } finally {
+            AccountScope.exit(previous);
         }
+        // only forget the event once google has deleted it
+        mTileCache.invalidateEvent(event.getId());
+        mEventStore.removeAsync(event.getId());
     }
 }
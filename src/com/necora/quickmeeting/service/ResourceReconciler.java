@@ -0,0 +1,202 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.necora.quickmeeting.contentprovider.ResourceColumns;
+import com.necora.quickmeeting.contentprovider.ResourceDao.Resource;
+import com.necora.quickmeeting.objects.google.GoogleCalendar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the changes needed to make the calendars stored in database match 
+ * the calendars in google. Calendars are matched by link using hash sets, so 
+ * the diff is linear in the number of calendars. Changes are returned as a 
+ * batch of parameterized operations.
+ * An instance is used for a single synchronization.
+ * @author vitor
+ */
+class ResourceReconciler {
+
+    /** Resources uri of the user being synchronized */
+    private final Uri mResourcesUri;
+    /** Time (ms) calendars were fetched from google */
+    private final long mUpdateTime;
+    /** Stored calendars by link */
+    private final Map<String, Resource> mLocal = new HashMap<String, Resource>();
+    /** Stored calendars repeating a link already in mLocal */
+    private final List<Resource> mDuplicates = new ArrayList<Resource>();
+
+    /**
+     * Constructor
+     * @param resourcesUri resources uri of the user being synchronized
+     * @param updateTime time (ms) calendars were fetched from google
+     */
+    ResourceReconciler(Uri resourcesUri, long updateTime) {
+        mResourcesUri = resourcesUri;
+        mUpdateTime = updateTime;
+    }
+
+    /**
+     * Add a calendar stored in database
+     * @param resource stored calendar
+     */
+    void addLocal(Resource resource) {
+        if (mLocal.containsKey(resource.getLink())) {
+            mDuplicates.add(resource);
+        } else {
+            mLocal.put(resource.getLink(), resource);
+        }
+    }
+
+    /**
+     * Compute the change sets. New calendars are inserted, calendars renamed, with a
+     * new events feed or new metadata are updated, and calendars not in google 
+     * (or stored twice) are deleted. Can only be called once
+     * @param remote calendars from google
+     * @param summary summary to fill with the size of each change set
+     * @return operations to apply, in a single batch
+     */
+    ArrayList<ContentProviderOperation> reconcile(List<GoogleCalendar> remote, SyncSummary summary) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        Set<String> seen = new HashSet<String>(remote.size() * 2);
+
+        for (GoogleCalendar calendar : remote) {
+            String link = calendar.getSelfLink();
+            if (link == null || !seen.add(link)) {
+                continue;
+            }
+            Resource local = mLocal.remove(link);
+            if (local == null) {
+                operations.add(newInsert(calendar));
+                summary.incrementInserted();
+            } else if (hasChanged(local, calendar)) {
+                operations.add(newUpdate(local, calendar));
+                summary.incrementUpdated();
+            } else {
+                summary.incrementUnchanged();
+            }
+        }
+
+        //calendars left were not in google
+        List<Resource> deleted = new ArrayList<Resource>(mLocal.values());
+        deleted.addAll(mDuplicates);
+        for (Resource local : deleted) {
+            operations.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(mResourcesUri, local.getId())).build());
+            summary.incrementDeleted();
+        }
+        mLocal.clear();
+        mDuplicates.clear();
+
+        if (summary.getUnchanged() > 0) {
+            //unchanged metadata is still confirmed by google. One statement for all rows
+            operations.add(ContentProviderOperation.newUpdate(mResourcesUri)
+                    .withValue(ResourceColumns.METADATA_UPDATED, mUpdateTime).build());
+        }
+        return operations;
+    }
+
+    /**
+     * @param local stored calendar
+     * @param calendar same calendar from google
+     * @return true if stored row must be updated
+     */
+    private boolean hasChanged(Resource local, GoogleCalendar calendar) {
+        return !equals(local.getName(), calendar.getTitle())
+                || !equals(local.getEventsLink(), calendar.getEventFeedLink())
+                || !equals(local.getCalendarId(), calendar.getId())
+                || !equals(local.getTimeZone(), getTimeZoneId(calendar))
+                || !equals(local.getColor(), calendar.getColor());
+    }
+
+    /**
+     * Build the operation that adds a google calendar to database
+     * @param calendar calendar to add
+     * @return insert operation
+     */
+    private ContentProviderOperation newInsert(GoogleCalendar calendar) {
+        ContentValues values = new ContentValues();
+        values.put(ResourceColumns.NAME, calendar.getTitle());
+        values.put(ResourceColumns.LINK, calendar.getSelfLink());
+        values.put(ResourceColumns.EVENTS_LINK, calendar.getEventFeedLink());
+        values.put(ResourceColumns.DISPLAY_NAME, calendar.getTitle());
+        values.put(ResourceColumns.ACTIVE, false);
+        putMetadata(values, calendar, mUpdateTime);
+        return ContentProviderOperation.newInsert(mResourcesUri).withValues(values).build();
+    }
+
+    /**
+     * Build the operation that updates a stored calendar. Display name follows the
+     * name only if it was not changed
+     * @param local stored calendar
+     * @param calendar same calendar from google
+     * @return update operation
+     */
+    private ContentProviderOperation newUpdate(Resource local, GoogleCalendar calendar) {
+        ContentValues values = new ContentValues();
+        values.put(ResourceColumns.NAME, calendar.getTitle());
+        values.put(ResourceColumns.EVENTS_LINK, calendar.getEventFeedLink());
+        if (local.getDisplayName() == null || local.getDisplayName().equals(local.getName())) {
+            values.put(ResourceColumns.DISPLAY_NAME, calendar.getTitle());
+        }
+        putMetadata(values, calendar, mUpdateTime);
+        return ContentProviderOperation.newUpdate(ContentUris.withAppendedId(mResourcesUri, local.getId()))
+                .withValues(values).build();
+    }
+
+    /**
+     * Add google metadata columns of a calendar
+     * @param values values to fill
+     * @param calendar complete google calendar
+     * @param updateTime time (ms) calendar was fetched from google
+     */
+    static void putMetadata(ContentValues values, GoogleCalendar calendar, long updateTime) {
+        values.put(ResourceColumns.CALENDAR_ID, calendar.getId());
+        values.put(ResourceColumns.TIMEZONE, getTimeZoneId(calendar));
+        values.put(ResourceColumns.COLOR, calendar.getColor());
+        values.put(ResourceColumns.METADATA_UPDATED, updateTime);
+    }
+
+    /**
+     * @param calendar google calendar
+     * @return time zone id of calendar, or null
+     */
+    private static String getTimeZoneId(GoogleCalendar calendar) {
+        return calendar.getTimeZone() != null ? calendar.getTimeZone().getID() : null;
+    }
+
+    /**
+     * Null safe equals
+     * @param a first string
+     * @param b second string
+     * @return true if both are null or equal
+     */
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.necora.quickmeeting.service;
+
+import java.util.Date;
+
+/**
+ * Signed-in account and its tokens. Immutable: a new session is published as
+ * a whole on login, token refresh and account switch, so readers never see
+ * the token of one account with the email of another.
+ * @author vitor
+ */
+public final class Session {
+
+    /** Account row id */
+    private final String mUserId;
+    /** Account email */
+    private final String mEmail;
+    /** OAuth access token */
+    private final String mAccessToken;
+    /** OAuth refresh token */
+    private final String mRefreshToken;
+    /** Expiration date of access token */
+    private final Date mExpirationDate;
+
+    /**
+     * Constructor
+     * @param userId account row id
+     * @param email account email
+     * @param accessToken OAuth access token
+     * @param refreshToken OAuth refresh token
+     * @param expirationDate expiration date of access token
+     */
+    public Session(String userId, String email, String accessToken, String refreshToken, Date expirationDate) {
+        mUserId = userId;
+        mEmail = email;
+        mAccessToken = accessToken;
+        mRefreshToken = refreshToken;
+        //Date is mutable, keep a private copy
+        mExpirationDate = new Date(expirationDate.getTime());
+    }
+
+    /**
+     * @param accessToken new access token
+     * @param expirationDate expiration date of new access token
+     * @return session of same account with a new access token
+     */
+    public Session withAccessToken(String accessToken, Date expirationDate) {
+        return new Session(mUserId, mEmail, accessToken, mRefreshToken, expirationDate);
+    }
+
+    /**
+     * @param margin time (ms) the token must still be valid
+     * @return true if access token is valid for at least the margin
+     */
+    public boolean isValid(long margin) {
+        return System.currentTimeMillis() + margin < mExpirationDate.getTime();
+    }
+
+    /**
+     * @return account row id
+     */
+    public String getUserId() {
+        return mUserId;
+    }
+
+    /**
+     * @return account email
+     */
+    public String getEmail() {
+        return mEmail;
+    }
+
+    /**
+     * @return OAuth access token
+     */
+    public String getAccessToken() {
+        return mAccessToken;
+    }
+
+    /**
+     * @return OAuth refresh token
+     */
+    public String getRefreshToken() {
+        return mRefreshToken;
+    }
+
+    /**
+     * @return expiration time (ms) of access token
+     */
+    public long getExpirationTime() {
+        return mExpirationDate.getTime();
+    }
+}
@@ -0,0 +1,154 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+/**
+ * Result of a resource synchronization: number of calendars in each change set
+ * and elapsed time of each phase
+ * @author vitor
+ */
+public class SyncSummary {
+
+    /** Calendars added to database */
+    private int mInserted;
+    /** Calendars renamed, moved or with new metadata */
+    private int mUpdated;
+    /** Calendars already up to date */
+    private int mUnchanged;
+    /** Calendars removed from database */
+    private int mDeleted;
+    /** Time (ms) fetching calendars from google */
+    private long mFetchTime;
+    /** Time (ms) loading calendars from database */
+    private long mLoadTime;
+    /** Time (ms) computing change sets */
+    private long mDiffTime;
+    /** Time (ms) applying changes to database */
+    private long mApplyTime;
+
+    /**
+     * @return calendars added to database
+     */
+    public int getInserted() {
+        return mInserted;
+    }
+
+    /**
+     * @return calendars renamed, moved or with new metadata
+     */
+    public int getUpdated() {
+        return mUpdated;
+    }
+
+    /**
+     * @return calendars already up to date
+     */
+    public int getUnchanged() {
+        return mUnchanged;
+    }
+
+    /**
+     * @return calendars removed from database
+     */
+    public int getDeleted() {
+        return mDeleted;
+    }
+
+    /**
+     * @return time (ms) fetching calendars from google
+     */
+    public long getFetchTime() {
+        return mFetchTime;
+    }
+
+    /**
+     * @return time (ms) loading calendars from database
+     */
+    public long getLoadTime() {
+        return mLoadTime;
+    }
+
+    /**
+     * @return time (ms) computing change sets
+     */
+    public long getDiffTime() {
+        return mDiffTime;
+    }
+
+    /**
+     * @return time (ms) applying changes to database
+     */
+    public long getApplyTime() {
+        return mApplyTime;
+    }
+
+    /**
+     * @return total synchronization time (ms)
+     */
+    public long getTotalTime() {
+        return mFetchTime + mLoadTime + mDiffTime + mApplyTime;
+    }
+
+    void incrementInserted() {
+        mInserted++;
+    }
+
+    void incrementUpdated() {
+        mUpdated++;
+    }
+
+    void incrementUnchanged() {
+        mUnchanged++;
+    }
+
+    void incrementDeleted() {
+        mDeleted++;
+    }
+
+    void setFetchTime(long fetchTime) {
+        mFetchTime = fetchTime;
+    }
+
+    void setLoadTime(long loadTime) {
+        mLoadTime = loadTime;
+    }
+
+    void setDiffTime(long diffTime) {
+        mDiffTime = diffTime;
+    }
+
+    void setApplyTime(long applyTime) {
+        mApplyTime = applyTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[SYNC] {");
+            sb.append("INSERTED = ").append(mInserted).append("; ");
+            sb.append("UPDATED = ").append(mUpdated).append("; ");
+            sb.append("UNCHANGED = ").append(mUnchanged).append("; ");
+            sb.append("DELETED = ").append(mDeleted).append("; ");
+            sb.append("FETCH = ").append(mFetchTime).append("ms; ");
+            sb.append("LOAD = ").append(mLoadTime).append("ms; ");
+            sb.append("DIFF = ").append(mDiffTime).append("ms; ");
+            sb.append("APPLY = ").append(mApplyTime).append("ms; ");
+        sb.append("}");
+        return sb.toString();
+    }
+}
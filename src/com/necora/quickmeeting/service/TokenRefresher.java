@@ -0,0 +1,185 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.service;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes an access token ahead of its expiration, and makes concurrent
+ * callers who find it expired share a single refresh (single flight): the
+ * first caller runs it, the others wait for its result.
+ * There is one refresher per account; all of them share one timer thread.
+ * @author vitor
+ */
+class TokenRefresher {
+
+    /**
+     * Performs the refresh
+     */
+    interface Refresh {
+        /**
+         * @return true if token does not need a refresh
+         */
+        boolean isFresh();
+
+        /**
+         * Get a new token and publish it
+         * @return true if token was refreshed
+         */
+        boolean refresh();
+    }
+
+    /** Log tag */
+    private static final String TAG = TokenRefresher.class.getName();
+
+    /** Time (ms) before expiration a token is refreshed */
+    static final long REFRESH_MARGIN = 5 * 60 * 1000L;
+    /** Time (ms) until a failed background refresh is retried */
+    private static final long RETRY_DELAY = 60 * 1000L;
+
+    /** Timer of background refreshes, shared by all refreshers */
+    private static ScheduledThreadPoolExecutor sTimer;
+
+    /** Performs the refresh */
+    private final Refresh mRefresh;
+
+    /** Refresh in flight, null if none */
+    private FutureTask<Boolean> mInFlight;
+    /** Next background refresh, null if none */
+    private ScheduledFuture<?> mScheduled;
+
+    /**
+     * Constructor
+     * @param refresh performs the refresh
+     */
+    TokenRefresher(Refresh refresh) {
+        mRefresh = refresh;
+    }
+
+    /**
+     * @return timer shared by all refreshers, created on first use
+     */
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (sTimer == null) {
+            sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "TokenRefresher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimer;
+    }
+
+    /**
+     * Refresh the token now, unless it is fresh. If a refresh is in flight, wait
+     * for it instead of starting another one
+     * @return true if token is fresh or was refreshed
+     */
+    boolean refreshNow() {
+        FutureTask<Boolean> task;
+        boolean runHere = false;
+        synchronized (this) {
+            if (mInFlight == null) {
+                mInFlight = new FutureTask<Boolean>(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        //A refresh may have finished just before this one started
+                        return mRefresh.isFresh() || mRefresh.refresh();
+                    }
+                });
+                runHere = true;
+            }
+            task = mInFlight;
+        }
+
+        if (runHere) {
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    mInFlight = null;
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Token refresh failed", e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Schedule a background refresh ahead of expiration. Replaces the scheduled one
+     * @param expirationTime expiration time (ms) of current token
+     */
+    synchronized void schedule(long expirationTime) {
+        scheduleIn(Math.max(0, expirationTime - REFRESH_MARGIN - System.currentTimeMillis()));
+    }
+
+    /**
+     * Cancel the scheduled background refresh
+     */
+    synchronized void cancel() {
+        if (mScheduled != null) {
+            mScheduled.cancel(false);
+            mScheduled = null;
+            getTimer().purge();
+        }
+    }
+
+    /**
+     * Schedule a background refresh
+     * @param delay time (ms) until the refresh
+     */
+    private void scheduleIn(long delay) {
+        cancel();
+        Log.d(TAG, "Token refresh in " + delay / 1000 + " s");
+        mScheduled = getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (TokenRefresher.this) {
+                    mScheduled = null;
+                }
+                //Success schedules next refresh through the new token
+                if (!refreshNow()) {
+                    synchronized (TokenRefresher.this) {
+                        if (mScheduled == null) {
+                            scheduleIn(RETRY_DELAY);
+                        }
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -26,10 +26,13 @@ import android.net.Uri;
 import android.util.Log;
 
 import com.necora.quickmeeting.contentprovider.AccountColumns;
+import com.necora.quickmeeting.contentprovider.AccountDao;
 import com.necora.quickmeeting.contentprovider.QuickMeetingContentProvider;
 import com.necora.quickmeeting.contentprovider.ResourceColumns;
 import com.necora.quickmeeting.objects.User;
 import com.necora.quickmeeting.util.ConnectionUtils;
+import com.necora.quickmeeting.util.Rfc3339;
+import com.necora.quickmeeting.util.TaskExecutor;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpException;
@@ -52,11 +55,16 @@ import org.json.JSONTokener;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.SimpleFormatter;
 
 import javax.net.ssl.HostnameVerifier;
@@ -67,45 +75,94 @@ public class UserManager {
 
      static private final String TAG = UserManager.class.toString();
 
+    /** Time (ms) before expiration a token is no longer handed out, for clock skew and request time */
+    static private final long EXPIRATION_MARGIN = 60 * 1000L;
+
+    /** Order of accounts: by row id, which follows creation, then by email */
+    static private final Comparator<Session> SESSION_ORDER = new Comparator<Session>() {
+        @Override
+        public int compare(Session lhs, Session rhs) {
+            long lhsId = parseUserId(lhs.getUserId());
+            long rhsId = parseUserId(rhs.getUserId());
+            if (lhsId != rhsId) {
+                return lhsId < rhsId ? -1 : 1;
+            }
+            return String.valueOf(lhs.getEmail()).compareToIgnoreCase(String.valueOf(rhs.getEmail()));
+        }
+    };
+
     /** instance reference */
     private static UserManager sInstance = null;
         
-    /** Active user id */
-    private String mUserId;
-    
-    /** Active user Mail */
-    private String mUserMail = "";
-    
-    /** Active user access Token */
-    private String mAccessToken;
+    /**
+     * Active user session, replaced as a whole. Readers never lock; writers
+     * (login, account switch) hold the manager lock, token refreshes publish
+     * with compare and set. Null if there is no user
+     */
+    private final AtomicReference<Session> mSession = new AtomicReference<Session>();
     
-    /** Refresh Token value */
-    private String mRefreshToken;
+    /**
+     * Last session of every account, by lower case email. Switching to an 
+     * account only swaps the active session
+     */
+    private final ConcurrentHashMap<String, Session> mSessions = new ConcurrentHashMap<String, Session>();
     
-    /** ExpirationDate value */
-    private Date   mExpirationDate;
+    /** 
+     * Refresher of each account, by lower case email. Only the token of the 
+     * active account is refreshed ahead of expiration; the others on use
+     */
+    private final ConcurrentHashMap<String, TokenRefresher> mTokenRefreshers = 
+            new ConcurrentHashMap<String, TokenRefresher>();
     
-    /** Data Formatter */
-    private SimpleDateFormat mDateFormatter;
+    /** Zone of stored expiration dates */
+    static private final TimeZone STORAGE_ZONE = TimeZone.getTimeZone("UTC");
 
     /** QuickMeeting Provider object */
     private ContentResolver mProvider;    
     
+    /** In-process access to stored accounts */
+    private AccountDao mAccountDao;
+    
     /**
      * Internal Constructor
      */
     private UserManager(Context context) {
         
-        // use the sqlite format for date
-        mDateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-        
-        
         //TODO return exception if it is null
         mProvider = context.getContentResolver();
+        mAccountDao = AccountDao.getInstance(context);
         
         recoverDataFromDataBase();
     }
     
+    /**
+     * Get the token refresher of an account, created on first use
+     * @param key key of account in session cache
+     * @return token refresher
+     */
+    private TokenRefresher getTokenRefresher(final String key) {
+        TokenRefresher refresher = mTokenRefreshers.get(key);
+        if (refresher == null) {
+            refresher = new TokenRefresher(new TokenRefresher.Refresh() {
+                @Override
+                public boolean isFresh() {
+                    Session session = mSessions.get(key);
+                    return session != null && session.isValid(TokenRefresher.REFRESH_MARGIN);
+                }
+                
+                @Override
+                public boolean refresh() {
+                    return refreshToken(key);
+                }
+            });
+            TokenRefresher current = mTokenRefreshers.putIfAbsent(key, refresher);
+            if (current != null) {
+                refresher = current;
+            }
+        }
+        return refresher;
+    }
+    
     private String getUserMail(String accessToken) {
         
         String userMail = null;
@@ -140,61 +197,37 @@ public class UserManager {
     }
     
     /**
-     * Get data from database
+     * Get data from database: sessions of all accounts, and the active one
      * @return true if data is recovered, false otherwise
      */
-    private boolean recoverDataFromDataBase(){
+    private synchronized boolean recoverDataFromDataBase(){
         
         // return value
         boolean dataRecovered = false;
         
-        // Form an array specifying which columns to return. 
-        String[] projection = new String[] {
-                AccountColumns._ID,
-                AccountColumns.EMAIL,
-                AccountColumns.ACCESS_TOKEN,
-                AccountColumns.REFRESH_TOKEN,
-                AccountColumns.EXPIRATION_DATE
-        };
-        String whereClause = AccountColumns.ACTIVE_USER + " = ?";
-        String[] whereArgs = new String[]{"1"};
-        
-        // Make the query. 
-        Cursor managedCursor = mProvider.query(
-                AccountColumns.CONTENT_URI, // uri                
-                projection,           // Which columns to return 
-                whereClause,          // Which rows to return (active user)
-                whereArgs,            // Selection arguments 
-                null                  // Put the results in ascending order by email
-        );       
-        
-        // is there at least one user?
-        if (managedCursor.moveToFirst()) {
-            
-            int userIdColumn         = managedCursor.getColumnIndex(AccountColumns._ID);
-            int userMailColumn       = managedCursor.getColumnIndex(AccountColumns.EMAIL);
-            int accessTokenColumn    = managedCursor.getColumnIndex(AccountColumns.ACCESS_TOKEN);
-            int refreshTokenColumn   = managedCursor.getColumnIndex(AccountColumns.REFRESH_TOKEN);
-            int expirationDateColumn = managedCursor.getColumnIndex(AccountColumns.EXPIRATION_DATE);
-                        
+        mSessions.clear();
+        for (AccountDao.Account account : mAccountDao.getAccounts()) {
+            Date expirationDate;
             try {
-                mUserId         = managedCursor.getString(userIdColumn);
-                mUserMail       = managedCursor.getString(userMailColumn);
-                mAccessToken    = managedCursor.getString(accessTokenColumn);
-                mRefreshToken   = managedCursor.getString(refreshTokenColumn);
-                mExpirationDate = mDateFormatter.parse(managedCursor.getString(expirationDateColumn));
-                dataRecovered = true;
-                
-                // for each cursor that you do not close, a little panda dies..
-                managedCursor.close();
-                
+                // also reads the former local "yyyy-MM-dd HH:mm:ss.SSS" values
+                expirationDate = new Date(Rfc3339.parse(account.getExpirationDate()));
             } catch (ParseException e) {
-                // failed to recover expiration date, get new token
-                mExpirationDate = Calendar.getInstance().getTime();                
-                dataRecovered = refreshToken();
+                // failed to recover expiration date, token is refreshed on first use
+                expirationDate = Calendar.getInstance().getTime();
             }
+            mSessions.put(getSessionKey(account.getEmail()), new Session(account.getId(), account.getEmail(), 
+                    account.getAccessToken(), account.getRefreshToken(), expirationDate));
+        }
+        
+        AccountDao.Account account = mAccountDao.getActiveAccount();
+        
+        // is there at least one user?
+        if (account != null) {
+            setSession(mSessions.get(getSessionKey(account.getEmail())));
+            dataRecovered = true;
         } else {
             // no users
+            setSession(null);
             dataRecovered = false;
         }        
         
@@ -202,10 +235,68 @@ public class UserManager {
     }
     
     /**
-     * Refresh access Token
+     * @param userId account row id
+     * @return row id as a number, or Long.MAX_VALUE if there is none
+     */
+    private static long parseUserId(String userId) {
+        try {
+            return userId != null ? Long.parseLong(userId) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+    
+    /**
+     * @param email account email
+     * @return key of account in session cache
+     */
+    private static String getSessionKey(String email) {
+        return email.toLowerCase(Locale.US);
+    }
+    
+    /**
+     * Publish a new session, and schedule the refresh of its token
+     * @param session new session, null if there is no user
+     */
+    private void setSession(Session session) {
+        Session previous = mSession.getAndSet(session);
+        if (previous != null) {
+            // other accounts are refreshed on use only
+            getTokenRefresher(getSessionKey(previous.getEmail())).cancel();
+        }
+        if (session != null) {
+            String key = getSessionKey(session.getEmail());
+            mSessions.put(key, session);
+            getTokenRefresher(key).schedule(session.getExpirationTime());
+        }
+    }
+    
+    /**
+     * Session calls to google are made with: the account bound to calling 
+     * thread (AccountScope), or else the active one
+     * @return current session, null if there is none
+     */
+    private Session getCurrentSession() {
+        String email = AccountScope.get();
+        if (email != null) {
+            return mSessions.get(getSessionKey(email));
+        }
+        return mSession.get();
+    }
+    
+    /**
+     * Refresh access Token of an account. Only called through its refresher, 
+     * so there is one refresh at a time
+     * @param key key of account in session cache
      * @return true if refresh is ok, false otherwise
      */
-    private boolean refreshToken() {
+    private boolean refreshToken(String key) {
+        
+        // session being refreshed
+        Session session = mSessions.get(key);
+        if (session == null) {
+            return false;
+        }
         
         // temporary Calendar
         Calendar tCalendar = Calendar.getInstance();
@@ -222,109 +313,83 @@ public class UserManager {
         // return value
         boolean refrehTokenReturn = true;
         
-
-        //verify if token still valid
-        if (tCalendar.getTime().before(mExpirationDate) == true) {
-            //token is valid
-            refrehTokenReturn = true;
-        } else {
+        // TODO create constants to these parameters
+        String[] paramsKey =   {"client_id","client_secret","refresh_token","grant_type"};
+        String[] paramsValue = {GoogleConstants.CLIENT_ID,GoogleConstants.CLIENT_SECRET,session.getRefreshToken(),"refresh_token"};
+        
+        // connect to google and get the response
+        String googleResponse = null;
+        try {
+            googleResponse = ConnectionUtils.doHttpsPostFormUrlEncoded(GoogleConstants.URL_ACCESS_TOKEN, paramsKey, paramsValue);
             
-            // TODO create constants to these parameters
-            String[] paramsKey =   {"client_id","client_secret","refresh_token","grant_type"};
-            String[] paramsValue = {GoogleConstants.CLIENT_ID,GoogleConstants.CLIENT_SECRET,mRefreshToken,"refresh_token"};
+            /************ Parse the response ************/
+            jsonTokenObj = (JSONObject) new JSONTokener(googleResponse).nextValue();
+            accessToken = jsonTokenObj.getString("access_token");            
             
-            // connect to google and get the response
-            String googleResponse = null;
-            try {
-                googleResponse = ConnectionUtils.doHttpsPostFormUrlEncoded(GoogleConstants.URL_ACCESS_TOKEN, paramsKey, paramsValue);
-                
-                /************ Parse the response ************/
-                jsonTokenObj = (JSONObject) new JSONTokener(googleResponse).nextValue();
-                accessToken = jsonTokenObj.getString("access_token");            
-                
-                // set new expiration time (current time + valid period)
-                tCalendar.add(Calendar.SECOND, Integer.parseInt(jsonTokenObj.getString("expires_in")));                
-                expirationDate = tCalendar.getTime();
-                             
-                /************ Content OK, update user */
-                if (updateActiveUser(accessToken,expirationDate) == false) {
-                    refrehTokenReturn = false;
-                }
-                
-            } catch (IllegalStateException e) {
-                // TODO Auto-generated catch block
-                refrehTokenReturn = false;
-                e.printStackTrace();
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                refrehTokenReturn = false;
-                e.printStackTrace();
-            } catch (HttpException e) {
-                // TODO Auto-generated catch block
-                refrehTokenReturn = false;
-                e.printStackTrace();
-            } catch (JSONException e) {
-                // TODO Auto-generated catch block
+            // set new expiration time (current time + valid period)
+            tCalendar.add(Calendar.SECOND, Integer.parseInt(jsonTokenObj.getString("expires_in")));                
+            expirationDate = tCalendar.getTime();
+                         
+            /************ Content OK, update user */
+            if (updateActiveUser(session, accessToken, expirationDate) == false) {
                 refrehTokenReturn = false;
-                e.printStackTrace();
             }
+            
+        } catch (IllegalStateException e) {
+            // TODO Auto-generated catch block
+            refrehTokenReturn = false;
+            e.printStackTrace();
+        } catch (IOException e) {
+            // TODO Auto-generated catch block
+            refrehTokenReturn = false;
+            e.printStackTrace();
+        } catch (HttpException e) {
+            // TODO Auto-generated catch block
+            refrehTokenReturn = false;
+            e.printStackTrace();
+        } catch (JSONException e) {
+            // TODO Auto-generated catch block
+            refrehTokenReturn = false;
+            e.printStackTrace();
         }
         
         return refrehTokenReturn;
     }
 
     /**
-     * Update active user with new access token and expiration date to this token
+     * Format an expiration date to store it. Rfc3339 keeps no state, so it is safe 
+     * from the syncer, refresher and caller threads alike
+     * @param expirationDate expiration date of access token
+     * @return date-time in UTC
+     */
+    static private String formatExpirationDate(Date expirationDate) {
+        return Rfc3339.formatDateTime(expirationDate.getTime(), STORAGE_ZONE);
+    }
+    
+    /**
+     * Update a user with new access token and expiration date to this token
+     * @param session session the token was refreshed for
      * @param accessToken - new accessToken
      * @param expirationDate - new Expiration date
      * @return if active user was updated
      */
-    private boolean updateActiveUser(String accessToken, Date expirationDate) {
+    private boolean updateActiveUser(Session session, String accessToken, Date expirationDate) {
 
         // return Value
         boolean activeUserWasUpdated = false; 
         
-        // data to change
-        ContentValues values = new ContentValues();
-
-        values.put(AccountColumns.ACCESS_TOKEN, accessToken);
-        values.put(AccountColumns.EXPIRATION_DATE, mDateFormatter.format(expirationDate));
-        
-        if (updateUser(mUserMail, values) == true) {
-            mAccessToken = accessToken;
-            mExpirationDate = expirationDate;
+        if (mAccountDao.updateAccessToken(session.getEmail(), accessToken, formatExpirationDate(expirationDate)) == true) {
+            Session refreshed = session.withAccessToken(accessToken, expirationDate);
+            mSessions.replace(getSessionKey(session.getEmail()), session, refreshed);
+            //Account may have been switched or logged in again meanwhile; keep the newer session
+            if (mSession.compareAndSet(session, refreshed)) {
+                getTokenRefresher(getSessionKey(session.getEmail())).schedule(refreshed.getExpirationTime());
+            }
             activeUserWasUpdated = true;
         }
         
         return activeUserWasUpdated;
     }
-
-    /**
-     * Update an user with new data
-     * @param userMail - user's to update
-     * @param values - values to update
-     * @return if user was updated
-     */
-    private boolean updateUser(String userMail, ContentValues values) {
-        
-        // return Value
-        boolean userWasUpdated = false; 
-
-        // where clause
-        String where = AccountColumns.EMAIL + " = ?";
-        String[] whereParams = new String[]{userMail};
-        
-        // update the row
-        int rowsAffected = mProvider.update(AccountColumns.CONTENT_URI, values, where, whereParams);
-        
-        //verify if user is updated
-        if (rowsAffected == 1) {
-            userWasUpdated = true;
-        }
-        
-        return userWasUpdated;        
-    }
-    
     
     public boolean addActiveUserToken(String authorizationCode) {
         Log.d(TAG, "addActiveUserToken begin");
@@ -350,9 +415,6 @@ public class UserManager {
         // temp calendar
         Calendar tCalendar = Calendar.getInstance();
         
-        //values to be inserted/updated
-        ContentValues values = new ContentValues();        
-        
         // recover user internal data
         try {
             // fill parameters
@@ -393,41 +455,17 @@ public class UserManager {
         if (userMail != null && !userMail.equals("")) {
         
             //this part needs to be synchronized to execute
-            synchronized (mUserMail) {
+            synchronized (this) {
                 
-                //verify if user exists on database
-                // Form an array specifying which columns to return. 
-                String[] projection = new String[] {
-                        AccountColumns._ID
-                };
-                // Get the base URI for the Auth users table content provider.
-                Uri authUsers =  AccountColumns.CONTENT_URI;
-
-                // build the where clause
-                String where = AccountColumns.EMAIL + "= ?";
-                String[] whereParams = new String[]{userMail};  
-                
-                // Make the query. 
-                Cursor managedCursor = mProvider.query(
-                        authUsers,         // content_uri
-                        projection,        // Which columns to return 
-                        where,             // Which rows to return (email = ?)
-                        whereParams,       // Selection arguments (new ActiveUser)
-                        null);             // user order       
-
-                //set values (will be used in a near future)                
-                values.put(AccountColumns.EMAIL, userMail);
-                values.put(AccountColumns.ACCESS_TOKEN, accessToken);
-                values.put(AccountColumns.REFRESH_TOKEN, refreshToken);
-                values.put(AccountColumns.ACTIVE_USER, true);
-                values.put(AccountColumns.EXPIRATION_DATE,  mDateFormatter.format(expirationDate));
+                String expiration = formatExpirationDate(expirationDate);
                 
                 // verify if user exists on dataBase
-                if (managedCursor.moveToFirst() == true) {
+                long userId = mAccountDao.findAccountId(userMail);
+                if (userId != -1) {
                     Log.d(TAG, "User " + userMail + " already exists, updating data" );
                     
                     // user exists, update it!!                      
-                    boolean updateResult = updateUser(userMail, values);
+                    boolean updateResult = mAccountDao.updateTokens(userMail, accessToken, refreshToken, expiration);
                     if (updateResult == true) {
                         Log.d(TAG, "User " + userMail + " updated and defined as ACTIVE");
                         userWasAdded = true;
@@ -435,35 +473,21 @@ public class UserManager {
                 } else {
                     Log.d(TAG, "User " + userMail + " is a new user!" );
 
-                    Uri uri = mProvider.insert(AccountColumns.CONTENT_URI, values);
+                    userId = mAccountDao.insertAccount(userMail, accessToken, refreshToken, expiration);
                     Log.d(TAG, "User " + userMail + " inserted and defined as ACTIVE");
                     userWasAdded = true;                   
                 }
                 
-                //always close a cursor, I said always
-                managedCursor.close();
-                
                 //update current values?
                 if (userWasAdded == true) {                    
-                    mAccessToken = accessToken;
-                    mExpirationDate = expirationDate;
-                    mUserMail = userMail;
-                    mRefreshToken = refreshToken;
+                    // others users should be disabled
+                    mAccountDao.setActiveAccount(userMail);
+                    setSession(new Session(String.valueOf(userId), userMail, accessToken, refreshToken, expirationDate));
                 }
             }
         } 
         
-        
-        // others users should be disabled
-        // where clause
-        String where = AccountColumns.EMAIL + " != ?";
-        String[] whereParams = new String[]{mUserMail};
-        values.clear();
-        values.put(AccountColumns.ACTIVE_USER, false);
-        
-        // update the rows
-        int rowsAffected = mProvider.update(AccountColumns.CONTENT_URI, values, where, whereParams);
-        
+
         Log.d(TAG, "addActiveUserToken end (result = " + userWasAdded + ")");
         return userWasAdded;
     }
@@ -482,24 +506,40 @@ public class UserManager {
     }
         
     /**
-     * Get a valid Access Token
+     * Get a valid Access Token of current account: the one bound to calling 
+     * thread, or else the active one. Tokens of active account are refreshed in 
+     * background before they expire, so this usually returns at once without 
+     * locking. If the token has expired anyway, callers share a single refresh
      * @return valid Access Token 
      * @throws IllegalStateException Throws this exception if there is no valid token
      */
     public String getActiveUserAccessToken()  throws IllegalStateException {
         
-        synchronized (mUserMail) {
-            if (mAccessToken == null) {
-                throw new IllegalStateException("No token found!");
-            } else {
-                //try to get the freshest token and verify its result
-                if (refreshToken() == false) {
-                    throw new IllegalStateException("Problem to recover new valid token!");
-                }        
+        Session session = getCurrentSession();
+        if (session == null) {
+            throw new IllegalStateException("No token found!");
+        }
+        if (!session.isValid(EXPIRATION_MARGIN)) {
+            //try to get the freshest token and verify its result
+            String key = getSessionKey(session.getEmail());
+            if (getTokenRefresher(key).refreshNow() == false) {
+                throw new IllegalStateException("Problem to recover new valid token!");
             }
-        }   
+            session = mSessions.get(key);
+        }
         //everything ok! return token
-        return mAccessToken;
+        return session.getAccessToken();
+    }
+    
+    /**
+     * Refresh the token of an account unless it is fresh. Concurrent callers 
+     * share a single refresh
+     * @param email account email
+     * @return true if account has a fresh token
+     */
+    public boolean refreshAccessToken(String email) {
+        String key = getSessionKey(email);
+        return mSessions.containsKey(key) && getTokenRefresher(key).refreshNow();
     }
     
     /**
@@ -507,63 +547,85 @@ public class UserManager {
      * @return true if token is available, false otherwise
      */
     public boolean hasUserActiveAccessToken() {
-        synchronized (mUserMail) {
-            return (mAccessToken != null);
-        }
+        return (mSession.get() != null);
+    }
+    
+    /**
+     * Current session: the account bound to calling thread, or else the active
+     * one. Never blocks nor touches the database
+     * @return current session, null if there is no user
+     */
+    public Session getSession() {
+        return getCurrentSession();
     }
     
     /**
-     * active user id
-     * @return active user id
+     * Sessions of all accounts. Never blocks nor touches the database
+     * @return sessions, in order of account creation
+     */
+    public List<Session> getSessions() {
+        List<Session> sessions = new ArrayList<Session>(mSessions.values());
+        Collections.sort(sessions, SESSION_ORDER);
+        return sessions;
+    }
+    
+    /**
+     * active user id: the account bound to calling thread, or else the active
+     * one. Never blocks nor touches the database
+     * @return active user id, null if there is no user
      */
     public String getActiveUserId() {
-        if(mUserId == null){
-            recoverDataFromDataBase();
-        }
-        return mUserId;
+        Session session = getCurrentSession();
+        return session != null ? session.getUserId() : null;
     }
             
-    public void changeAccountActive(String mail) {
+    public synchronized void changeAccountActive(String mail) {
         Log.d(TAG, "changeAccountActive begin");
         
         Log.d(TAG, "The new active user is " + mail);
         
-        if (mUserMail != null && mUserMail.equalsIgnoreCase(mail)) {
+        Session session = mSession.get();
+        if (session != null && session.getEmail().equalsIgnoreCase(mail)) {
             // Active user = new user
             // just leave
             Log.d(TAG, "The new active user is equal to the older one");
             return;
         }
         
-        //values to be inserted/updated
-        ContentValues values = new ContentValues();      
-        
-        String where = AccountColumns.EMAIL + " = ?";
-        String[] whereParams = new String[]{mail};
-        values.put(AccountColumns.ACTIVE_USER, true);
-        
-        // update the rows
-        int rowsAffected = mProvider.update(AccountColumns.CONTENT_URI, values, where, whereParams);
+        Session cached = mSessions.get(getSessionKey(mail));
+        if (cached == null) {
+            // account added behind our back, read it from database
+            mAccountDao.setActiveAccount(mail);
+            Log.d(TAG, "The new active user is stored");
+            recoverDataFromDataBase();
+            return;
+        }
         
-        Log.d(TAG, rowsAffected + " line on database was passed to active");
-                
-        // others users should be disabled
-        // where clause
-        where = AccountColumns.EMAIL + " != ?";
-        whereParams = new String[]{mail};
-        values.clear();
-        values.put(AccountColumns.ACTIVE_USER, false);
-        
-        // update the rows
-        rowsAffected = mProvider.update(AccountColumns.CONTENT_URI, values, where, whereParams);
-
-        Log.d(TAG, rowsAffected + " lines on database were passed to inactive");
-        recoverDataFromDataBase();        
+        // switch in memory, an expired token is refreshed in background
+        setSession(cached);
+        
+        // new user active, others users disabled. Queued writes are merged, 
+        // and the last active account is the one stored
+        TaskExecutor.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                Session active = mSession.get();
+                if (active != null) {
+                    mAccountDao.setActiveAccount(active.getEmail());
+                    Log.d(TAG, "The new active user is stored");
+                }
+            }
+        }, TaskExecutor.PRIORITY_BACKGROUND, this, "activeAccount");
     }
 
+    /**
+     * active user email: the account bound to calling thread, or else the 
+     * active one. Never blocks nor touches the database
+     * @return active user email, empty if there is no user
+     */
     public String getActiveUserEmail() {
-        // TODO Auto-generated method stub
-        return mUserMail;
+        Session session = getCurrentSession();
+        return session != null ? session.getEmail() : "";
     }
 
     public Cursor getAllAccountsEmail() {
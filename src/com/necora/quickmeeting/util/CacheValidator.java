@@ -0,0 +1,63 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.util;
+
+/**
+ * HTTP validators (ETag and Last-Modified) of a previously downloaded response.
+ * They are sent back in If-None-Match / If-Modified-Since headers, so the server
+ * can answer "304 Not Modified" instead of the whole content
+ * @author vitor
+ */
+public class CacheValidator {
+
+    /** ETag header of last response */
+    private String mETag;
+    /** Last-Modified header of last response */
+    private String mLastModified;
+
+    /**
+     * @return ETag of last response, or null
+     */
+    public synchronized String getETag() {
+        return mETag;
+    }
+
+    /**
+     * @return Last-Modified date of last response, or null
+     */
+    public synchronized String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Store validators of a new response
+     * @param eTag ETag header (may be null)
+     * @param lastModified Last-Modified header (may be null)
+     */
+    public synchronized void update(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * @return true if there is nothing to validate against
+     */
+    public synchronized boolean isEmpty() {
+        return mETag == null && mLastModified == null;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.util;
+
+/**
+ * Snapshot of the shared HTTP connection pool state
+ * @author vitor
+ */
+public class ConnectionPoolStats {
+
+    /** Connections currently handed out to a request */
+    private final int mLeased;
+    /** Idle connections kept alive in the pool, ready to be reused */
+    private final int mAvailable;
+    /** Requests waiting for a free connection */
+    private final int mPending;
+    /** Maximum number of connections in the pool */
+    private final int mMax;
+
+    /**
+     * Constructor
+     * @param leased connections in use
+     * @param available idle connections in pool
+     * @param pending requests waiting for a connection
+     * @param max maximum number of connections
+     */
+    public ConnectionPoolStats(int leased, int available, int pending, int max) {
+        mLeased = leased;
+        mAvailable = available;
+        mPending = pending;
+        mMax = max;
+    }
+
+    /**
+     * @return connections in use
+     */
+    public int getLeased() {
+        return mLeased;
+    }
+
+    /**
+     * @return idle connections in pool
+     */
+    public int getAvailable() {
+        return mAvailable;
+    }
+
+    /**
+     * @return requests waiting for a connection
+     */
+    public int getPending() {
+        return mPending;
+    }
+
+    /**
+     * @return maximum number of connections
+     */
+    public int getMax() {
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[POOL] {");
+            sb.append("LEASED = ").append(mLeased).append("; ");
+            sb.append("AVAILABLE = ").append(mAvailable).append("; ");
+            sb.append("PENDING = ").append(mPending).append("; ");
+            sb.append("MAX = ").append(mMax).append("; ");
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -17,6 +17,7 @@
 
 package com.necora.quickmeeting.util;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.apache.http.Header;
@@ -29,26 +30,217 @@ import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 
-// TODO populate this class
+/**
+ * Http helpers. All requests share a pooled, keep-alive http client
+ */
 public class ConnectionUtils {
 
     static private final String TAG = "ConnectionUtils";
     
     static private final int HTTP_OK      = 200;
     static private final int HTTP_CREATED = 201;
+    static private final int HTTP_NOT_MODIFIED = 304;
+    static private final int HTTP_MOVED_PERMANENTLY  = 301;
+    static private final int HTTP_FOUND              = 302;
+    static private final int HTTP_SEE_OTHER          = 303;
+    static private final int HTTP_TEMPORARY_REDIRECT = 307;
+    
+    /** Maximum number of connections kept by the shared pool */
+    static private final int MAX_TOTAL_CONNECTIONS     = 20;
+    /** Maximum number of connections per route (all calendar feeds share the same host) */
+    static private final int MAX_CONNECTIONS_PER_ROUTE = 6;
+    /** Default time (ms) to establish a connection */
+    static private final int DEFAULT_CONNECT_TIMEOUT   = 15000;
+    /** Default time (ms) waiting for data once connected */
+    static private final int DEFAULT_READ_TIMEOUT      = 30000;
+    /** Time (ms) a request may wait for a free connection of the pool */
+    static private final long POOL_TIMEOUT             = 30000;
+    /** Time (s) an idle connection is kept alive in the pool */
+    static private final long IDLE_CONNECTION_TIMEOUT  = 60;
+    /** Minimum time (ms) between two sweeps of idle connections */
+    static private final long IDLE_SWEEP_INTERVAL      = 30000;
+    
+    /** Shared http client, created on first use */
+    static private DefaultHttpClient sHttpClient;
+    /** Connection manager of the shared http client */
+    static private PooledConnectionManager sConnectionManager;
+    /** Time (ms) of last sweep of idle connections */
+    static private final AtomicLong sLastIdleSweep = new AtomicLong();
+    /** Tracker of the task running on each thread, so a cancelled task can abort its request */
+    static private final ThreadLocal<RequestTracker> sRequestTracker = new ThreadLocal<RequestTracker>();
+    
+    /**
+     * Requests of one task. A task binds its own tracker to the thread running it, 
+     * so cancelling the task aborts its request and never one of a later task 
+     * run by the same thread
+     */
+    static public final class RequestTracker {
+        
+        /** Request in progress, null if none */
+        private HttpUriRequest mRequest;
+        /** True once aborted, later requests of the task are aborted at once */
+        private boolean mAborted;
+        
+        /**
+         * Track a request about to be executed
+         * @param request request
+         */
+        private void start(HttpUriRequest request) {
+            boolean aborted;
+            synchronized (this) {
+                mRequest = request;
+                aborted = mAborted;
+            }
+            if (aborted) {
+                request.abort();
+            }
+        }
+        
+        /**
+         * Abort the request in progress, if any, and every later one of the task. 
+         * A blocked read fails with an IOException and the connection is released from the pool
+         */
+        public void abort() {
+            HttpUriRequest request;
+            synchronized (this) {
+                mAborted = true;
+                request = mRequest;
+            }
+            if (request != null && !request.isAborted()) {
+                Log.d(TAG, "Aborting request " + request.getURI());
+                request.abort();
+            }
+        }
+    }
+    
+    /**
+     * Get the process-wide http client. Connections are pooled and kept alive,
+     * so consecutive requests to google reuse the same TCP/TLS session
+     * @return shared http client
+     */
+    static private synchronized DefaultHttpClient getHttpClient() {
+        if (sHttpClient == null) {
+            HttpParams params = new BasicHttpParams();
+            ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+            ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+            ConnManagerParams.setTimeout(params, POOL_TIMEOUT);
+            HttpConnectionParams.setConnectionTimeout(params, DEFAULT_CONNECT_TIMEOUT);
+            HttpConnectionParams.setSoTimeout(params, DEFAULT_READ_TIMEOUT);
+            HttpConnectionParams.setStaleCheckingEnabled(params, true);
+            
+            SchemeRegistry schemeRegistry = new SchemeRegistry();
+            schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+            schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+            
+            sConnectionManager = new PooledConnectionManager(params, schemeRegistry);
+            sHttpClient = new DefaultHttpClient(sConnectionManager, params);
+        }
+        return sHttpClient;
+    }
+    
+    /**
+     * Change connect and read timeouts of the shared http client
+     * @param connectTimeout time (ms) to establish a connection
+     * @param readTimeout time (ms) waiting for data once connected
+     */
+    static public void setTimeouts(int connectTimeout, int readTimeout) {
+        HttpParams params = getHttpClient().getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+        HttpConnectionParams.setSoTimeout(params, readTimeout);
+    }
+    
+    /**
+     * Get current state of the shared connection pool
+     * @return leased, available and pending connections
+     */
+    static public ConnectionPoolStats getPoolStats() {
+        getHttpClient();
+        return sConnectionManager.getStats();
+    }
+    
+    /**
+     * Executes a request with the shared http client
+     * @param request request to execute
+     * @return server response
+     * @throws IOException in case of connection problems
+     */
+    static private HttpResponse execute(HttpUriRequest request) throws IOException {
+        DefaultHttpClient httpClient = getHttpClient();
+        // swept now and then, not on every request, so the pool stays cheap to reuse
+        long now = SystemClock.elapsedRealtime();
+        long lastSweep = sLastIdleSweep.get();
+        if (now - lastSweep >= IDLE_SWEEP_INTERVAL && sLastIdleSweep.compareAndSet(lastSweep, now)) {
+            sConnectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS);
+        }
+        RequestTracker tracker = sRequestTracker.get();
+        if (tracker != null) {
+            tracker.start(request);
+        }
+        return httpClient.execute(request);
+    }
+    
+    /**
+     * Bind a request tracker to current thread, so requests it executes can be aborted
+     * @param tracker tracker of the task about to run, null to unbind
+     * @return previous tracker, to bind again when the task ends
+     */
+    static public RequestTracker bindRequestTracker(RequestTracker tracker) {
+        RequestTracker previous = sRequestTracker.get();
+        if (tracker == null) {
+            sRequestTracker.remove();
+        } else {
+            sRequestTracker.set(tracker);
+        }
+        return previous;
+    }
+    
+    /**
+     * Reads and discards the response content, so its connection goes back to the pool
+     * @param entity response entity (may be null)
+     */
+    static private void consumeEntity(HttpEntity entity) {
+        if (entity != null) {
+            try {
+                entity.consumeContent();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot consume response content: " + e.getMessage());
+            }
+        }
+    }
     
     static public String getHttpsGetConnection(String url, String[] paramsKey, String[] paramsValue) throws IllegalStateException, IOException, HttpException {
         Log.d(TAG,"getHttpsGetConnection Begin");
@@ -63,9 +255,7 @@ public class ConnectionUtils {
             httpGetConn.setHeader(paramsKey[index], (index < paramsValue.length ? paramsValue[index] : ""));
         }
         
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        
-        HttpResponse response = httpClient.execute(httpGetConn);
+        HttpResponse response = execute(httpGetConn);
         
         HttpEntity entity = response.getEntity();
         
@@ -75,7 +265,7 @@ public class ConnectionUtils {
         
         if (returnCode != HTTP_OK && returnCode != HTTP_CREATED) {
             Log.e(TAG,"There was an error " + returnCode + " processing the url " + url);
-            Log.e(TAG,streamToString(entity.getContent()));
+            Log.e(TAG,entity != null ? streamToString(entity.getContent()) : "");
             throw new HttpException("There was an error " + returnCode + " processing the url " + url);
         }
     
@@ -86,6 +276,123 @@ public class ConnectionUtils {
         return htmlResult;
     }
 
+    /**
+     * Executes a HTTP GET request and returns the response stream, without reading it.
+     * Caller must close the stream, which returns the connection to the pool
+     * @param url url to send request
+     * @param paramsKey header key params array
+     * @param paramsValue header value params array
+     * @return response content
+     * @throws IOException in case of connection problems
+     * @throws HttpException if response is not OK
+     */
+    static public InputStream getHttpsGetStream(String url, String[] paramsKey, String[] paramsValue) throws IOException, HttpException {
+        Log.d(TAG,"getHttpsGetStream Begin");
+        
+        Log.d(TAG,"url = "+ url);
+        
+        HttpGet httpGetConn = new HttpGet(url);
+        
+        for (int index = 0; index < paramsKey.length; index++ ){
+            httpGetConn.setHeader(paramsKey[index], (index < paramsValue.length ? paramsValue[index] : ""));
+        }
+        
+        HttpResponse response = execute(httpGetConn);
+        
+        HttpEntity entity = response.getEntity();
+        
+        int returnCode = response.getStatusLine().getStatusCode();
+        
+        Log.d(TAG,"Response code is " + returnCode);
+        
+        if (returnCode != HTTP_OK || entity == null) {
+            Log.e(TAG,"There was an error " + returnCode + " processing the url " + url);
+            Log.e(TAG,entity != null ? streamToString(entity.getContent()) : "");
+            throw new HttpException("There was an error " + returnCode + " processing the url " + url);
+        }
+        
+        Log.d(TAG,"getHttpsGetStream End");
+        
+        return entity.getContent();
+    }
+
+    /**
+     * Executes a conditional HTTP GET request. Validators of a previous response are sent,
+     * and updated with the new response
+     * @param url url to send request
+     * @param paramsKey header key params array
+     * @param paramsValue header value params array
+     * @param validator validators of previous response, updated if content changed
+     * @return response content, or null if content was not modified. Caller must close it
+     * @throws IOException in case of connection problems
+     * @throws HttpException if response is not OK
+     */
+    static public InputStream getHttpsConditionalGetStream(String url, String[] paramsKey, String[] paramsValue, CacheValidator validator) throws IOException, HttpException {
+        Log.d(TAG,"getHttpsConditionalGetStream Begin");
+        
+        Log.d(TAG,"url = "+ url);
+        
+        HttpGet httpGetConn = new HttpGet(url);
+        
+        for (int index = 0; index < paramsKey.length; index++ ){
+            httpGetConn.setHeader(paramsKey[index], (index < paramsValue.length ? paramsValue[index] : ""));
+        }
+        
+        String eTag = validator.getETag();
+        String lastModified = validator.getLastModified();
+        if (eTag != null) {
+            httpGetConn.setHeader("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            httpGetConn.setHeader("If-Modified-Since", lastModified);
+        }
+        
+        HttpResponse response = execute(httpGetConn);
+        
+        HttpEntity entity = response.getEntity();
+        
+        int returnCode = response.getStatusLine().getStatusCode();
+        
+        Log.d(TAG,"Response code is " + returnCode);
+        
+        if (returnCode == HTTP_NOT_MODIFIED) {
+            consumeEntity(entity);
+            Log.d(TAG,"getHttpsConditionalGetStream End (not modified)");
+            return null;
+        }
+        
+        if (returnCode != HTTP_OK || entity == null) {
+            Log.e(TAG,"There was an error " + returnCode + " processing the url " + url);
+            Log.e(TAG,entity != null ? streamToString(entity.getContent()) : "");
+            throw new HttpException("There was an error " + returnCode + " processing the url " + url);
+        }
+        
+        Header eTagHeader = response.getFirstHeader("ETag");
+        Header lastModifiedHeader = response.getFirstHeader("Last-Modified");
+        validator.update(eTagHeader != null ? eTagHeader.getValue() : null, 
+                         lastModifiedHeader != null ? lastModifiedHeader.getValue() : null);
+        
+        Log.d(TAG,"getHttpsConditionalGetStream End");
+        
+        return entity.getContent();
+    }
+    
+    /**
+     * Executes a conditional HTTP GET request. Validators of a previous response are sent,
+     * and updated with the new response
+     * @param url url to send request
+     * @param paramsKey header key params array
+     * @param paramsValue header value params array
+     * @param validator validators of previous response, updated if content changed
+     * @return response content, or null if content was not modified
+     * @throws IOException in case of connection problems
+     * @throws HttpException if response is not OK
+     */
+    static public String getHttpsConditionalGetConnection(String url, String[] paramsKey, String[] paramsValue, CacheValidator validator) throws IOException, HttpException {
+        InputStream is = getHttpsConditionalGetStream(url, paramsKey, paramsValue, validator);
+        return is != null ? streamToString(is) : null;
+    }
+
     static private String streamToString(final InputStream is) throws IOException {
         Log.d(TAG,"streamToString Begin");
         String str  = "";
@@ -112,6 +419,19 @@ public class ConnectionUtils {
         return str;
     }
 
+    static private boolean isRedirect(int returnCode) {
+        return returnCode == HTTP_MOVED_PERMANENTLY || returnCode == HTTP_FOUND
+                || returnCode == HTTP_SEE_OTHER || returnCode == HTTP_TEMPORARY_REDIRECT;
+    }
+
+    /**
+     * Executes an HTTP POST request, following at most one redirect, and returns the response body
+     * @param url url to send request
+     * @param paramsKey header key params array
+     * @param paramsValue header value params array
+     * @param stringEntity request body
+     * @return response content
+     */
     public static String doHttpsPost(final String url, final String[] paramsKey, final String[] paramsValue, final StringEntity stringEntity) throws  HttpException, ClientProtocolException, IOException {
         Log.d(TAG,"doHttpsPost Begin");
         
@@ -125,39 +445,81 @@ public class ConnectionUtils {
         }        
         httpPost.setEntity(stringEntity);
   
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        HttpResponse response = httpClient.execute(httpPost);
+        HttpResponse response = execute(httpPost);
+        int returnCode = response.getStatusLine().getStatusCode();
         
-        // Don't know why, but 2 calls are needed to get a HTTP_CREATED response
-        if (response.getStatusLine().getStatusCode() == HTTP_OK){
-            response = httpClient.execute(httpPost);
+        // The feed answers the first insert with a redirect to a session url (gsessionid)
+        // and has not stored anything yet; the client does not follow redirects for a POST,
+        // so resend it once to that location. Any other answer is final, never resubmit it
+        Header location = response.getFirstHeader("Location");
+        if (isRedirect(returnCode) && location != null) {
+            Log.d(TAG,"Redirected to " + location.getValue());
+            // release first connection before asking for a new one
+            consumeEntity(response.getEntity());
+            httpPost.setURI(URI.create(location.getValue()));
+            response = execute(httpPost);
+            returnCode = response.getStatusLine().getStatusCode();
         }
         HttpEntity entity = response.getEntity();
         
-        int returnCode = response.getStatusLine().getStatusCode();
-        
         Log.d(TAG,"Response code is " + returnCode);
         
         if (returnCode != HTTP_OK && returnCode != HTTP_CREATED) {
             Log.e(TAG,"There was an error " + returnCode + " processing the url " + url);
-            Log.e(TAG,streamToString(entity.getContent()));
+            Log.e(TAG,entity != null ? streamToString(entity.getContent()) : "");
             throw new HttpException("There was an error " + returnCode + " processing the url " + url);
         }
     
         String htmlResult = streamToString(entity.getContent());
         
-        Log.d(TAG,"getHttpsGetConnection End");
+        Log.d(TAG,"doHttpsPost End");
         
         return htmlResult;
     }
     
     
+    /**
+     * Executes a single HTTP POST request, and returns the response stream
+     * @param url url to send request
+     * @param paramsKey header key params array
+     * @param paramsValue header value params array
+     * @param stringEntity request body
+     * @return response content. Caller must close it
+     * @throws HttpException if response is not OK
+     * @throws IOException in case of connection problems
+     */
+    public static InputStream doHttpsPostStream(final String url, final String[] paramsKey, final String[] paramsValue, final StringEntity stringEntity) throws HttpException, IOException {
+        Log.d(TAG,"doHttpsPostStream Begin");
+        
+        Log.d(TAG,"url = "+ url);
+                
+        HttpPost httpPost = new HttpPost(url);
+        for (int index = 0; index < paramsKey.length; index++ ){
+            httpPost.setHeader(paramsKey[index], (index < paramsValue.length ? paramsValue[index] : ""));
+        }        
+        httpPost.setEntity(stringEntity);
+  
+        HttpResponse response = execute(httpPost);
+        HttpEntity entity = response.getEntity();
+        
+        int returnCode = response.getStatusLine().getStatusCode();
+        
+        Log.d(TAG,"Response code is " + returnCode);
+        
+        if (returnCode != HTTP_OK || entity == null) {
+            Log.e(TAG,"There was an error " + returnCode + " processing the url " + url);
+            Log.e(TAG,entity != null ? streamToString(entity.getContent()) : "");
+            throw new HttpException("There was an error " + returnCode + " processing the url " + url);
+        }
+        
+        Log.d(TAG,"doHttpsPostStream End");
+        
+        return entity.getContent();
+    }
+    
     public static String doHttpsPostFormUrlEncoded(final String url, final String[] paramsKey, final String[] paramsValue) throws ClientProtocolException, IOException, HttpException {
         Log.d(TAG,"doHttpsPostFormUrlEncoded Begin");
         
-        // Http Client
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        
         // Post URL
         HttpPost httpPost = new HttpPost(url);
        
@@ -171,7 +533,7 @@ public class ConnectionUtils {
        httpPost.setEntity(new UrlEncodedFormEntity(nameValuePairs));
        
        // Execute HTTP Post Request
-       HttpResponse response = httpClient.execute(httpPost);
+       HttpResponse response = execute(httpPost);
        HttpEntity   entity   = response.getEntity();
         
        int returnCode = response.getStatusLine().getStatusCode();
@@ -180,7 +542,7 @@ public class ConnectionUtils {
         
        if (returnCode != HTTP_OK && returnCode != HTTP_CREATED) {
            Log.e(TAG,"There was an error " + returnCode + " processing the url " + url);
-           Log.e(TAG,streamToString(entity.getContent()));  
+           Log.e(TAG,entity != null ? streamToString(entity.getContent()) : "");  
            throw new HttpException("There was an error " + returnCode + " processing the url " + url);           
        }
     
@@ -192,56 +554,122 @@ public class ConnectionUtils {
     }
     
     /**
-     * Executes a HTTP DELETE request
+     * Executes a HTTP DELETE request, following at most one redirect
      * @param url url to send request
      * @param paramsKey header key params array
      * @param paramsValue header value params array
-     * @return result of delete request
+     * @return response code of delete request
+     * @throws IOException in case of connection problems
      */
-    static public boolean doHttpsDelete(String url, String[] paramsKey, String[] paramsValue) {
+    static public int doHttpsDelete(String url, String[] paramsKey, String[] paramsValue) throws IOException {
+        Log.d(TAG,"doHttpsDelete Begin");
         
-        boolean result = true;
+        Log.d(TAG,"url = "+ url);
         
         HttpDelete httpDelete = new HttpDelete(url);
         for (int index = 0; index < paramsKey.length; index++ ){
-            Log.d(TAG,"param = " + paramsKey[index]);
-            Log.d(TAG,"value = " + (index < paramsValue.length ? paramsValue[index] : ""));
             httpDelete.setHeader(paramsKey[index], (index < paramsValue.length ? paramsValue[index] : ""));
         }        
   
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        try {
-            HttpResponse response = httpClient.execute(httpDelete);
-            //Double delete in order to prevent problems with google protocol
-            response = httpClient.execute(httpDelete);
-            
-            int returnCode = response.getStatusLine().getStatusCode();
-            for (Header h : response.getAllHeaders()){
-                Log.d(TAG, "DELETE HEADER: " + h.getName() + "=>" + h.getValue());
-            }
-            Log.d(TAG, "RESPONSE HTML => " + streamToString(response.getEntity().getContent()));
+        HttpResponse response = execute(httpDelete);
+        int returnCode = response.getStatusLine().getStatusCode();
+        
+        // Same session redirect as doHttpsPost: nothing was deleted yet, resend once to that location
+        Header location = response.getFirstHeader("Location");
+        if (isRedirect(returnCode) && location != null) {
+            Log.d(TAG,"Redirected to " + location.getValue());
+            consumeEntity(response.getEntity());
+            httpDelete.setURI(URI.create(location.getValue()));
+            response = execute(httpDelete);
+            returnCode = response.getStatusLine().getStatusCode();
+        }
+        consumeEntity(response.getEntity());
+        
+        Log.d(TAG,"Delete response code is " + returnCode);
+        
+        Log.d(TAG,"doHttpsDelete End");
+        return returnCode;
+    }
+    
+    /**
+     * Thread safe connection manager which keeps track of leased and pending connections
+     */
+    static private class PooledConnectionManager extends ThreadSafeClientConnManager {
+        
+        /** Connections handed out to requests */
+        private final AtomicInteger mLeased = new AtomicInteger();
+        /** Leased connections, so one aborted after its release is not counted twice */
+        private final ConcurrentHashMap<ManagedClientConnection, Boolean> mLeasedConnections = 
+                new ConcurrentHashMap<ManagedClientConnection, Boolean>();
+        /** Requests waiting for a connection */
+        private final AtomicInteger mPending = new AtomicInteger();
+        /** Maximum number of connections */
+        private final int mMaxConnections;
+        
+        /**
+         * Constructor
+         * @param params connection manager parameters
+         * @param schemeRegistry supported schemes
+         */
+        public PooledConnectionManager(HttpParams params, SchemeRegistry schemeRegistry) {
+            super(params, schemeRegistry);
+            mMaxConnections = ConnManagerParams.getMaxTotalConnections(params);
+        }
+        
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            mPending.incrementAndGet();
             
-            if(returnCode == HTTP_OK){
-                Log.d(TAG, "DELETION OF EVENT OK");
-            }else{
-                result = false;
-                Log.e(TAG,"Delete response code is " + returnCode);
-               
+            return new ClientConnectionRequest() {
+                
+                /** true when this request is no longer pending */
+                private final AtomicBoolean mDone = new AtomicBoolean(false);
+                
+                @Override
+                public ManagedClientConnection getConnection(long timeout, TimeUnit tunit) 
+                        throws InterruptedException, ConnectionPoolTimeoutException {
+                    boolean leased = false;
+                    try {
+                        ManagedClientConnection conn = request.getConnection(timeout, tunit);
+                        mLeasedConnections.put(conn, Boolean.TRUE);
+                        leased = true;
+                        return conn;
+                    } finally {
+                        if (mDone.compareAndSet(false, true)) {
+                            mPending.decrementAndGet();
+                            if (leased) {
+                                mLeased.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+                
+                @Override
+                public void abortRequest() {
+                    if (mDone.compareAndSet(false, true)) {
+                        mPending.decrementAndGet();
+                    }
+                    request.abortRequest();
+                }
+            };
+        }
+        
+        @Override
+        public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+            if (mLeasedConnections.remove(conn) != null) {
+                mLeased.decrementAndGet();
             }
-            
-            
-            
-        } catch (ClientProtocolException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-            result = false;
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-            result = false;
+            super.releaseConnection(conn, validDuration, timeUnit);
         }
         
-        return result;
+        /**
+         * @return current pool state
+         */
+        public ConnectionPoolStats getStats() {
+            int leased = mLeased.get();
+            int available = Math.max(0, getConnectionsInPool() - leased);
+            return new ConnectionPoolStats(leased, available, mPending.get(), mMaxConnections);
+        }
     }
-    
 }
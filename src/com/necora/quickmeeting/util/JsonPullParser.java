@@ -0,0 +1,492 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.util;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser for JSON documents. Reads tokens one by one from a stream,
+ * so a document never has to be completely held in memory.
+ * (android.util.JsonReader is not available on our minimum API level)
+ * @author vitor
+ */
+public class JsonPullParser {
+
+    /** JSON token types */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /** Nothing read yet */
+    private static final int EMPTY_DOCUMENT    = 0;
+    /** Top level value already read */
+    private static final int NONEMPTY_DOCUMENT = 1;
+    /** Array without elements read yet */
+    private static final int EMPTY_ARRAY       = 2;
+    /** Array with at least one element read */
+    private static final int NONEMPTY_ARRAY    = 3;
+    /** Object without members read yet */
+    private static final int EMPTY_OBJECT      = 4;
+    /** Object whose last name is waiting for its value */
+    private static final int DANGLING_NAME     = 5;
+    /** Object with at least one member read */
+    private static final int NONEMPTY_OBJECT   = 6;
+
+    /** Size of read buffer */
+    private static final int BUFFER_SIZE = 1024;
+
+    /** Input */
+    private final Reader mIn;
+    /** Read buffer */
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    /** Next char to read in buffer */
+    private int mPos = 0;
+    /** Number of valid chars in buffer */
+    private int mLimit = 0;
+
+    /** Nesting stack */
+    private int[] mStack = new int[32];
+    /** Used positions of stack */
+    private int mStackSize = 0;
+
+    /** Token read by peek() and not yet consumed */
+    private Token mPeeked;
+    /** Value of peeked name, string, number or boolean */
+    private String mPeekedValue;
+    /** Reusable builder for strings */
+    private final StringBuilder mStringBuilder = new StringBuilder();
+
+    /**
+     * Constructor
+     * @param in JSON source
+     */
+    public JsonPullParser(Reader in) {
+        mIn = in;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Get type of next token, without consuming it
+     * @return type of next token
+     * @throws IOException error reading input
+     * @throws JSONException malformed document
+     */
+    public Token peek() throws IOException, JSONException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+
+        int c;
+        switch (mStack[mStackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return readValue();
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace(false) != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                mPeeked = Token.END_DOCUMENT;
+                return mPeeked;
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace(true) == ']') {
+                    return endScope(Token.END_ARRAY);
+                }
+                mPos--;
+                return readValue();
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace(true);
+                if (c == ']') {
+                    return endScope(Token.END_ARRAY);
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                return readValue();
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace(true);
+                if (c == '}') {
+                    return endScope(Token.END_OBJECT);
+                }
+                if (mStack[mStackSize - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                    c = nextNonWhitespace(true);
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                mPeekedValue = readString();
+                mPeeked = Token.NAME;
+                return mPeeked;
+            case DANGLING_NAME:
+                if (nextNonWhitespace(true) != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                return readValue();
+            default:
+                throw new IllegalStateException("Unknown parser state");
+        }
+    }
+
+    /**
+     * @return true if current array or object has more elements
+     * @throws IOException error reading input
+     * @throws JSONException malformed document
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the beginning of an object
+     * @throws IOException error reading input
+     * @throws JSONException next token is not the beginning of an object
+     */
+    public void beginObject() throws IOException, JSONException {
+        consume(Token.BEGIN_OBJECT);
+    }
+
+    /**
+     * Consumes the end of an object
+     * @throws IOException error reading input
+     * @throws JSONException next token is not the end of an object
+     */
+    public void endObject() throws IOException, JSONException {
+        consume(Token.END_OBJECT);
+    }
+
+    /**
+     * Consumes the beginning of an array
+     * @throws IOException error reading input
+     * @throws JSONException next token is not the beginning of an array
+     */
+    public void beginArray() throws IOException, JSONException {
+        consume(Token.BEGIN_ARRAY);
+    }
+
+    /**
+     * Consumes the end of an array
+     * @throws IOException error reading input
+     * @throws JSONException next token is not the end of an array
+     */
+    public void endArray() throws IOException, JSONException {
+        consume(Token.END_ARRAY);
+    }
+
+    /**
+     * Consumes the name of an object member
+     * @return member name
+     * @throws IOException error reading input
+     * @throws JSONException next token is not a name
+     */
+    public String nextName() throws IOException, JSONException {
+        consume(Token.NAME);
+        return mPeekedValue;
+    }
+
+    /**
+     * Consumes a string (or number) value. Null values are returned as null
+     * @return value as string
+     * @throws IOException error reading input
+     * @throws JSONException next token is not a string
+     */
+    public String nextString() throws IOException, JSONException {
+        Token token = peek();
+        if (token == Token.NULL) {
+            mPeeked = null;
+            return null;
+        }
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw new JSONException("Expected a string but was " + token);
+        }
+        mPeeked = null;
+        return mPeekedValue;
+    }
+
+    /**
+     * Consumes a boolean value
+     * @return boolean value
+     * @throws IOException error reading input
+     * @throws JSONException next token is not a boolean
+     */
+    public boolean nextBoolean() throws IOException, JSONException {
+        Token token = peek();
+        if (token != Token.BOOLEAN && token != Token.STRING) {
+            throw new JSONException("Expected a boolean but was " + token);
+        }
+        mPeeked = null;
+        return "true".equals(mPeekedValue);
+    }
+
+    /**
+     * Skips next value, including nested arrays and objects
+     * @throws IOException error reading input
+     * @throws JSONException malformed document
+     */
+    public void skipValue() throws IOException, JSONException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            mPeeked = null;
+            if (token == Token.BEGIN_ARRAY || token == Token.BEGIN_OBJECT) {
+                depth++;
+            } else if (token == Token.END_ARRAY || token == Token.END_OBJECT) {
+                depth--;
+            } else if (token == Token.END_DOCUMENT) {
+                throw syntaxError("Unexpected end of document");
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Closes underlying reader
+     * @throws IOException error closing input
+     */
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    /**
+     * Consumes peeked token if it has the expected type
+     * @param expected expected type
+     * @throws IOException error reading input
+     * @throws JSONException next token type is not the expected one
+     */
+    private void consume(Token expected) throws IOException, JSONException {
+        Token token = peek();
+        if (token != expected) {
+            throw new JSONException("Expected " + expected + " but was " + token);
+        }
+        mPeeked = null;
+    }
+
+    /**
+     * Reads a value and pushes its scope, if any
+     * @return type of value
+     * @throws IOException error reading input
+     * @throws JSONException malformed document
+     */
+    private Token readValue() throws IOException, JSONException {
+        int c = nextNonWhitespace(true);
+        switch (c) {
+            case '{':
+                push(EMPTY_OBJECT);
+                mPeeked = Token.BEGIN_OBJECT;
+                break;
+            case '[':
+                push(EMPTY_ARRAY);
+                mPeeked = Token.BEGIN_ARRAY;
+                break;
+            case '"':
+                mPeekedValue = readString();
+                mPeeked = Token.STRING;
+                break;
+            default:
+                mPos--;
+                mPeekedValue = readLiteral();
+                if ("true".equals(mPeekedValue) || "false".equals(mPeekedValue)) {
+                    mPeeked = Token.BOOLEAN;
+                } else if ("null".equals(mPeekedValue)) {
+                    mPeeked = Token.NULL;
+                } else if (mPeekedValue.length() == 0) {
+                    throw syntaxError("Expected value");
+                } else {
+                    mPeeked = Token.NUMBER;
+                }
+                break;
+        }
+        return mPeeked;
+    }
+
+    /**
+     * Closes current scope
+     * @param token END_ARRAY or END_OBJECT
+     * @return token
+     */
+    private Token endScope(Token token) {
+        mStackSize--;
+        mPeeked = token;
+        return token;
+    }
+
+    /**
+     * Push a new scope
+     * @param scope scope to push
+     */
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] newStack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, newStack, 0, mStackSize);
+            mStack = newStack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    /**
+     * Reads a quoted string. Opening quote is already consumed
+     * @return unescaped string
+     * @throws IOException error reading input
+     * @throws JSONException malformed string
+     */
+    private String readString() throws IOException, JSONException {
+        StringBuilder sb = mStringBuilder;
+        sb.setLength(0);
+        while (true) {
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos++];
+                if (c == '"') {
+                    sb.append(mBuffer, start, mPos - start - 1);
+                    return sb.toString();
+                } else if (c == '\\') {
+                    sb.append(mBuffer, start, mPos - start - 1);
+                    sb.append(readEscape());
+                    start = mPos;
+                }
+            }
+            sb.append(mBuffer, start, mPos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Reads an escape sequence. Backslash is already consumed
+     * @return escaped char
+     * @throws IOException error reading input
+     * @throws JSONException malformed escape sequence
+     */
+    private char readEscape() throws IOException, JSONException {
+        if (mPos == mLimit && !fill()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char c = mBuffer[mPos++];
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (mPos == mLimit && !fill()) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    int digit = Character.digit(mBuffer[mPos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            default:
+                // '"', '\\', '/' and unknown escapes
+                return c;
+        }
+    }
+
+    /**
+     * Reads an unquoted literal: number, true, false or null
+     * @return literal text
+     * @throws IOException error reading input
+     */
+    private String readLiteral() throws IOException {
+        StringBuilder sb = mStringBuilder;
+        sb.setLength(0);
+        while (true) {
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos];
+                switch (c) {
+                    case ',': case ':': case '{': case '}': case '[': case ']': case '"':
+                    case ' ': case '\t': case '\n': case '\r':
+                        return sb.toString();
+                    default:
+                        sb.append(c);
+                        mPos++;
+                        break;
+                }
+            }
+            if (!fill()) {
+                return sb.toString();
+            }
+        }
+    }
+
+    /**
+     * Get next char which is not a white space
+     * @param throwOnEof true if end of input is an error
+     * @return next char, or -1 at end of input
+     * @throws IOException error reading input
+     * @throws JSONException unexpected end of input
+     */
+    private int nextNonWhitespace(boolean throwOnEof) throws IOException, JSONException {
+        while (mPos < mLimit || fill()) {
+            char c = mBuffer[mPos++];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+        if (throwOnEof) {
+            throw syntaxError("Unexpected end of document");
+        }
+        return -1;
+    }
+
+    /**
+     * Refill buffer from input
+     * @return false at end of input
+     * @throws IOException error reading input
+     */
+    private boolean fill() throws IOException {
+        mPos = 0;
+        mLimit = 0;
+        int read;
+        while ((read = mIn.read(mBuffer, 0, mBuffer.length)) == 0) {
+            // read again until data or end of input
+        }
+        if (read > 0) {
+            mLimit = read;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Build a syntax error
+     * @param message error description
+     * @return exception to throw
+     */
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at position " + mPos);
+    }
+}
@@ -0,0 +1,328 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.util;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+
+/**
+ * Parser and formatter of RFC 3339 dates (as used by google), working on epoch 
+ * millis. Dates are read and written with plain arithmetic on a fixed layout, 
+ * so no formatter object is needed and methods can be used from any thread.
+ * Supported layouts: "yyyy-MM-dd" (complete day), "yyyy-MM-ddTHH:mm:ss[.SSS]" 
+ * followed by "Z", an offset "+hh:mm" or nothing (local time)
+ * @author vitor
+ */
+public final class Rfc3339 {
+
+    /** Milliseconds of a day */
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    /** Milliseconds of an hour */
+    private static final int MILLIS_PER_HOUR = 60 * 60 * 1000;
+    /** Milliseconds of a minute */
+    private static final int MILLIS_PER_MINUTE = 60 * 1000;
+    /** Length of a complete-day date */
+    private static final int DATE_LENGTH = 10;
+    /** Length of a date-time without fraction nor offset */
+    private static final int DATE_TIME_LENGTH = 19;
+
+    /**
+     * Utility class
+     */
+    private Rfc3339() {
+    }
+
+    /**
+     * Check if a string is a complete-day date (without time)
+     * @param value RFC 3339 string
+     * @return true if value is a date, false if it is a date-time
+     */
+    public static boolean isDate(String value) {
+        return value.length() == DATE_LENGTH;
+    }
+
+    /**
+     * Parse a date or date-time. Dates and date-times without offset are local 
+     * times of default time zone
+     * @param value RFC 3339 string
+     * @return epoch millis
+     * @throws ParseException in case of malformed string
+     */
+    public static long parse(String value) throws ParseException {
+        return parse(value, TimeZone.getDefault());
+    }
+
+    /**
+     * Parse a date or date-time
+     * @param value RFC 3339 string
+     * @param zone time zone of dates and date-times without offset
+     * @return epoch millis
+     * @throws ParseException in case of malformed string
+     */
+    public static long parse(String value, TimeZone zone) throws ParseException {
+        if (value == null) {
+            throw new ParseException("Empty date", 0);
+        }
+        int length = value.length();
+        if (length < DATE_LENGTH) {
+            throw new ParseException("Unparseable date: " + value, length);
+        }
+        
+        int year = parseNumber(value, 0, 4);
+        expect(value, 4, '-');
+        int month = parseNumber(value, 5, 2);
+        expect(value, 7, '-');
+        int day = parseNumber(value, 8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new ParseException("Invalid date: " + value, 5);
+        }
+        long days = daysFromCivil(year, month, day);
+        
+        if (length == DATE_LENGTH) {
+            return toUtc(days * MILLIS_PER_DAY, zone);
+        }
+        
+        if (length < DATE_TIME_LENGTH) {
+            throw new ParseException("Unparseable date: " + value, length);
+        }
+        char separator = value.charAt(10);
+        if (separator != 'T' && separator != 't' && separator != ' ') {
+            throw new ParseException("Unparseable date: " + value, 10);
+        }
+        int hour = parseNumber(value, 11, 2);
+        expect(value, 13, ':');
+        int minute = parseNumber(value, 14, 2);
+        expect(value, 16, ':');
+        int second = parseNumber(value, 17, 2);
+        if (hour > 23 || minute > 59 || second > 60) {
+            throw new ParseException("Invalid time: " + value, 11);
+        }
+        
+        int pos = DATE_TIME_LENGTH;
+        int millis = 0;
+        if (pos < length && value.charAt(pos) == '.') {
+            pos++;
+            int scale = 100;
+            int begin = pos;
+            while (pos < length && isDigit(value.charAt(pos))) {
+                millis += (value.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == begin) {
+                throw new ParseException("Invalid fraction: " + value, pos);
+            }
+        }
+        
+        long local = days * MILLIS_PER_DAY 
+                + hour * (long) MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second * 1000 + millis;
+        
+        if (pos == length) {
+            return toUtc(local, zone);
+        }
+        
+        char sign = value.charAt(pos);
+        if ((sign == 'Z' || sign == 'z') && pos + 1 == length) {
+            return local;
+        }
+        if (sign != '+' && sign != '-') {
+            throw new ParseException("Invalid offset: " + value, pos);
+        }
+        int offsetHour = parseNumber(value, pos + 1, 2);
+        int minutePos = pos + 3;
+        if (minutePos < length && value.charAt(minutePos) == ':') {
+            minutePos++;
+        }
+        int offsetMinute = parseNumber(value, minutePos, 2);
+        if (minutePos + 2 != length || offsetMinute > 59) {
+            throw new ParseException("Invalid offset: " + value, pos);
+        }
+        int offset = offsetHour * MILLIS_PER_HOUR + offsetMinute * MILLIS_PER_MINUTE;
+        return sign == '+' ? local - offset : local + offset;
+    }
+
+    /**
+     * Format a date-time with offset, i.e. "2012-07-07T11:15:19+02:00"
+     * @param millis epoch millis
+     * @param zone time zone of output
+     * @return RFC 3339 string
+     */
+    public static String formatDateTime(long millis, TimeZone zone) {
+        StringBuilder sb = new StringBuilder(25);
+        appendDateTime(sb, millis, zone);
+        return sb.toString();
+    }
+
+    /**
+     * Append a date-time with offset, i.e. "2012-07-07T11:15:19+02:00"
+     * @param sb output buffer
+     * @param millis epoch millis
+     * @param zone time zone of output
+     */
+    public static void appendDateTime(StringBuilder sb, long millis, TimeZone zone) {
+        int offset = zone.getOffset(millis);
+        long local = millis + offset;
+        long days = floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+        
+        appendDate(sb, days);
+        sb.append('T');
+        appendNumber(sb, millisOfDay / MILLIS_PER_HOUR, 2);
+        sb.append(':');
+        appendNumber(sb, millisOfDay / MILLIS_PER_MINUTE % 60, 2);
+        sb.append(':');
+        appendNumber(sb, millisOfDay / 1000 % 60, 2);
+        
+        if (offset < 0) {
+            sb.append('-');
+            offset = -offset;
+        } else {
+            sb.append('+');
+        }
+        appendNumber(sb, offset / MILLIS_PER_HOUR, 2);
+        sb.append(':');
+        appendNumber(sb, offset / MILLIS_PER_MINUTE % 60, 2);
+    }
+
+    /**
+     * Convert a local time to epoch millis
+     * @param local local time, as millis from 1970-01-01T00:00 of the zone
+     * @param zone time zone
+     * @return epoch millis
+     */
+    private static long toUtc(long local, TimeZone zone) {
+        //Offset of a guess, then offset of the corrected instant (handles DST changes)
+        int offset = zone.getOffset(local - zone.getRawOffset());
+        int corrected = zone.getOffset(local - offset);
+        if (corrected != offset && zone.getOffset(local - corrected) != corrected) {
+            //Local time skipped by a forward change: offset before the change, as lenient calendars do
+            return Math.max(local - offset, local - corrected);
+        }
+        return local - corrected;
+    }
+
+    /**
+     * Append a "yyyy-MM-dd" date
+     * @param sb output buffer
+     * @param days days since 1970-01-01
+     */
+    private static void appendDate(StringBuilder sb, long days) {
+        //Inverse of daysFromCivil
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        
+        appendNumber(sb, (int) year, 4);
+        sb.append('-');
+        appendNumber(sb, month, 2);
+        sb.append('-');
+        appendNumber(sb, day, 2);
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic gregorian date
+     * @param year year
+     * @param month month (1-12)
+     * @param day day of month (1-31)
+     * @return days since 1970-01-01
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    /**
+     * Division rounding to negative infinity
+     * @param a dividend
+     * @param b divisor (positive)
+     * @return floor of a / b
+     */
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        return (a % b < 0) ? q - 1 : q;
+    }
+
+    /**
+     * Parse a fixed-length unsigned number
+     * @param value string
+     * @param pos position of first digit
+     * @param digits number of digits
+     * @return number
+     * @throws ParseException if there are not enough digits
+     */
+    private static int parseNumber(String value, int pos, int digits) throws ParseException {
+        if (pos + digits > value.length()) {
+            throw new ParseException("Unparseable date: " + value, value.length());
+        }
+        int number = 0;
+        for (int i = pos; i < pos + digits; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) {
+                throw new ParseException("Unparseable date: " + value, i);
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Check a separator
+     * @param value string
+     * @param pos position of separator
+     * @param expected expected char
+     * @throws ParseException if char is not the expected one
+     */
+    private static void expect(String value, int pos, char expected) throws ParseException {
+        if (value.charAt(pos) != expected) {
+            throw new ParseException("Unparseable date: " + value, pos);
+        }
+    }
+
+    /**
+     * @param c char
+     * @return true if c is an ASCII digit
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Append a zero-padded number
+     * @param sb output buffer
+     * @param number non negative number
+     * @param digits minimum number of digits
+     */
+    private static void appendNumber(StringBuilder sb, int number, int digits) {
+        for (int limit = 10, i = 1; i < digits; i++, limit *= 10) {
+            if (number < limit) {
+                sb.append('0');
+            }
+        }
+        sb.append(number);
+    }
+}
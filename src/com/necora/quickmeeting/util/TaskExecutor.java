@@ -0,0 +1,212 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.necora.quickmeeting.util;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-wide executor for background work. Tasks run on a bounded pool of named
+ * workers, ordered by priority. Tasks are grouped by owner (e.g. an activity),
+ * so all of them can be cancelled at once; cancelling a running task interrupts
+ * it and aborts its http request, so the connection goes back to the pool.
+ * A task submitted with a key is merged with an identical one still queued.
+ * @author vitor
+ */
+public class TaskExecutor {
+
+    /** Priority of work the user is waiting for, e.g. a booking */
+    public static final int PRIORITY_INTERACTIVE = 0;
+    /** Priority of refreshes requested by the user */
+    public static final int PRIORITY_REFRESH = 1;
+    /** Priority of background work, e.g. scheduled polls */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    /** Log tag */
+    private static final String TAG = TaskExecutor.class.getName();
+
+    /** Number of workers */
+    private static final int POOL_SIZE = 3;
+    /** Time (s) an idle worker is kept */
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    /** Singleton instance */
+    private static TaskExecutor sInstance;
+
+    /**
+     * Submitted task, ordered by priority and then by submission
+     */
+    private class Task extends FutureTask<Void> implements Comparable<Task> {
+
+        /** Priority, lower values go first */
+        private final int mPriority;
+        /** Submission order */
+        private final long mSequence;
+        /** Owner, may be null */
+        private final Object mOwner;
+        /** Key of identical tasks, may be null */
+        private final String mKey;
+        /** Requests of the task, aborted when it is cancelled */
+        private final ConnectionUtils.RequestTracker mRequests = new ConnectionUtils.RequestTracker();
+        /** True once the task started */
+        private volatile boolean mStarted;
+
+        Task(Runnable runnable, int priority, long sequence, Object owner, String key) {
+            super(runnable, null);
+            mPriority = priority;
+            mSequence = sequence;
+            mOwner = owner;
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            mStarted = true;
+            ConnectionUtils.RequestTracker previous = ConnectionUtils.bindRequestTracker(mRequests);
+            try {
+                super.run();
+            } finally {
+                ConnectionUtils.bindRequestTracker(previous);
+            }
+        }
+
+        @Override
+        protected void done() {
+            synchronized (mTasks) {
+                mTasks.remove(this);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                mExecutor.remove(this);
+                if (mayInterruptIfRunning) {
+                    // only requests of this task, even if its worker already runs another one
+                    mRequests.abort();
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    /** Worker pool */
+    private final ThreadPoolExecutor mExecutor;
+    /** Submission counter, keeps tasks of same priority in order */
+    private final AtomicLong mSequence = new AtomicLong();
+    /** Queued and running tasks */
+    private final Set<Task> mTasks = new HashSet<Task>();
+
+    /**
+     * Private constructor, use getInstance
+     */
+    private TaskExecutor() {
+        mExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    /** Number of created threads */
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "TaskExecutor-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @return singleton instance
+     */
+    public static synchronized TaskExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new TaskExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Submit a task
+     * @param runnable work to do
+     * @param priority one of the PRIORITY constants
+     * @param owner owner of the task, to cancel it with cancelAll. May be null
+     * @param key if not null, an identical queued task of the same owner is
+     *            returned instead of queuing a new one
+     * @return future of the task, can be used to cancel it
+     */
+    public Future<?> submit(Runnable runnable, int priority, Object owner, String key) {
+        Task task;
+        synchronized (mTasks) {
+            if (key != null) {
+                for (Task queued : mTasks) {
+                    if (!queued.mStarted && queued.mOwner == owner && key.equals(queued.mKey)) {
+                        Log.d(TAG, "Task " + key + " already queued");
+                        return queued;
+                    }
+                }
+            }
+            task = new Task(runnable, priority, mSequence.incrementAndGet(), owner, key);
+            mTasks.add(task);
+        }
+        // submit() would wrap the task and lose its priority
+        mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancel queued and running tasks of an owner. Running ones are interrupted
+     * and their http request is aborted
+     * @param owner owner of the tasks
+     */
+    public void cancelAll(Object owner) {
+        List<Task> tasks = new ArrayList<Task>();
+        synchronized (mTasks) {
+            for (Task task : mTasks) {
+                if (task.mOwner == owner) {
+                    tasks.add(task);
+                }
+            }
+        }
+        for (Task task : tasks) {
+            task.cancel(true);
+        }
+        Log.d(TAG, "Cancelled " + tasks.size() + " tasks");
+    }
+}
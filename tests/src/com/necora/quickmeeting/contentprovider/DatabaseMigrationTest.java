@@ -0,0 +1,142 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.    
+*/
+
+package com.necora.quickmeeting.contentprovider;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import junit.framework.TestCase;
+
+/**
+ * Upgrades an in-memory version 1 database, with data, through every migration
+ * @author vitor
+ */
+public class DatabaseMigrationTest extends TestCase {
+
+    /** Database under test */
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        DatabaseHelper.createVersion1(mDb);
+        
+        //Version 1 stored auth_user_id as text
+        mDb.execSQL("INSERT INTO " + DatabaseHelper.AUTH_USER_TABLE_NAME + " (" + AccountColumns._ID + ", " 
+                + AccountColumns.EMAIL + ", " + AccountColumns.ACCESS_TOKEN + ", " + AccountColumns.ACTIVE_USER 
+                + ") VALUES (1, 'user@example.com', 'token', 1)");
+        insertResource(1, "1", "Room 1");
+        insertResource(2, "1", "Room 2");
+        insertResource(3, "99", "Room of a deleted user");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    /**
+     * Every step applies on its own, from version 1
+     */
+    public void testStepByStep() {
+        for (int version = 2; version <= DatabaseHelper.DATABASE_VERSION; version++) {
+            DatabaseHelper.migrate(mDb, version - 1, version);
+        }
+        assertUpgraded();
+    }
+
+    /**
+     * Whole upgrade from version 1, as onUpgrade does
+     */
+    public void testUpgradeFromVersion1() {
+        DatabaseHelper.migrate(mDb, 1, DatabaseHelper.DATABASE_VERSION);
+        assertUpgraded();
+    }
+
+    /**
+     * A version without migration is refused, and schema is left as it was
+     */
+    public void testMissingMigration() {
+        try {
+            DatabaseHelper.migrate(mDb, DatabaseHelper.DATABASE_VERSION, DatabaseHelper.DATABASE_VERSION + 1);
+            fail("Upgrade to an unknown version");
+        } catch (IllegalStateException e) {
+            //Expected
+        }
+        assertEquals(0, count("sqlite_master", "name='" + DatabaseHelper.EVENT_TABLE_NAME + "'"));
+    }
+
+    /**
+     * Check data and schema of an upgraded database
+     */
+    private void assertUpgraded() {
+        //Accounts are kept
+        assertEquals("user@example.com", DatabaseUtils.stringForQuery(mDb, 
+                "SELECT " + AccountColumns.EMAIL + " FROM " + DatabaseHelper.AUTH_USER_TABLE_NAME, null));
+        
+        //Resources keep their ids and user, now an integer. Orphans are dropped
+        assertEquals(2, count(DatabaseHelper.RESOURCE_TABLE_NAME, null));
+        assertEquals(2, count(DatabaseHelper.RESOURCE_TABLE_NAME, 
+                ResourceColumns.AUTH_USER_ID + "=1 AND typeof(" + ResourceColumns.AUTH_USER_ID + ")='integer'"));
+        assertEquals("Room 2", DatabaseUtils.stringForQuery(mDb, "SELECT " + ResourceColumns.NAME + " FROM " 
+                + DatabaseHelper.RESOURCE_TABLE_NAME + " WHERE " + ResourceColumns._ID + "=2", null));
+        
+        //Columns and tables of later versions
+        mDb.execSQL("UPDATE " + DatabaseHelper.RESOURCE_TABLE_NAME + " SET " + ResourceColumns.CALENDAR_ID + "='c', " 
+                + ResourceColumns.TIMEZONE + "='UTC', " + ResourceColumns.COLOR + "='#000', " 
+                + ResourceColumns.METADATA_UPDATED + "=0");
+        assertEquals(0, count(DatabaseHelper.EVENT_TABLE_NAME, null));
+        
+        //Lookup indexes
+        assertIndex(DatabaseHelper.EVENT_TABLE_NAME + "_resource_begin");
+        assertIndex(DatabaseHelper.RESOURCE_TABLE_NAME + "_user_active");
+        assertIndex(DatabaseHelper.AUTH_USER_TABLE_NAME + "_email");
+        assertIndex(DatabaseHelper.AUTH_USER_TABLE_NAME + "_active");
+    }
+
+    /**
+     * @param name index name
+     */
+    private void assertIndex(String name) {
+        assertEquals(name, 1, count("sqlite_master", "type='index' AND name='" + name + "'"));
+    }
+
+    /**
+     * @param table table name
+     * @param where filter, null for all rows
+     * @return number of rows
+     */
+    private long count(String table, String where) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + table 
+                + (where != null ? " WHERE " + where : ""), null);
+    }
+
+    /**
+     * Insert a resource as version 1 did
+     * @param id row id
+     * @param userId user id, as text
+     * @param name resource name
+     */
+    private void insertResource(int id, String userId, String name) {
+        mDb.execSQL("INSERT INTO " + DatabaseHelper.RESOURCE_TABLE_NAME + " (" + ResourceColumns._ID + ", " 
+                + ResourceColumns.AUTH_USER_ID + ", " + ResourceColumns.NAME + ", " + ResourceColumns.ACTIVE 
+                + ") VALUES (?, ?, ?, 1)", new Object[] { id, userId, name });
+    }
+}
@@ -0,0 +1,210 @@
+/**
+    This file is part of QuickMeeting.
+
+    QuickMeeting is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    QuickMeeting is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with QuickMeeting.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import com.necora.quickmeeting.util.Rfc3339;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Cross-check and microbenchmark of Rfc3339 against the SimpleDateFormat code 
+ * it replaced. Runs on a plain JVM, see rfc3339-check.sh.
+ * Usage: Rfc3339Check [instants per zone] [seed]
+ * @author vitor
+ */
+public class Rfc3339Check {
+
+    /** Zones checked: no DST, DST in both hemispheres, half hour offsets */
+    private static final String[] ZONES = new String[] {
+        "UTC", "America/Sao_Paulo", "Europe/Madrid", "America/New_York", 
+        "Asia/Kolkata", "Australia/Lord_Howe"
+    };
+    /** First instant checked, 1970-01-01 */
+    private static final long FIRST_INSTANT = 0L;
+    /** Last instant checked, 2040-01-01 */
+    private static final long LAST_INSTANT = 2208988800000L;
+    /** Timestamps per benchmark round */
+    private static final int BENCHMARK_SIZE = 10000;
+    /** Benchmark rounds, the first half is warm up */
+    private static final int BENCHMARK_ROUNDS = 40;
+
+    /** Sink for benchmark results, so they are not optimized away */
+    private static long sSink;
+
+    /**
+     * Entry point
+     * @param args instants per zone and random seed, both optional
+     * @throws ParseException never, unless SimpleDateFormat fails
+     */
+    public static void main(String[] args) throws ParseException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.currentTimeMillis();
+        System.out.println("Seed " + seed + ", " + count + " instants per zone");
+        
+        int failures = 0;
+        for (String id : ZONES) {
+            failures += crossCheck(TimeZone.getTimeZone(id), count, new Random(seed));
+        }
+        if (failures > 0) {
+            System.out.println(failures + " mismatches");
+            System.exit(1);
+        }
+        System.out.println("No mismatches");
+        
+        benchmark(TimeZone.getTimeZone("Europe/Madrid"), new Random(seed));
+    }
+
+    /**
+     * Compare Rfc3339 with SimpleDateFormat for random instants of a zone
+     * @param zone time zone
+     * @param count number of instants
+     * @param random random source
+     * @return number of mismatches
+     * @throws ParseException if SimpleDateFormat fails
+     */
+    private static int crossCheck(TimeZone zone, int count, Random random) throws ParseException {
+        SimpleDateFormat offsetFormatter = newFormatter("yyyy-MM-dd'T'HH:mm:ssZ", zone);
+        SimpleDateFormat dateTimeFormatter = newFormatter("yyyy-MM-dd'T'HH:mm:ss", zone);
+        SimpleDateFormat dateFormatter = newFormatter("yyyy-MM-dd", zone);
+        
+        int failures = 0;
+        for (int i = 0; i < count; i++) {
+            //Whole seconds, as sent and received by google
+            long millis = (FIRST_INSTANT + (long) (random.nextDouble() * (LAST_INSTANT - FIRST_INSTANT))) / 1000 * 1000;
+            
+            String expected = formatOld(offsetFormatter, millis);
+            String formatted = Rfc3339.formatDateTime(millis, zone);
+            failures += check(zone, "format", millis, expected, formatted);
+            failures += check(zone, "parse offset", formatted, millis, Rfc3339.parse(formatted, zone));
+            
+            String local = dateTimeFormatter.format(millis);
+            failures += check(zone, "parse local", local, 
+                    dateTimeFormatter.parse(local).getTime(), Rfc3339.parse(local, zone));
+            
+            String date = dateFormatter.format(millis);
+            failures += check(zone, "parse date", date, 
+                    dateFormatter.parse(date).getTime(), Rfc3339.parse(date, zone));
+        }
+        System.out.println(zone.getID() + ": " + failures + " mismatches");
+        return failures;
+    }
+
+    /**
+     * Report a mismatch
+     * @param zone time zone
+     * @param what checked operation
+     * @param input input of the operation
+     * @param expected result of the old code
+     * @param actual result of Rfc3339
+     * @return 1 if results differ, else 0
+     */
+    private static int check(TimeZone zone, String what, Object input, Object expected, Object actual) {
+        if (expected.equals(actual)) {
+            return 0;
+        }
+        System.out.println(zone.getID() + " " + what + " " + input + ": expected " + expected + ", got " + actual);
+        return 1;
+    }
+
+    /**
+     * Measure parse and format of old and new code
+     * @param zone time zone
+     * @param random random source
+     * @throws ParseException if SimpleDateFormat fails
+     */
+    private static void benchmark(TimeZone zone, Random random) throws ParseException {
+        TimeZone.setDefault(zone);
+        long[] instants = new long[BENCHMARK_SIZE];
+        String[] dates = new String[BENCHMARK_SIZE];
+        SimpleDateFormat offsetFormatter = newFormatter("yyyy-MM-dd'T'HH:mm:ssZ", zone);
+        for (int i = 0; i < BENCHMARK_SIZE; i++) {
+            instants[i] = (long) (random.nextDouble() * LAST_INSTANT) / 1000 * 1000;
+            dates[i] = formatOld(offsetFormatter, instants[i]);
+        }
+        //Formatter shared by parseGoogleDate calls, as the connector did
+        SimpleDateFormat parser = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        
+        long[] totals = new long[4];
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long[] times = new long[4];
+            
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_SIZE; i++) {
+                Calendar calendar = new GregorianCalendar();
+                calendar.setTime(parser.parse(dates[i]));
+                sSink += calendar.getTimeInMillis();
+            }
+            times[0] = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_SIZE; i++) {
+                sSink += Rfc3339.parse(dates[i]);
+            }
+            times[1] = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_SIZE; i++) {
+                //formatToGoogleDateTime built a formatter per call
+                sSink += formatOld(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ"), instants[i]).length();
+            }
+            times[2] = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_SIZE; i++) {
+                sSink += Rfc3339.formatDateTime(instants[i], zone).length();
+            }
+            times[3] = System.nanoTime() - start;
+            
+            if (round >= BENCHMARK_ROUNDS / 2) {
+                for (int i = 0; i < times.length; i++) {
+                    totals[i] += times[i];
+                }
+            }
+        }
+        long ops = (long) BENCHMARK_SIZE * (BENCHMARK_ROUNDS - BENCHMARK_ROUNDS / 2);
+        System.out.println("parse  SimpleDateFormat: " + totals[0] / ops + " ns/op, Rfc3339: " + totals[1] / ops + " ns/op");
+        System.out.println("format SimpleDateFormat: " + totals[2] / ops + " ns/op, Rfc3339: " + totals[3] / ops + " ns/op");
+        System.out.println("(sink " + (sSink & 1) + ")");
+    }
+
+    /**
+     * Format like the former formatToGoogleDateTime: "+hhmm" offset, then a colon is inserted
+     * @param formatter "yyyy-MM-dd'T'HH:mm:ssZ" formatter
+     * @param millis epoch millis
+     * @return RFC 3339 string
+     */
+    private static String formatOld(SimpleDateFormat formatter, long millis) {
+        StringBuffer sb = new StringBuffer(formatter.format(millis));
+        sb.insert(22, ':');
+        return sb.toString();
+    }
+
+    /**
+     * @param pattern SimpleDateFormat pattern
+     * @param zone time zone
+     * @return formatter of the zone
+     */
+    private static SimpleDateFormat newFormatter(String pattern, TimeZone zone) {
+        SimpleDateFormat formatter = new SimpleDateFormat(pattern);
+        formatter.setTimeZone(zone);
+        return formatter;
+    }
+}
@@ -0,0 +1,9 @@
+#!/bin/sh
+# Cross-check util/Rfc3339 against SimpleDateFormat and benchmark both, on a plain JVM.
+# Usage: tools/rfc3339-check.sh [instants per zone] [seed]
+set -e
+cd "$(dirname "$0")/.."
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -d "$out" src/com/necora/quickmeeting/util/Rfc3339.java tools/Rfc3339Check.java
+java -cp "$out" Rfc3339Check "$@"